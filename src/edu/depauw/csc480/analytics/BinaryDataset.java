@@ -0,0 +1,261 @@
+package edu.depauw.csc480.analytics;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A file written by BinaryExport, mapped into memory. Opening it only walks the
+ * block headers and reads the dictionary; each column is copied out with bulk
+ * buffer reads when it is asked for. Files are limited to 2GB, the most that
+ * can be mapped as one buffer.
+ */
+public class BinaryDataset implements AutoCloseable {
+	private FileChannel channel;
+	private MappedByteBuffer map;
+	private Map<String, Table> tables;
+	private String[] strings;
+	private String[] extraGrades;
+
+	/**
+	 * The layout of one table in the file.
+	 */
+	private static class Table {
+		String[] names;
+		byte[] types;
+		List<int[]> blocks = new ArrayList<>(); // { offset, rows }
+		int rows;
+
+		int column(String name) {
+			for (int c = 0; c < names.length; c++) {
+				if (names[c].equalsIgnoreCase(name)) {
+					return c;
+				}
+			}
+			throw new IllegalArgumentException("no column " + name);
+		}
+
+		/**
+		 * @return the offset of the column within a block of the given size
+		 */
+		int columnOffset(int column, int blockRows) {
+			int offset = 4;
+			for (int c = 0; c < column; c++) {
+				offset += blockRows * ((types[c] == BinaryExport.GRADE) ? 1 : 4);
+			}
+			return offset;
+		}
+	}
+
+	private BinaryDataset(FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		this.tables = new LinkedHashMap<>();
+
+		ByteBuffer buf = map.duplicate();
+		if (buf.getInt() != BinaryExport.MAGIC || buf.getInt() != BinaryExport.VERSION) {
+			throw new IOException("not a university export file");
+		}
+
+		for (int t = 0; t < 5; t++) {
+			Table table = new Table();
+			String name = getString(buf);
+			int width = buf.getInt();
+			table.names = new String[width];
+			table.types = new byte[width];
+			for (int c = 0; c < width; c++) {
+				table.names[c] = getString(buf);
+				table.types[c] = buf.get();
+			}
+
+			int rows;
+			while ((rows = buf.getInt()) > 0) {
+				int offset = buf.position() - 4;
+				table.blocks.add(new int[] { offset, rows });
+				table.rows += rows;
+				buf.position(offset + table.columnOffset(width, rows));
+			}
+			tables.put(name, table);
+		}
+
+		strings = new String[buf.getInt()];
+		for (int code = 0; code < strings.length; code++) {
+			strings[code] = getString(buf);
+		}
+
+		extraGrades = new String[buf.getInt()];
+		for (int i = 0; i < extraGrades.length; i++) {
+			extraGrades[i] = getString(buf);
+		}
+	}
+
+	/**
+	 * Map an export file.
+	 *
+	 * @param file
+	 * @return the dataset
+	 * @throws IOException
+	 */
+	public static BinaryDataset open(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return new BinaryDataset(channel);
+		} catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static String getString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getShort() & 0xFFFF];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private Table table(String name) {
+		Table table = tables.get(name.toUpperCase());
+		if (table == null) {
+			throw new IllegalArgumentException("no table " + name);
+		}
+		return table;
+	}
+
+	/**
+	 * @param table
+	 * @return the number of rows in the table
+	 */
+	public int getRowCount(String table) {
+		return table(table).rows;
+	}
+
+	/**
+	 * Read an INT or STRING column; the values of a STRING column are dictionary
+	 * codes (see decode). Rows are in key order, and null is BinaryExport.NULL.
+	 *
+	 * @param table
+	 * @param column
+	 * @return the values
+	 */
+	public int[] ints(String table, String column) {
+		Table t = table(table);
+		int c = t.column(column);
+		if (t.types[c] == BinaryExport.GRADE) {
+			throw new IllegalArgumentException(column + " is not an int column");
+		}
+
+		int[] values = new int[t.rows];
+		int n = 0;
+		ByteBuffer buf = map.duplicate();
+		for (int[] block : t.blocks) {
+			buf.position(block[0] + t.columnOffset(c, block[1]));
+			buf.asIntBuffer().get(values, n, block[1]);
+			n += block[1];
+		}
+		return values;
+	}
+
+	/**
+	 * Read a GRADE column, as Grades codes. Grades that Grades does not know,
+	 * such as W or P, are Grades.NONE here; see letters.
+	 *
+	 * @param table
+	 * @param column
+	 * @return the values
+	 */
+	public byte[] grades(String table, String column) {
+		byte[] values = gradeCodes(table, column);
+		for (int r = 0; r < values.length; r++) {
+			if ((values[r] & 0xFF) >= Grades.count()) {
+				values[r] = Grades.NONE;
+			}
+		}
+		return values;
+	}
+
+	/**
+	 * Read a GRADE column as the grades that were exported, including those
+	 * that Grades does not know.
+	 *
+	 * @param table
+	 * @param column
+	 * @return the values, with null for NULL
+	 */
+	public String[] letters(String table, String column) {
+		byte[] codes = gradeCodes(table, column);
+		String[] values = new String[codes.length];
+		for (int r = 0; r < codes.length; r++) {
+			int code = codes[r] & 0xFF;
+			values[r] = (code < Grades.count()) ? Grades.letter(code) : extraGrades[code - Grades.count()];
+		}
+		return values;
+	}
+
+	/**
+	 * @return the codes of a GRADE column as written by BinaryExport
+	 */
+	private byte[] gradeCodes(String table, String column) {
+		Table t = table(table);
+		int c = t.column(column);
+		if (t.types[c] != BinaryExport.GRADE) {
+			throw new IllegalArgumentException(column + " is not a grade column");
+		}
+
+		byte[] values = new byte[t.rows];
+		int n = 0;
+		ByteBuffer buf = map.duplicate();
+		for (int[] block : t.blocks) {
+			buf.position(block[0] + t.columnOffset(c, block[1]));
+			buf.get(values, n, block[1]);
+			n += block[1];
+		}
+		return values;
+	}
+
+	/**
+	 * Read a STRING column, decoded.
+	 *
+	 * @param table
+	 * @param column
+	 * @return the values
+	 */
+	public String[] strings(String table, String column) {
+		int[] codes = ints(table, column);
+		String[] values = new String[codes.length];
+		for (int r = 0; r < codes.length; r++) {
+			values[r] = decode(codes[r]);
+		}
+		return values;
+	}
+
+	/**
+	 * @param code
+	 * @return the string with the given dictionary code, or null for NULL
+	 */
+	public String decode(int code) {
+		return (code == BinaryExport.NULL) ? null : strings[code];
+	}
+
+	/**
+	 * @return the number of distinct strings
+	 */
+	public int getDictionarySize() {
+		return strings.length;
+	}
+
+	/**
+	 * Close the file. The mapping itself is released when the buffers are
+	 * garbage collected.
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
@@ -0,0 +1,290 @@
+package edu.depauw.csc480.analytics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Properties;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.projectv3.dao.DatabaseManager;
+
+/**
+ * Writes the five university tables to a compact, column-oriented binary file,
+ * which BinaryDataset can map back into memory far faster than the rows could
+ * be queried again. Each table is read once, in key order, through a
+ * forward-only result set, and written in blocks of up to BLOCK rows, each
+ * block holding one column after another; so the export needs only one block of
+ * memory per table however large the database is.
+ *
+ * File layout (big-endian):
+ *
+ * <pre>
+ * int MAGIC, int VERSION
+ * for each table:
+ *   name, int column count, for each column: name, byte type (INT, STRING, or GRADE)
+ *   blocks: int rows, then rows values of each column in turn (4 bytes each, 1 for GRADE)
+ *   int 0
+ * int dictionary size, then each string
+ * int extra grade count, then each extra grade
+ * </pre>
+ *
+ * Names and strings are an unsigned short length followed by UTF-8 bytes.
+ * STRING columns hold codes into the dictionary, which is written last because
+ * it is built as the rows go by; null is NULL (for INT columns too). GRADE
+ * columns hold Grades codes (0 for null), or for a grade that Grades does not
+ * know, such as W or P, Grades.count() plus its index among the extra grades,
+ * so that no grade is lost.
+ *
+ * The tables are read at READ_COMMITTED, one after another, so the file is only
+ * a consistent snapshot if nothing changes while it is written.
+ */
+public class BinaryExport {
+	public static final int MAGIC = 0x554E4956; // "UNIV"
+	public static final int VERSION = 2;
+
+	public static final byte INT = 'I';
+	public static final byte STRING = 'S';
+	public static final byte GRADE = 'G';
+
+	public static final int NULL = Integer.MIN_VALUE;
+
+	static final int BLOCK = 1 << 16;
+
+	private static final int FETCH_SIZE = 1000;
+
+	private static final String[][] TABLES = {
+			{ "DEPT", "DId", "DId:I", "DName:S" },
+			{ "STUDENT", "SId", "SId:I", "SName:S", "MajorId:I", "GradYear:I" },
+			{ "COURSE", "CId", "CId:I", "Title:S", "DeptId:I" },
+			{ "SECTION", "SectId", "SectId:I", "CourseId:I", "Prof:S", "YearOffered:I", "Capacity:I" },
+			{ "ENROLL", "EId", "EId:I", "StudentId:I", "SectionId:I", "Grade:G" } };
+
+	/**
+	 * Export all five tables.
+	 *
+	 * @param conn
+	 * @param file
+	 * @return the number of rows written
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	public static long export(Connection conn, Path file) throws SQLException, IOException {
+		Dictionary strings = new Dictionary();
+		Dictionary grades = new Dictionary();
+		long rows = 0;
+
+		try (Output out = new Output(file)) {
+			out.putInt(MAGIC);
+			out.putInt(VERSION);
+			for (String[] table : TABLES) {
+				rows += exportTable(conn, table, strings, grades, out);
+			}
+
+			out.putInt(strings.size());
+			for (int code = 0; code < strings.size(); code++) {
+				out.putString(strings.decode(code));
+			}
+
+			out.putInt(grades.size());
+			for (int code = 0; code < grades.size(); code++) {
+				out.putString(grades.decode(code));
+			}
+		}
+		return rows;
+	}
+
+	private static long exportTable(Connection conn, String[] table, Dictionary strings, Dictionary grades,
+			Output out) throws SQLException, IOException {
+		int width = table.length - 2;
+		String[] names = new String[width];
+		byte[] types = new byte[width];
+		StringBuilder sb = new StringBuilder("select ");
+		for (int c = 0; c < width; c++) {
+			String[] column = table[c + 2].split(":");
+			names[c] = column[0];
+			types[c] = (byte) column[1].charAt(0);
+			sb.append((c == 0) ? "" : ", ").append(names[c]);
+		}
+		sb.append("  from ").append(table[0]);
+		sb.append("  order by ").append(table[1]);
+
+		out.putString(table[0]);
+		out.putInt(width);
+		for (int c = 0; c < width; c++) {
+			out.putString(names[c]);
+			out.putByte(types[c]);
+		}
+
+		int[][] block = new int[width][BLOCK];
+		int n = 0;
+		long total = 0;
+		try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			stmt.setFetchSize(FETCH_SIZE);
+			ResultSet rs = stmt.executeQuery(sb.toString());
+			while (rs.next()) {
+				for (int c = 0; c < width; c++) {
+					if (types[c] == INT) {
+						int value = rs.getInt(c + 1);
+						block[c][n] = rs.wasNull() ? NULL : value;
+					} else {
+						String value = rs.getString(c + 1);
+						if (types[c] == GRADE) {
+							block[c][n] = gradeCode(value, grades);
+						} else {
+							block[c][n] = (value == null) ? NULL : strings.encode(value);
+						}
+					}
+				}
+				if (++n == BLOCK) {
+					writeBlock(out, block, types, n);
+					total += n;
+					n = 0;
+				}
+			}
+			rs.close();
+		}
+		if (n > 0) {
+			writeBlock(out, block, types, n);
+			total += n;
+		}
+		out.putInt(0);
+
+		return total;
+	}
+
+	/**
+	 * @return the Grades code of the grade, or a code after them for a grade
+	 *         that Grades does not know
+	 * @throws IOException if there are too many unknown grades for one byte
+	 */
+	private static int gradeCode(String grade, Dictionary extras) throws IOException {
+		int code = Grades.code(grade);
+		if (code != Grades.NONE || grade == null) {
+			return code;
+		}
+		code = Grades.count() + extras.encode(grade);
+		if (code > 0xFF) {
+			throw new IOException("too many unrecognized grades to export: " + grade);
+		}
+		return code;
+	}
+
+	private static void writeBlock(Output out, int[][] block, byte[] types, int n) throws IOException {
+		out.putInt(n);
+		for (int c = 0; c < block.length; c++) {
+			if (types[c] == GRADE) {
+				for (int r = 0; r < n; r++) {
+					out.putByte((byte) block[c][r]);
+				}
+			} else {
+				for (int r = 0; r < n; r++) {
+					out.putInt(block[c][r]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Buffers output in a direct buffer, writing it to the channel whenever it
+	 * fills up.
+	 */
+	private static class Output implements Closeable {
+		private FileChannel channel;
+		private ByteBuffer buf;
+
+		Output(Path file) throws IOException {
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+					StandardOpenOption.TRUNCATE_EXISTING);
+			buf = ByteBuffer.allocateDirect(1 << 20);
+		}
+
+		void putInt(int value) throws IOException {
+			ensure(4);
+			buf.putInt(value);
+		}
+
+		void putByte(byte value) throws IOException {
+			ensure(1);
+			buf.put(value);
+		}
+
+		void putString(String s) throws IOException {
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > 0xFFFF) {
+				throw new IOException("string too long to export");
+			}
+			ensure(2 + bytes.length);
+			buf.putShort((short) bytes.length);
+			buf.put(bytes);
+		}
+
+		private void ensure(int n) throws IOException {
+			if (buf.remaining() < n) {
+				flush();
+			}
+		}
+
+		private void flush() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining()) {
+				channel.write(buf);
+			}
+			buf.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				channel.close();
+			}
+		}
+	}
+
+	/**
+	 * Export the student database, then read the file back, comparing the time
+	 * with loading the same data with SQL.
+	 *
+	 * Usage: BinaryExport [file]
+	 *
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		PrintStream out = System.out;
+		String url = ConnectionFactory.url(DatabaseManager.DEFAULT_PATH);
+		Path file = Paths.get((args.length > 0) ? args[0] : "db/studentdb.univ");
+
+		try (Connection conn = ConnectionFactory.driver(url).connect(url, new Properties())) {
+			conn.setReadOnly(true);
+
+			long start = System.nanoTime();
+			long rows = export(conn, file);
+			out.printf("Exported %d rows to %s (%d bytes) in %.1f ms\n", rows, file, file.toFile().length(),
+					(System.nanoTime() - start) / 1e6);
+
+			start = System.nanoTime();
+			UniversitySnapshot fromSql = UniversitySnapshot.load(conn);
+			out.printf("Loaded %d enrollments with SQL in %.1f ms\n", fromSql.getEnrollmentCount(),
+					(System.nanoTime() - start) / 1e6);
+		}
+
+		long start = System.nanoTime();
+		try (BinaryDataset dataset = BinaryDataset.open(file)) {
+			UniversitySnapshot fromFile = UniversitySnapshot.load(dataset);
+			out.printf("Loaded %d enrollments from the file in %.1f ms\n", fromFile.getEnrollmentCount(),
+					(System.nanoTime() - start) / 1e6);
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package edu.depauw.csc480.analytics;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns each distinct string a small integer code, so that string columns
+ * can be stored as int arrays.
+ */
+class Dictionary {
+	private Map<String, Integer> codes;
+	private List<String> strings;
+
+	Dictionary() {
+		codes = new HashMap<>();
+		strings = new ArrayList<>();
+	}
+
+	Dictionary(Dictionary other) {
+		codes = new HashMap<>(other.codes);
+		strings = new ArrayList<>(other.strings);
+	}
+
+	int encode(String s) {
+		Integer code = codes.get(s);
+		if (code == null) {
+			code = strings.size();
+			codes.put(s, code);
+			strings.add(s);
+		}
+		return code;
+	}
+
+	String decode(int code) {
+		return strings.get(code);
+	}
+
+	int size() {
+		return strings.size();
+	}
+}
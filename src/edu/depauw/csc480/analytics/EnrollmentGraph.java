@@ -0,0 +1,572 @@
+package edu.depauw.csc480.analytics;
+
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.projectv3.dao.ChangeLogReader;
+import edu.depauw.csc480.projectv3.dao.DatabaseManager;
+import edu.depauw.csc480.projectv3.model.Enroll;
+import edu.depauw.csc480.projectv3.model.Student;
+
+/**
+ * The enrollments as a bipartite graph between students and sections, in
+ * compressed sparse row form in a direct buffer outside the Java heap. Each
+ * side has a sorted array of keys, an array of offsets, and a packed array of
+ * neighbors: the rows (positions in the other side's keys) of the sections a
+ * student took, or of the students in a section, in increasing order. Finding
+ * a student's classmates, or the students who took a given set of courses, is
+ * then a few binary searches and merges of int arrays, instead of the hundreds
+ * of queries it takes to walk Student.getEnrollments and
+ * Section.getEnrollments.
+ *
+ * The buffer also keeps the enrollment edges sorted by EId, so that refresh
+ * can apply the ENROLL entries of a CHANGE_LOG without reloading the table: it
+ * reads the current rows for just the changed keys and builds a new graph from
+ * the old edges and those rows. A graph never changes once built, so any
+ * number of threads may query it.
+ */
+public final class EnrollmentGraph {
+	private static final int FETCH_SIZE = 1000;
+	private static final int BATCH = 500;
+
+	private final IntBuffer ints;
+	private final int studentCount, sectionCount, edgeCount;
+
+	// offsets of the regions of ints
+	private final int studentKeys, studentOffsets, studentSections;
+	private final int sectionKeys, sectionCourses, sectionOffsets, sectionStudents;
+	private final int edges; // { EId, StudentId, SectionId, CourseId } sorted by EId
+
+	/**
+	 * Build the graph from edge columns sorted by EId.
+	 */
+	private EnrollmentGraph(int[] eId, int[] sId, int[] sectId, int[] courseId, int n) {
+		int[] students = distinct(sId, n);
+		int[] sections = distinct(sectId, n);
+		int s = students.length, t = sections.length;
+
+		studentCount = s;
+		sectionCount = t;
+		edgeCount = n;
+		studentKeys = 0;
+		studentOffsets = studentKeys + s;
+		studentSections = studentOffsets + s + 1;
+		sectionKeys = studentSections + n;
+		sectionCourses = sectionKeys + t;
+		sectionOffsets = sectionCourses + t;
+		sectionStudents = sectionOffsets + t + 1;
+		edges = sectionStudents + n;
+
+		ints = ByteBuffer.allocateDirect(4 * (edges + 4 * n)).order(ByteOrder.nativeOrder()).asIntBuffer();
+
+		int[] studentRow = new int[n];
+		int[] sectionRow = new int[n];
+		int[] studentDegree = new int[s + 1];
+		int[] sectionDegree = new int[t + 1];
+		for (int e = 0; e < n; e++) {
+			studentRow[e] = Arrays.binarySearch(students, sId[e]);
+			sectionRow[e] = Arrays.binarySearch(sections, sectId[e]);
+			studentDegree[studentRow[e] + 1]++;
+			sectionDegree[sectionRow[e] + 1]++;
+
+			int base = edges + 4 * e;
+			ints.put(base, eId[e]);
+			ints.put(base + 1, sId[e]);
+			ints.put(base + 2, sectId[e]);
+			ints.put(base + 3, courseId[e]);
+			ints.put(sectionCourses + sectionRow[e], courseId[e]);
+		}
+		for (int i = 0; i < s; i++) {
+			ints.put(studentKeys + i, students[i]);
+			studentDegree[i + 1] += studentDegree[i];
+			ints.put(studentOffsets + i + 1, studentDegree[i + 1]);
+		}
+		for (int k = 0; k < t; k++) {
+			ints.put(sectionKeys + k, sections[k]);
+			sectionDegree[k + 1] += sectionDegree[k];
+			ints.put(sectionOffsets + k + 1, sectionDegree[k + 1]);
+		}
+
+		// counting sort by student row, so each section's students come out in order
+		int[] byStudent = new int[n];
+		int[] next = Arrays.copyOf(studentDegree, s);
+		for (int e = 0; e < n; e++) {
+			byStudent[next[studentRow[e]]++] = e;
+		}
+		next = Arrays.copyOf(sectionDegree, t);
+		for (int e : byStudent) {
+			ints.put(sectionStudents + next[sectionRow[e]]++, studentRow[e]);
+		}
+
+		// and walking the sections in order puts each student's sections in order
+		next = Arrays.copyOf(studentDegree, s);
+		for (int k = 0; k < t; k++) {
+			for (int j = sectionDegree[k]; j < sectionDegree[k + 1]; j++) {
+				int i = ints.get(sectionStudents + j);
+				ints.put(studentSections + next[i]++, k);
+			}
+		}
+	}
+
+	/**
+	 * Load the graph from the ENROLL table.
+	 *
+	 * @param conn
+	 * @return the graph
+	 * @throws SQLException
+	 */
+	public static EnrollmentGraph load(Connection conn) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("select e.EId, e.StudentId, e.SectionId, k.CourseId");
+		sb.append("  from ENROLL e join SECTION k on e.SectionId = k.SectId");
+		sb.append("  order by e.EId");
+
+		Edges edges = new Edges(1024);
+		try (Statement stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+			stmt.setFetchSize(FETCH_SIZE);
+			try (ResultSet rs = stmt.executeQuery(sb.toString())) {
+				while (rs.next()) {
+					edges.add(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4));
+				}
+			}
+		}
+		return edges.build();
+	}
+
+	/**
+	 * Apply the ENROLL changes waiting in the reader. The reader is advanced but
+	 * not checkpointed; call checkpoint once the new graph is in use. Applying a
+	 * change reads the current row, so a change that is delivered again after a
+	 * restart does no harm.
+	 *
+	 * The reader should have been opened before this graph was loaded, so that no
+	 * change falls between the two.
+	 *
+	 * @param conn
+	 * @param reader
+	 * @return the new graph, or this one if no enrollment changed
+	 * @throws SQLException
+	 */
+	public EnrollmentGraph refresh(Connection conn, ChangeLogReader reader) throws SQLException {
+		// changed EId to its current { StudentId, SectionId, CourseId }, or null if deleted
+		TreeMap<Integer, int[]> changed = new TreeMap<>();
+		List<ChangeLogReader.Entry> batch;
+		while (!(batch = reader.next(BATCH)).isEmpty()) {
+			List<Integer> keys = new ArrayList<>();
+			for (ChangeLogReader.Entry entry : batch) {
+				if (entry.getTable().equals("ENROLL")) {
+					keys.add(entry.getKey());
+				}
+			}
+			readRows(conn, keys, changed);
+		}
+
+		// drop the changes that leave the edge as it was, such as new grades
+		changed.entrySet().removeIf(entry -> {
+			int e = find(entry.getKey());
+			int[] row = entry.getValue();
+			if (e < 0) {
+				return row == null;
+			}
+			int base = edges + 4 * e;
+			return row != null && row[0] == ints.get(base + 1) && row[1] == ints.get(base + 2);
+		});
+		if (changed.isEmpty()) {
+			return this;
+		}
+
+		// merge the old edges with the changed ones, both in EId order
+		Edges merged = new Edges(edgeCount + changed.size());
+		int e = 0;
+		for (Map.Entry<Integer, int[]> entry : changed.entrySet()) {
+			int key = entry.getKey();
+			while (e < edgeCount && ints.get(edges + 4 * e) < key) {
+				merged.copy(ints, edges + 4 * e++);
+			}
+			if (e < edgeCount && ints.get(edges + 4 * e) == key) {
+				e++;
+			}
+			int[] row = entry.getValue();
+			if (row != null) {
+				merged.add(key, row[0], row[1], row[2]);
+			}
+		}
+		while (e < edgeCount) {
+			merged.copy(ints, edges + 4 * e++);
+		}
+		return merged.build();
+	}
+
+	private static void readRows(Connection conn, List<Integer> keys, Map<Integer, int[]> changed)
+			throws SQLException {
+		if (keys.isEmpty()) {
+			return;
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append("select e.EId, e.StudentId, e.SectionId, k.CourseId");
+		sb.append("  from ENROLL e join SECTION k on e.SectionId = k.SectId");
+		sb.append("  where e.EId in (");
+		for (int i = 0; i < keys.size(); i++) {
+			sb.append((i == 0) ? "?" : ", ?");
+		}
+		sb.append(")");
+
+		try (PreparedStatement pstmt = conn.prepareStatement(sb.toString())) {
+			for (int i = 0; i < keys.size(); i++) {
+				pstmt.setInt(i + 1, keys.get(i));
+				changed.put(keys.get(i), null);
+			}
+			try (ResultSet rs = pstmt.executeQuery()) {
+				while (rs.next()) {
+					changed.put(rs.getInt(1), new int[] { rs.getInt(2), rs.getInt(3), rs.getInt(4) });
+				}
+			}
+		}
+	}
+
+	public int getStudentCount() {
+		return studentCount;
+	}
+
+	public int getSectionCount() {
+		return sectionCount;
+	}
+
+	public int getEnrollmentCount() {
+		return edgeCount;
+	}
+
+	// ***************************************************************
+	// Queries
+
+	/**
+	 * @param sId
+	 * @return the ids of the sections the student took, in increasing order
+	 */
+	public int[] sectionsOf(int sId) {
+		int i = search(studentKeys, studentCount, sId);
+		if (i < 0) {
+			return new int[0];
+		}
+		return ids(sectionKeys, neighbors(studentOffsets, studentSections, i));
+	}
+
+	/**
+	 * @param sectId
+	 * @return the ids of the students in the section, in increasing order
+	 */
+	public int[] studentsIn(int sectId) {
+		int k = search(sectionKeys, sectionCount, sectId);
+		if (k < 0) {
+			return new int[0];
+		}
+		return ids(studentKeys, neighbors(sectionOffsets, sectionStudents, k));
+	}
+
+	/**
+	 * @param sId
+	 * @return the ids of the other students who shared at least one section with
+	 *         the student, in increasing order
+	 */
+	public int[] classmates(int sId) {
+		return withinHops(sId, 1);
+	}
+
+	/**
+	 * @param sId1
+	 * @param sId2
+	 * @return the number of sections both students took
+	 */
+	public int sharedSections(int sId1, int sId2) {
+		int i = search(studentKeys, studentCount, sId1);
+		int j = search(studentKeys, studentCount, sId2);
+		if (i < 0 || j < 0) {
+			return 0;
+		}
+		return intersect(neighbors(studentOffsets, studentSections, i),
+				neighbors(studentOffsets, studentSections, j)).length;
+	}
+
+	/**
+	 * @param courseIds
+	 * @return the ids of the students who took a section of every one of the
+	 *         courses, in increasing order
+	 */
+	public int[] tookAll(int... courseIds) {
+		int[] rows = null;
+		for (int cId : courseIds) {
+			int[] took = studentRowsOfCourse(cId);
+			rows = (rows == null) ? took : intersect(rows, took);
+			if (rows.length == 0) {
+				break;
+			}
+		}
+		return (rows == null) ? new int[0] : ids(studentKeys, rows);
+	}
+
+	/**
+	 * Breadth-first search from a student, where one hop connects two students
+	 * who shared a section.
+	 *
+	 * @param sId
+	 * @param k   the maximum number of hops
+	 * @return the ids of the other students within k hops, in increasing order
+	 */
+	public int[] withinHops(int sId, int k) {
+		int start = search(studentKeys, studentCount, sId);
+		if (start < 0 || k <= 0) {
+			return new int[0];
+		}
+
+		BitSet seen = new BitSet(studentCount);
+		BitSet sectionsSeen = new BitSet(sectionCount);
+		seen.set(start);
+		int[] frontier = { start };
+		for (int hop = 0; hop < k && frontier.length > 0; hop++) {
+			int[] found = new int[16];
+			int n = 0;
+			for (int i : frontier) {
+				for (int j = ints.get(studentOffsets + i); j < ints.get(studentOffsets + i + 1); j++) {
+					int section = ints.get(studentSections + j);
+					if (sectionsSeen.get(section)) {
+						continue;
+					}
+					sectionsSeen.set(section);
+					for (int m = ints.get(sectionOffsets + section); m < ints.get(sectionOffsets + section + 1); m++) {
+						int other = ints.get(sectionStudents + m);
+						if (!seen.get(other)) {
+							seen.set(other);
+							if (n == found.length) {
+								found = Arrays.copyOf(found, 2 * n);
+							}
+							found[n++] = other;
+						}
+					}
+				}
+			}
+			frontier = Arrays.copyOf(found, n);
+		}
+
+		seen.clear(start);
+		return ids(studentKeys, seen.stream().toArray());
+	}
+
+	// ***************************************************************
+	// Helpers
+
+	/**
+	 * @return the position of key in the sorted region, or negative if absent
+	 */
+	private int search(int base, int count, int key) {
+		int lo = 0, hi = count - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int value = ints.get(base + mid);
+			if (value < key) {
+				lo = mid + 1;
+			} else if (value > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the position of the edge with the given EId, or negative if absent
+	 */
+	private int find(int eId) {
+		int lo = 0, hi = edgeCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int value = ints.get(edges + 4 * mid);
+			if (value < eId) {
+				lo = mid + 1;
+			} else if (value > eId) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int[] neighbors(int offsets, int adjacency, int row) {
+		int from = ints.get(offsets + row);
+		int[] result = new int[ints.get(offsets + row + 1) - from];
+		for (int j = 0; j < result.length; j++) {
+			result[j] = ints.get(adjacency + from + j);
+		}
+		return result;
+	}
+
+	private int[] ids(int keys, int[] rows) {
+		int[] result = new int[rows.length];
+		for (int j = 0; j < rows.length; j++) {
+			result[j] = ints.get(keys + rows[j]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the distinct rows of the students in any section of the course
+	 */
+	private int[] studentRowsOfCourse(int cId) {
+		BitSet rows = new BitSet(studentCount);
+		for (int k = 0; k < sectionCount; k++) {
+			if (ints.get(sectionCourses + k) == cId) {
+				for (int m = ints.get(sectionOffsets + k); m < ints.get(sectionOffsets + k + 1); m++) {
+					rows.set(ints.get(sectionStudents + m));
+				}
+			}
+		}
+		return rows.stream().toArray();
+	}
+
+	/**
+	 * @return the values in both sorted arrays
+	 */
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int n = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length;) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[n++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, n);
+	}
+
+	private static int[] distinct(int[] values, int n) {
+		int[] sorted = Arrays.copyOf(values, n);
+		Arrays.sort(sorted);
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			if (m == 0 || sorted[i] != sorted[m - 1]) {
+				sorted[m++] = sorted[i];
+			}
+		}
+		return Arrays.copyOf(sorted, m);
+	}
+
+	/**
+	 * Edge columns being collected, in EId order.
+	 */
+	private static class Edges {
+		int[] eId, sId, sectId, courseId;
+		int size;
+
+		Edges(int capacity) {
+			capacity = Math.max(capacity, 16);
+			eId = new int[capacity];
+			sId = new int[capacity];
+			sectId = new int[capacity];
+			courseId = new int[capacity];
+		}
+
+		void add(int e, int s, int k, int c) {
+			if (size == eId.length) {
+				eId = Arrays.copyOf(eId, 2 * size);
+				sId = Arrays.copyOf(sId, 2 * size);
+				sectId = Arrays.copyOf(sectId, 2 * size);
+				courseId = Arrays.copyOf(courseId, 2 * size);
+			}
+			eId[size] = e;
+			sId[size] = s;
+			sectId[size] = k;
+			courseId[size] = c;
+			size++;
+		}
+
+		void copy(IntBuffer ints, int base) {
+			add(ints.get(base), ints.get(base + 1), ints.get(base + 2), ints.get(base + 3));
+		}
+
+		EnrollmentGraph build() {
+			return new EnrollmentGraph(eId, sId, sectId, courseId, size);
+		}
+	}
+
+	/**
+	 * Load the graph from the student database and compare finding classmates
+	 * with walking the DAO collections.
+	 *
+	 * @param args
+	 * @throws SQLException
+	 */
+	public static void main(String[] args) throws SQLException {
+		PrintStream out = System.out;
+		String url = ConnectionFactory.url(DatabaseManager.DEFAULT_PATH);
+		int samples = (args.length > 0) ? Integer.parseInt(args[0]) : 20;
+
+		EnrollmentGraph graph;
+		try (Connection conn = ConnectionFactory.driver(url).connect(url, new Properties())) {
+			long start = System.nanoTime();
+			graph = load(conn);
+			out.printf("Loaded %d students, %d sections, and %d enrollments in %.1f ms\n", graph.getStudentCount(),
+					graph.getSectionCount(), graph.getEnrollmentCount(), (System.nanoTime() - start) / 1e6);
+			conn.commit();
+		}
+		if (graph.getStudentCount() == 0) {
+			return;
+		}
+
+		DatabaseManager dbm = new DatabaseManager();
+		long daoTime = 0, graphTime = 0;
+		boolean same = true;
+		for (int i = 0; i < samples; i++) {
+			int sId = graph.ints.get(graph.studentKeys + (int) ((long) i * graph.getStudentCount() / samples));
+
+			long start = System.nanoTime();
+			BitSet walked = new BitSet();
+			Student student = dbm.findStudent(sId);
+			for (Enroll enroll : student.getEnrollments()) {
+				for (Enroll other : enroll.getSection().getEnrollments()) {
+					walked.set(other.getStudent().getSId());
+				}
+			}
+			walked.clear(sId);
+			daoTime += System.nanoTime() - start;
+
+			graph.classmates(sId); // warm up
+			start = System.nanoTime();
+			int[] found = graph.classmates(sId);
+			graphTime += System.nanoTime() - start;
+
+			same &= Arrays.equals(found, walked.stream().toArray());
+		}
+		dbm.commit();
+		dbm.close();
+
+		out.printf("Classmates of %d students: DAO walk %.1f ms each, graph %.1f us each (%s)\n", samples,
+				daoTime / 1e6 / samples, graphTime / 1e3 / samples, same ? "same results" : "RESULTS DIFFER");
+
+		int sId = graph.ints.get(graph.studentKeys);
+		long start = System.nanoTime();
+		int[] twoHops = graph.withinHops(sId, 2);
+		out.printf("Students within 2 hops of %d: %d (%.1f us)\n", sId, twoHops.length,
+				(System.nanoTime() - start) / 1e3);
+	}
+}
@@ -0,0 +1,51 @@
+package edu.depauw.csc480.analytics;
+
+/**
+ * Letter grades as small integer codes, with their grade points. Code 0 means
+ * no grade (a NULL or unrecognized Grade); points are in tenths, so that sums
+ * can be kept exactly as integers.
+ */
+public class Grades {
+	private static final String[] LETTERS = { null, "A", "A-", "B+", "B", "B-", "C+", "C", "C-", "D", "F" };
+	private static final int[] POINTS = { 0, 40, 37, 33, 30, 27, 23, 20, 17, 10, 0 };
+
+	public static final byte NONE = 0;
+
+	/**
+	 * @return the number of codes, including NONE
+	 */
+	public static int count() {
+		return LETTERS.length;
+	}
+
+	/**
+	 * @param grade
+	 * @return the code for the given letter grade, or NONE
+	 */
+	public static byte code(String grade) {
+		if (grade != null) {
+			for (int i = 1; i < LETTERS.length; i++) {
+				if (LETTERS[i].equals(grade)) {
+					return (byte) i;
+				}
+			}
+		}
+		return NONE;
+	}
+
+	/**
+	 * @param code
+	 * @return the letter grade, or null for NONE
+	 */
+	public static String letter(int code) {
+		return LETTERS[code];
+	}
+
+	/**
+	 * @param code
+	 * @return grade points times ten (0 for NONE)
+	 */
+	public static int points(int code) {
+		return POINTS[code];
+	}
+}
@@ -0,0 +1,540 @@
+package edu.depauw.csc480.analytics;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.projectv3.dao.DatabaseManager;
+
+/**
+ * An in-memory, column-oriented copy of the five university tables, for
+ * analytic queries that would otherwise walk thousands of lazy collections.
+ * Each column is a primitive array in key order; strings are dictionary
+ * encoded, foreign keys are stored as row numbers in the referenced table, and
+ * grades are byte codes (see Grades). A foreign key that is null, or that
+ * refers to no row, is stored as -1, and the aggregates leave such rows out (or
+ * group them separately). Aggregates scan the ENROLL columns in parallel
+ * chunks, each with its own accumulator array, and then add the accumulators
+ * together.
+ *
+ * The tables are read in one SERIALIZABLE transaction, so that the rows of
+ * each table agree with those of the others. A snapshot never changes once
+ * built, so any number of threads may query it. The schema has no change
+ * timestamps, so refresh builds a new snapshot by appending the rows whose keys
+ * are beyond the last ones loaded and re-reading the columns that the
+ * application updates in place (a student's major and graduation year, and
+ * grades). If the keys of any earlier rows are no longer exactly those in the
+ * database (because rows were deleted, or inserted below the last key), it
+ * reloads everything instead.
+ */
+public final class UniversitySnapshot {
+	private static final int CHUNK = 1 << 14;
+
+	private final Dictionary strings;
+
+	private final int[] deptId, deptName;
+	private final int[] studentId, studentName, studentMajor, studentGradYear;
+	private final int[] courseId, courseTitle, courseDept;
+	private final int[] sectionId, sectionCourse, sectionProf, sectionYear;
+	private final int[] enrollId, enrollStudent, enrollSection;
+	private final byte[] enrollGrade;
+
+	private UniversitySnapshot(Loader l) {
+		strings = l.strings;
+		deptId = l.deptId.toArray();
+		deptName = l.deptName.toArray();
+		studentId = l.studentId.toArray();
+		studentName = l.studentName.toArray();
+		studentMajor = l.studentMajor.toArray();
+		studentGradYear = l.studentGradYear.toArray();
+		courseId = l.courseId.toArray();
+		courseTitle = l.courseTitle.toArray();
+		courseDept = l.courseDept.toArray();
+		sectionId = l.sectionId.toArray();
+		sectionCourse = l.sectionCourse.toArray();
+		sectionProf = l.sectionProf.toArray();
+		sectionYear = l.sectionYear.toArray();
+		enrollId = l.enrollId.toArray();
+		enrollStudent = l.enrollStudent.toArray();
+		enrollSection = l.enrollSection.toArray();
+		enrollGrade = l.enrollGrade.toArray();
+	}
+
+	/**
+	 * Load all five tables. Any transaction in progress on conn is committed
+	 * first, and conn is left as it was found.
+	 *
+	 * @param conn
+	 * @return the snapshot
+	 * @throws SQLException
+	 */
+	public static UniversitySnapshot load(Connection conn) throws SQLException {
+		return serializable(conn, () -> new Loader(null).load(conn));
+	}
+
+	/**
+	 * Load all five tables from a file written by BinaryExport.
+	 *
+	 * @param dataset
+	 * @return the snapshot
+	 */
+	public static UniversitySnapshot load(BinaryDataset dataset) {
+		Loader l = new Loader(null);
+		for (int code = 0; code < dataset.getDictionarySize(); code++) {
+			l.strings.encode(dataset.decode(code));
+		}
+
+		l.deptId = new IntList(dataset.ints("DEPT", "DId"));
+		l.deptName = new IntList(dataset.ints("DEPT", "DName"));
+		l.studentId = new IntList(dataset.ints("STUDENT", "SId"));
+		l.studentName = new IntList(dataset.ints("STUDENT", "SName"));
+		l.studentMajor = rows(l.deptId, dataset.ints("STUDENT", "MajorId"));
+		l.studentGradYear = new IntList(dataset.ints("STUDENT", "GradYear"));
+		l.courseId = new IntList(dataset.ints("COURSE", "CId"));
+		l.courseTitle = new IntList(dataset.ints("COURSE", "Title"));
+		l.courseDept = rows(l.deptId, dataset.ints("COURSE", "DeptId"));
+		l.sectionId = new IntList(dataset.ints("SECTION", "SectId"));
+		l.sectionCourse = rows(l.courseId, dataset.ints("SECTION", "CourseId"));
+		l.sectionProf = new IntList(dataset.ints("SECTION", "Prof"));
+		l.sectionYear = new IntList(dataset.ints("SECTION", "YearOffered"));
+		l.enrollId = new IntList(dataset.ints("ENROLL", "EId"));
+		l.enrollStudent = rows(l.studentId, dataset.ints("ENROLL", "StudentId"));
+		l.enrollSection = rows(l.sectionId, dataset.ints("ENROLL", "SectionId"));
+		l.enrollGrade = new ByteList(dataset.grades("ENROLL", "Grade"));
+
+		return new UniversitySnapshot(l);
+	}
+
+	/**
+	 * Bring a copy of this snapshot up to date with the database. Any transaction
+	 * in progress on conn is committed first, and conn is left as it was found.
+	 *
+	 * @param conn
+	 * @return the new snapshot
+	 * @throws SQLException
+	 */
+	public UniversitySnapshot refresh(Connection conn) throws SQLException {
+		return serializable(conn, () -> {
+			if (!sameKeys(conn, "DEPT", "DId", deptId) || !sameKeys(conn, "STUDENT", "SId", studentId)
+					|| !sameKeys(conn, "COURSE", "CId", courseId) || !sameKeys(conn, "SECTION", "SectId", sectionId)
+					|| !sameKeys(conn, "ENROLL", "EId", enrollId)) {
+				// earlier rows were deleted or inserted, so appending is not enough
+				return new Loader(null).load(conn);
+			}
+			return new Loader(this).load(conn);
+		});
+	}
+
+	public int getStudentCount() {
+		return studentId.length;
+	}
+
+	public int getEnrollmentCount() {
+		return enrollId.length;
+	}
+
+	// ***************************************************************
+	// Aggregate queries
+
+	/**
+	 * Count the grades given by each department in each year, from the
+	 * department of the course and the year the section was offered. Sections of
+	 * courses without a department are left out.
+	 *
+	 * @return map from "dept year" to counts indexed by grade code
+	 */
+	public Map<String, long[]> gradeDistributionByDeptYear() {
+		int minYear = Integer.MAX_VALUE, maxYear = Integer.MIN_VALUE;
+		for (int year : sectionYear) {
+			minYear = Math.min(minYear, year);
+			maxYear = Math.max(maxYear, year);
+		}
+
+		Map<String, long[]> result = new TreeMap<>();
+		if (sectionYear.length == 0) {
+			return result;
+		}
+
+		int firstYear = minYear;
+		int years = maxYear - minYear + 1;
+		int codes = Grades.count();
+
+		// group number of each section, so that the scan needs a single lookup
+		int[] sectionGroup = new int[sectionId.length];
+		for (int k = 0; k < sectionGroup.length; k++) {
+			int course = sectionCourse[k];
+			int dept = (course < 0) ? -1 : courseDept[course];
+			sectionGroup[k] = (dept < 0) ? -1 : (dept * years + sectionYear[k] - firstYear) * codes;
+		}
+
+		long[] acc = aggregate(deptId.length * years * codes, (a, lo, hi) -> {
+			for (int e = lo; e < hi; e++) {
+				int section = enrollSection[e];
+				if (section >= 0 && sectionGroup[section] >= 0) {
+					a[sectionGroup[section] + enrollGrade[e]]++;
+				}
+			}
+		});
+
+		for (int d = 0; d < deptId.length; d++) {
+			for (int y = 0; y < years; y++) {
+				int base = (d * years + y) * codes;
+				long[] counts = Arrays.copyOfRange(acc, base, base + codes);
+				if (Arrays.stream(counts).sum() > 0) {
+					result.put(strings.decode(deptName[d]) + " " + (firstYear + y), counts);
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Average the grade points of all graded enrollments of the students in each
+	 * major. Students without a major are grouped under "none".
+	 *
+	 * @return map from department name to GPA
+	 */
+	public Map<String, Double> averageGpaByMajor() {
+		int none = deptId.length;
+
+		// each group has a sum of points (in tenths) and a count
+		long[] acc = aggregate(2 * (none + 1), (a, lo, hi) -> {
+			for (int e = lo; e < hi; e++) {
+				int grade = enrollGrade[e];
+				if (grade != Grades.NONE && enrollStudent[e] >= 0) {
+					int major = studentMajor[enrollStudent[e]];
+					int g = 2 * ((major < 0) ? none : major);
+					a[g] += Grades.points(grade);
+					a[g + 1]++;
+				}
+			}
+		});
+
+		Map<String, Double> result = new TreeMap<>();
+		for (int d = 0; d <= none; d++) {
+			if (acc[2 * d + 1] > 0) {
+				String name = (d == none) ? "none" : strings.decode(deptName[d]);
+				result.put(name, acc[2 * d] / 10.0 / acc[2 * d + 1]);
+			}
+		}
+		return result;
+	}
+
+	private interface ChunkAggregator {
+		void add(long[] acc, int lo, int hi);
+	}
+
+	/**
+	 * Run the aggregator over the enrollment rows in parallel chunks and add up
+	 * their accumulators.
+	 */
+	private long[] aggregate(int width, ChunkAggregator aggregator) {
+		int n = enrollId.length;
+		int chunks = (n + CHUNK - 1) / CHUNK;
+		return IntStream.range(0, chunks).parallel().mapToObj(c -> {
+			long[] acc = new long[width];
+			aggregator.add(acc, c * CHUNK, Math.min(n, (c + 1) * CHUNK));
+			return acc;
+		}).reduce(new long[width], (a, b) -> {
+			long[] sum = new long[width];
+			for (int i = 0; i < width; i++) {
+				sum[i] = a[i] + b[i];
+			}
+			return sum;
+		});
+	}
+
+	// ***************************************************************
+	// Loading
+
+	private interface Load {
+		UniversitySnapshot run() throws SQLException;
+	}
+
+	/**
+	 * Run the load in a SERIALIZABLE transaction of its own, so that no table
+	 * changes while the others are read, and then restore the connection's
+	 * settings.
+	 */
+	private static UniversitySnapshot serializable(Connection conn, Load load) throws SQLException {
+		boolean autoCommit = conn.getAutoCommit();
+		int isolation = conn.getTransactionIsolation();
+		if (!autoCommit) {
+			conn.commit();
+		}
+		conn.setAutoCommit(false);
+		conn.setTransactionIsolation(Connection.TRANSACTION_SERIALIZABLE);
+		try {
+			UniversitySnapshot snapshot = load.run();
+			conn.commit();
+			return snapshot;
+		} catch (SQLException | RuntimeException e) {
+			conn.rollback();
+			throw e;
+		} finally {
+			conn.setTransactionIsolation(isolation);
+			conn.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * @return whether the keys of the table, up to the last one in the sorted
+	 *         array, are exactly those in the array
+	 */
+	private boolean sameKeys(Connection conn, String table, String key, int[] keys) throws SQLException {
+		if (keys.length == 0) {
+			return true;
+		}
+		String s = "select " + key + " from " + table + " where " + key + " <= ? order by " + key;
+		try (PreparedStatement pstmt = conn.prepareStatement(s)) {
+			pstmt.setInt(1, keys[keys.length - 1]);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				int r = 0;
+				while (rs.next()) {
+					if (r == keys.length || rs.getInt(1) != keys[r]) {
+						return false;
+					}
+					r++;
+				}
+				return r == keys.length;
+			}
+		}
+	}
+
+	/**
+	 * Replace foreign keys by the row numbers they refer to, in place.
+	 */
+	private static IntList rows(IntList keys, int[] foreignKeys) {
+		for (int r = 0; r < foreignKeys.length; r++) {
+			foreignKeys[r] = row(keys, foreignKeys[r]);
+		}
+		return new IntList(foreignKeys);
+	}
+
+	/**
+	 * Row number of the given key in a sorted key column, or -1.
+	 */
+	private static int row(IntList keys, int key) {
+		int r = Arrays.binarySearch(keys.values, 0, keys.size, key);
+		return (r < 0) ? -1 : r;
+	}
+
+	/**
+	 * Accumulates columns while loading, starting from a copy of an earlier
+	 * snapshot if there is one.
+	 */
+	private static class Loader {
+		Dictionary strings;
+		IntList deptId, deptName;
+		IntList studentId, studentName, studentMajor, studentGradYear;
+		IntList courseId, courseTitle, courseDept;
+		IntList sectionId, sectionCourse, sectionProf, sectionYear;
+		IntList enrollId, enrollStudent, enrollSection;
+		ByteList enrollGrade;
+
+		Loader(UniversitySnapshot s) {
+			boolean copy = (s != null);
+			strings = copy ? new Dictionary(s.strings) : new Dictionary();
+			deptId = new IntList(copy ? s.deptId : null);
+			deptName = new IntList(copy ? s.deptName : null);
+			studentId = new IntList(copy ? s.studentId : null);
+			studentName = new IntList(copy ? s.studentName : null);
+			studentMajor = new IntList(copy ? s.studentMajor : null);
+			studentGradYear = new IntList(copy ? s.studentGradYear : null);
+			courseId = new IntList(copy ? s.courseId : null);
+			courseTitle = new IntList(copy ? s.courseTitle : null);
+			courseDept = new IntList(copy ? s.courseDept : null);
+			sectionId = new IntList(copy ? s.sectionId : null);
+			sectionCourse = new IntList(copy ? s.sectionCourse : null);
+			sectionProf = new IntList(copy ? s.sectionProf : null);
+			sectionYear = new IntList(copy ? s.sectionYear : null);
+			enrollId = new IntList(copy ? s.enrollId : null);
+			enrollStudent = new IntList(copy ? s.enrollStudent : null);
+			enrollSection = new IntList(copy ? s.enrollSection : null);
+			enrollGrade = new ByteList(copy ? s.enrollGrade : null);
+		}
+
+		UniversitySnapshot load(Connection conn) throws SQLException {
+			int oldStudents = studentId.size;
+			int oldEnrolls = enrollId.size;
+
+			try (ResultSet rs = newRows(conn, "select DId, DName from DEPT", "DId", deptId)) {
+				while (rs.next()) {
+					deptId.add(rs.getInt(1));
+					deptName.add(strings.encode(rs.getString(2)));
+				}
+			}
+
+			try (ResultSet rs = newRows(conn, "select SId, SName, MajorId, GradYear from STUDENT", "SId",
+					studentId)) {
+				while (rs.next()) {
+					studentId.add(rs.getInt(1));
+					studentName.add(strings.encode(rs.getString(2)));
+					studentMajor.add(row(deptId, rs.getInt(3)));
+					studentGradYear.add(rs.getInt(4));
+				}
+			}
+
+			try (ResultSet rs = newRows(conn, "select CId, Title, DeptId from COURSE", "CId", courseId)) {
+				while (rs.next()) {
+					courseId.add(rs.getInt(1));
+					courseTitle.add(strings.encode(rs.getString(2)));
+					courseDept.add(row(deptId, rs.getInt(3)));
+				}
+			}
+
+			try (ResultSet rs = newRows(conn, "select SectId, CourseId, Prof, YearOffered from SECTION", "SectId",
+					sectionId)) {
+				while (rs.next()) {
+					sectionId.add(rs.getInt(1));
+					sectionCourse.add(row(courseId, rs.getInt(2)));
+					sectionProf.add(strings.encode(rs.getString(3)));
+					sectionYear.add(rs.getInt(4));
+				}
+			}
+
+			try (ResultSet rs = newRows(conn, "select EId, StudentId, SectionId, Grade from ENROLL", "EId", enrollId)) {
+				while (rs.next()) {
+					enrollId.add(rs.getInt(1));
+					enrollStudent.add(row(studentId, rs.getInt(2)));
+					enrollSection.add(row(sectionId, rs.getInt(3)));
+					enrollGrade.add(Grades.code(rs.getString(4)));
+				}
+			}
+
+			// re-read the columns that may have been updated in rows loaded earlier
+			if (oldStudents > 0) {
+				try (ResultSet rs = oldRows(conn, "select SId, MajorId, GradYear from STUDENT", "SId", studentId,
+						oldStudents)) {
+					while (rs.next()) {
+						int r = row(studentId, rs.getInt(1));
+						studentMajor.values[r] = row(deptId, rs.getInt(2));
+						studentGradYear.values[r] = rs.getInt(3);
+					}
+				}
+			}
+
+			if (oldEnrolls > 0) {
+				try (ResultSet rs = oldRows(conn, "select EId, Grade from ENROLL", "EId", enrollId, oldEnrolls)) {
+					while (rs.next()) {
+						enrollGrade.values[row(enrollId, rs.getInt(1))] = Grades.code(rs.getString(2));
+					}
+				}
+			}
+
+			return new UniversitySnapshot(this);
+		}
+
+		/**
+		 * Query the rows with keys beyond the last one already loaded, in key
+		 * order. The statement is closed along with the result set.
+		 */
+		private static ResultSet newRows(Connection conn, String select, String key, IntList keys)
+				throws SQLException {
+			PreparedStatement pstmt = conn
+					.prepareStatement(select + " where " + key + " > ? order by " + key);
+			pstmt.setInt(1, (keys.size == 0) ? Integer.MIN_VALUE : keys.values[keys.size - 1]);
+			pstmt.closeOnCompletion();
+			return pstmt.executeQuery();
+		}
+
+		/**
+		 * Query the rows with keys up to the last one loaded before this refresh.
+		 */
+		private static ResultSet oldRows(Connection conn, String select, String key, IntList keys, int size)
+				throws SQLException {
+			PreparedStatement pstmt = conn.prepareStatement(select + " where " + key + " <= ?");
+			pstmt.setInt(1, keys.values[size - 1]);
+			pstmt.closeOnCompletion();
+			return pstmt.executeQuery();
+		}
+	}
+
+	private static class IntList {
+		int[] values;
+		int size;
+
+		IntList(int[] initial) {
+			values = (initial == null) ? new int[16] : Arrays.copyOf(initial, Math.max(16, initial.length));
+			size = (initial == null) ? 0 : initial.length;
+		}
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = value;
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	private static class ByteList {
+		byte[] values;
+		int size;
+
+		ByteList(byte[] initial) {
+			values = (initial == null) ? new byte[16] : Arrays.copyOf(initial, Math.max(16, initial.length));
+			size = (initial == null) ? 0 : initial.length;
+		}
+
+		void add(byte value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = value;
+		}
+
+		byte[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * Load the student database and print some aggregates.
+	 *
+	 * @param args
+	 * @throws SQLException
+	 */
+	public static void main(String[] args) throws SQLException {
+		PrintStream out = System.out;
+		String url = ConnectionFactory.url(DatabaseManager.DEFAULT_PATH);
+
+		try (Connection conn = ConnectionFactory.driver(url).connect(url, new Properties())) {
+			long start = System.nanoTime();
+			UniversitySnapshot snapshot = load(conn);
+			out.printf("Loaded %d students and %d enrollments in %.1f ms\n", snapshot.getStudentCount(),
+					snapshot.getEnrollmentCount(), (System.nanoTime() - start) / 1e6);
+
+			out.printf("%-14s", "Dept/Year");
+			for (int g = 1; g < Grades.count(); g++) {
+				out.printf(" %5s", Grades.letter(g));
+			}
+			out.printf(" %5s\n", "none");
+			for (Map.Entry<String, long[]> entry : snapshot.gradeDistributionByDeptYear().entrySet()) {
+				long[] counts = entry.getValue();
+				out.printf("%-14s", entry.getKey());
+				for (int g = 1; g < counts.length; g++) {
+					out.printf(" %5d", counts[g]);
+				}
+				out.printf(" %5d\n", counts[Grades.NONE]);
+			}
+
+			out.println();
+			out.printf("%-8s %4s\n", "Major", "GPA");
+			for (Map.Entry<String, Double> entry : snapshot.averageGpaByMajor().entrySet()) {
+				out.printf("%-8s %4.2f\n", entry.getKey(), entry.getValue());
+			}
+		}
+	}
+}
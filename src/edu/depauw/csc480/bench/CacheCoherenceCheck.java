@@ -0,0 +1,89 @@
+package edu.depauw.csc480.bench;
+
+import java.io.PrintStream;
+
+import edu.depauw.csc480.projectv3.dao.DatabaseManager;
+import edu.depauw.csc480.projectv3.model.Course;
+import edu.depauw.csc480.projectv3.model.Dept;
+import edu.depauw.csc480.projectv3.model.Enroll;
+import edu.depauw.csc480.projectv3.model.Section;
+import edu.depauw.csc480.projectv3.model.Student;
+
+/**
+ * Two managers of one database: the first loads a transcript, a section
+ * roster, and a department's majors into its caches; the second changes a
+ * grade, a graduation year, and a major, and commits. The first must then see
+ * every change through the objects and lists it already had cached. Exits with
+ * status 1 if not.
+ */
+public class CacheCoherenceCheck {
+	private static final PrintStream out = System.out;
+
+	private static final String URL = "jdbc:derby:db/bench-coherence";
+
+	private static boolean ok = true;
+
+	public static void main(String[] args) {
+		DatabaseManager setup = new DatabaseManager(URL, null);
+		setup.clearTables();
+		Dept dept1 = setup.insertDept(1, "dept1");
+		Dept dept2 = setup.insertDept(2, "dept2");
+		Course course = setup.insertCourse(1, "course1", dept1);
+		Section section = setup.insertSection(1, course, "prof1", 2020);
+		Student student = setup.insertStudent(1, "s1", dept1, 2024);
+		setup.insertEnroll(1, student, section, "B");
+		setup.commit();
+		setup.close();
+
+		DatabaseManager reader = new DatabaseManager(URL, null);
+		DatabaseManager writer = new DatabaseManager(URL, null);
+
+		// fill the reader's caches and lists
+		check("transcript grade before", grade(reader.findStudent(1)), "B");
+		check("roster grade before", first(reader.findSection(1)).getGrade(), "B");
+		check("roster grad year before", first(reader.findSection(1)).getStudent().getGradYear(), 2024);
+		check("dept1 majors before", reader.findDept(1).getMajors().size(), 1);
+		reader.commit();
+
+		writer.inTransaction(() -> writer.findEnroll(1).setGrade("A"));
+		check("transcript grade after grade change", grade(reader.findStudent(1)), "A");
+		check("roster grade after grade change", first(reader.findSection(1)).getGrade(), "A");
+		reader.commit();
+
+		writer.inTransaction(() -> {
+			Student s = writer.findStudent(1);
+			s.setGradYear(2025);
+			s.setMajor(writer.findDept(2));
+		});
+		check("roster grad year after student change", first(reader.findSection(1)).getStudent().getGradYear(),
+				2025);
+		check("transcript student after student change",
+				reader.findStudent(1).getEnrollments().iterator().next().getStudent().getGradYear(), 2025);
+		check("dept1 majors after major change", reader.findDept(1).getMajors().size(), 0);
+		check("dept2 majors after major change", reader.findDept(2).getMajors().size(), 1);
+		reader.commit();
+
+		writer.close();
+		reader.close();
+
+		out.println(ok ? "OK: caches coherent" : "FAILED");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+
+	private static String grade(Student student) {
+		Enroll enroll = student.getEnrollments().iterator().next();
+		return enroll.getGrade();
+	}
+
+	private static Enroll first(Section section) {
+		return section.getEnrollments().iterator().next();
+	}
+
+	private static void check(String what, Object actual, Object expected) {
+		boolean same = expected.equals(actual);
+		out.printf("%-40s %s%s\n", what, actual, same ? "" : " (expected " + expected + ")");
+		ok &= same;
+	}
+}
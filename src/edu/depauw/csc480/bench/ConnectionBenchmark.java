@@ -0,0 +1,87 @@
+package edu.depauw.csc480.bench;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.Random;
+
+import org.HdrHistogram.Histogram;
+import org.apache.derby.jdbc.ClientDriver;
+import org.apache.derby.jdbc.EmbeddedDriver;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.projectv3.dao.DatabaseManager;
+
+/**
+ * Compares the latency of the same statements issued through the embedded
+ * driver and through the network client driver (over loopback, to a network
+ * server started in this JVM). The difference is the cost of client/server
+ * mode. Latencies are in microseconds.
+ *
+ * Usage: ConnectionBenchmark [iterations [port]]
+ */
+public class ConnectionBenchmark {
+	private static final PrintStream out = System.out;
+
+	private static final String PATH = "db/bench-connection";
+
+	public static void main(String[] args) throws SQLException {
+		int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		int port = (args.length > 1) ? Integer.parseInt(args[1]) : 1527;
+
+		DataGenerator gen = new DataGenerator(2000, 5);
+		DatabaseManager dbm = new DatabaseManager("jdbc:derby:" + PATH, null);
+		gen.populate(dbm, 42);
+
+		ConnectionFactory.startServer(port);
+		try (Connection embedded = new EmbeddedDriver().connect("jdbc:derby:" + PATH, new Properties());
+				Connection client = new ClientDriver().connect("jdbc:derby://localhost:" + port + "/" + PATH,
+						new Properties())) {
+			String[] names = { "student by key", "enrollments of student" };
+			String[] queries = { "select s.SName, s.MajorId, s.GradYear from STUDENT s where s.SId = ?",
+					"select e.EId, e.SectionId, e.Grade from ENROLL e where e.StudentId = ?" };
+
+			out.printf("%-24s %10s %10s %10s %10s\n", "Statement", "Mode", "Mean", "p50", "p99");
+			out.println("------------------------------------------------------------------");
+			for (int i = 0; i < queries.length; i++) {
+				report(names[i], "embedded", run(embedded, queries[i], iterations, gen.getStudents()));
+				report(names[i], "client", run(client, queries[i], iterations, gen.getStudents()));
+			}
+		} finally {
+			ConnectionFactory.stopServer();
+			dbm.close();
+		}
+	}
+
+	/**
+	 * Execute the query with random keys, reading all of its rows, after a warmup
+	 * of the same length.
+	 */
+	private static Histogram run(Connection conn, String sql, int iterations, int keys) throws SQLException {
+		Histogram histogram = new Histogram(3);
+		Random rand = new Random(7);
+		try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+			for (int i = -iterations; i < iterations; i++) {
+				long start = System.nanoTime();
+				pstmt.setInt(1, 1 + rand.nextInt(keys));
+				try (ResultSet rs = pstmt.executeQuery()) {
+					while (rs.next()) {
+						rs.getString(3);
+					}
+				}
+				if (i >= 0) {
+					histogram.recordValue((System.nanoTime() - start) / 1000);
+				}
+			}
+		}
+		return histogram;
+	}
+
+	private static void report(String name, String mode, Histogram h) {
+		out.printf("%-24s %10s %10.1f %10d %10d\n", name, mode, h.getMean(), h.getValueAtPercentile(50),
+				h.getValueAtPercentile(99));
+	}
+}
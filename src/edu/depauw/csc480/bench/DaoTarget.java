@@ -0,0 +1,84 @@
+package edu.depauw.csc480.bench;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.depauw.csc480.projectv3.dao.DatabaseManager;
+import edu.depauw.csc480.projectv3.model.Enroll;
+import edu.depauw.csc480.projectv3.model.Student;
+
+/**
+ * Runs the workload through the projectv3 DAO layer, with a DatabaseManager per
+ * worker, against a database filled by DataGenerator.
+ */
+public class DaoTarget implements LoadTarget {
+	private String url;
+	private DataGenerator gen;
+	private AtomicInteger nextEnroll;
+	private DatabaseManager owner;
+
+	/**
+	 * Fill the database at the given URL with generated data.
+	 *
+	 * @param url
+	 * @param gen
+	 */
+	public DaoTarget(String url, DataGenerator gen) {
+		this.url = url;
+		this.gen = gen;
+		this.nextEnroll = new AtomicInteger(gen.getEnrolls() + 1);
+		this.owner = new DatabaseManager(url, null);
+		gen.populate(owner, 42);
+	}
+
+	public boolean supports(Operation op) {
+		return true;
+	}
+
+	public Session open() {
+		return new Session() {
+			private DatabaseManager dbm = new DatabaseManager(url, null);
+
+			public void run(Operation op, Random rand) {
+				// conflicts with the other workers are retried, so only real failures count as errors
+				dbm.inTransaction(() -> {
+					switch (op) {
+					case BROWSE:
+						dbm.getStudentSummaries();
+						break;
+
+					case TRANSCRIPT:
+						Student student = dbm.findStudent(1 + rand.nextInt(gen.getStudents()));
+						for (Enroll enroll : student.getEnrollments()) {
+							enroll.getSection().getCourse().getTitle();
+						}
+						dbm.getStudentGpa(student.getSId());
+						break;
+
+					case ENROLL:
+						dbm.insertEnroll(nextEnroll.getAndIncrement(),
+								dbm.findStudent(1 + rand.nextInt(gen.getStudents())),
+								dbm.findSection(1 + rand.nextInt(gen.getSections())), null);
+						break;
+
+					case GRADE:
+						dbm.findEnroll(1 + rand.nextInt(gen.getEnrolls()))
+								.setGrade(DataGenerator.GRADES[rand.nextInt(DataGenerator.GRADES.length)]);
+						break;
+					}
+				});
+			}
+
+			public void close() {
+				// closing would shut down the database under the other workers
+				dbm.commit();
+				dbm.release();
+			}
+		};
+	}
+
+	public void close() {
+		owner.commit();
+		owner.close();
+	}
+}
@@ -0,0 +1,130 @@
+package edu.depauw.csc480.bench;
+
+import java.util.Random;
+
+import edu.depauw.csc480.projectv3.dao.DatabaseManager;
+import edu.depauw.csc480.projectv3.model.Course;
+import edu.depauw.csc480.projectv3.model.Dept;
+import edu.depauw.csc480.projectv3.model.Section;
+import edu.depauw.csc480.projectv3.model.Student;
+
+/**
+ * Generates a synthetic university of a given size through the projectv3 DAO
+ * layer, for benchmarks and load tests. Keys are consecutive starting from 1 in
+ * each table, so callers can pick random existing keys without querying. The
+ * same seed always produces the same data.
+ */
+public class DataGenerator {
+	public static final String[] GRADES = { "A", "A-", "B+", "B", "B-", "C+", "C", "C-", "D", "F" };
+
+	private static final int COMMIT_EVERY = 1000;
+
+	private int depts;
+	private int courses;
+	private int sections;
+	private int students;
+	private int enrollsPerStudent;
+
+	public DataGenerator(int students, int enrollsPerStudent) {
+		this.students = students;
+		this.enrollsPerStudent = enrollsPerStudent;
+		this.depts = Math.max(3, students / 500);
+		this.courses = depts * 10;
+		this.sections = courses * 5;
+	}
+
+	public int getDepts() {
+		return depts;
+	}
+
+	public int getCourses() {
+		return courses;
+	}
+
+	public int getSections() {
+		return sections;
+	}
+
+	public int getStudents() {
+		return students;
+	}
+
+	public int getEnrolls() {
+		return students * enrollsPerStudent;
+	}
+
+	/**
+	 * @return the total number of rows inserted by populate
+	 */
+	public int getRows() {
+		return depts + courses + sections + students + getEnrolls();
+	}
+
+	/**
+	 * Clear the tables of the given database and fill them with generated data.
+	 *
+	 * @param dbm
+	 * @param seed
+	 */
+	public void populate(DatabaseManager dbm, long seed) {
+		Random rand = new Random(seed);
+		dbm.clearTables();
+		dbm.commit();
+
+		Dept[] deptList = new Dept[depts + 1];
+		for (int d = 1; d <= depts; d++) {
+			deptList[d] = dbm.insertDept(d, "dept" + d);
+		}
+
+		Course[] courseList = new Course[courses + 1];
+		for (int c = 1; c <= courses; c++) {
+			courseList[c] = dbm.insertCourse(c, "course" + c, deptList[1 + rand.nextInt(depts)]);
+		}
+
+		// enrollments are placed at random, so make sure that no section can fill up
+		Section[] sectionList = new Section[sections + 1];
+		for (int k = 1; k <= sections; k++) {
+			sectionList[k] = dbm.insertSection(k, courseList[1 + rand.nextInt(courses)], "prof" + rand.nextInt(1000),
+					2000 + rand.nextInt(25), getEnrolls());
+			if (k % COMMIT_EVERY == 0) {
+				dbm.commit();
+			}
+		}
+		dbm.commit();
+
+		int eId = 1;
+		int[] picked = new int[enrollsPerStudent];
+		for (int s = 1; s <= students; s++) {
+			Student student = dbm.insertStudent(s, "s" + s, deptList[1 + rand.nextInt(depts)], 2000 + rand.nextInt(30));
+			for (int e = 0; e < enrollsPerStudent; e++) {
+				// a second enrollment in the same section would be refused, leaving a
+				// hole in the keys
+				picked[e] = pick(rand, picked, e);
+				dbm.insertEnroll(eId++, student, sectionList[picked[e]], GRADES[rand.nextInt(GRADES.length)]);
+			}
+			if (s % COMMIT_EVERY == 0) {
+				dbm.commit();
+			}
+		}
+		dbm.commit();
+	}
+
+	/**
+	 * @param rand
+	 * @param picked
+	 * @param count
+	 * @return a random section key that is not among the first count of picked
+	 */
+	private int pick(Random rand, int[] picked, int count) {
+		while (true) {
+			int sectId = 1 + rand.nextInt(sections);
+			boolean taken = false;
+			for (int i = 0; i < count; i++) {
+				taken |= (picked[i] == sectId);
+			}
+			if (!taken) {
+				return sectId;
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package edu.depauw.csc480.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the read-only part of the workload against a running projectv5.Server.
+ * The server has no pages that change data, so enrollments and grade changes
+ * are not supported. Transcripts are requested for the students named on the
+ * student listing.
+ */
+public class HttpTarget implements LoadTarget {
+	private static final Pattern NAME = Pattern.compile("student_name=([^\"&]+)");
+
+	private String base;
+	private List<String> names;
+
+	/**
+	 * @param base server address, such as http://localhost:8080
+	 * @throws IOException if the student listing cannot be read
+	 */
+	public HttpTarget(String base) throws IOException {
+		this.base = base;
+		this.names = new ArrayList<>();
+
+		Matcher m = NAME.matcher(get(base + "/University/StudentData"));
+		while (m.find()) {
+			names.add(m.group(1));
+		}
+		if (names.isEmpty()) {
+			throw new IOException("no students listed at " + base);
+		}
+	}
+
+	public boolean supports(Operation op) {
+		return op == Operation.BROWSE || op == Operation.TRANSCRIPT;
+	}
+
+	public Session open() {
+		return new Session() {
+			public void run(Operation op, Random rand) throws IOException {
+				if (op == Operation.BROWSE) {
+					get(base + "/University/StudentData");
+				} else {
+					String name = names.get(rand.nextInt(names.size()));
+					get(base + "/University/StudentData?student_name=" + URLEncoder.encode(name, "UTF-8"));
+				}
+			}
+
+			public void close() {
+				// connections are kept alive and pooled by HttpURLConnection
+			}
+		};
+	}
+
+	public void close() {
+		// nothing to release
+	}
+
+	/**
+	 * Fetch the page, reading it fully so that the connection can be reused.
+	 */
+	private static String get(String url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+		int status = conn.getResponseCode();
+		InputStream in = (status < 400) ? conn.getInputStream() : conn.getErrorStream();
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		if (in != null) {
+			byte[] buf = new byte[8192];
+			try {
+				for (int n; (n = in.read(buf)) > 0;) {
+					body.write(buf, 0, n);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		if (status >= 400) {
+			throw new IOException("HTTP " + status + " from " + url);
+		}
+		return new String(body.toByteArray(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,122 @@
+package edu.depauw.csc480.bench;
+
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.projectv3.dao.DatabaseManager;
+import edu.depauw.csc480.projectv3.dao.SectionDAO;
+import edu.depauw.csc480.projectv4.JpaRetry;
+import edu.depauw.csc480.projectv4.model.Enroll;
+import edu.depauw.csc480.projectv4.model.Section;
+import edu.depauw.csc480.projectv4.model.Student;
+import edu.depauw.csc480.projectv4.model.StudentSummary;
+
+/**
+ * Runs the workload through the projectv4 JPA entities, with an EntityManager
+ * per worker, against a database filled by DataGenerator. (Run with the
+ * OpenJPA agent, as for the other JPA programs.) The entities know nothing of
+ * section capacity; the database refuses an enrollment in a full section, and
+ * that counts as a refusal, as it does for DaoTarget, not as an error.
+ * Optimistic conflicts with the other workers are retried with JpaRetry, as
+ * DaoTarget retries its transactions.
+ */
+public class JpaTarget implements LoadTarget {
+	private DataGenerator gen;
+	private AtomicInteger nextEnroll;
+	private EntityManagerFactory emf;
+
+	/**
+	 * Fill the database at the given path with generated data.
+	 *
+	 * @param path
+	 * @param gen
+	 */
+	public JpaTarget(String path, DataGenerator gen) {
+		this.gen = gen;
+		this.nextEnroll = new AtomicInteger(gen.getEnrolls() + 1);
+
+		DatabaseManager dbm = new DatabaseManager(ConnectionFactory.url(path), null);
+		gen.populate(dbm, 42);
+		dbm.close();
+
+		this.emf = Persistence.createEntityManagerFactory("studentdb", ConnectionFactory.jpaProperties(path));
+	}
+
+	public boolean supports(Operation op) {
+		return true;
+	}
+
+	public Session open() {
+		return new Session() {
+			private EntityManager em = emf.createEntityManager();
+
+			public void run(Operation op, Random rand) {
+				try {
+					// conflicts with the other workers are retried, so only real failures count as errors
+					JpaRetry.retryOnConflict(em, DatabaseManager.DEFAULT_ATTEMPTS, manager -> {
+						switch (op) {
+						case BROWSE:
+							manager.createQuery("select new edu.depauw.csc480.projectv4.model.StudentSummary"
+									+ "(s.sId, s.sName, s.gradYear, m.dName) from Student s left join s.major m",
+									StudentSummary.class).getResultList();
+							break;
+
+						case TRANSCRIPT:
+							Student student = manager.find(Student.class, 1 + rand.nextInt(gen.getStudents()));
+							for (Enroll enroll : student.getEnrollments()) {
+								enroll.getSection().getCourse().getTitle();
+							}
+							break;
+
+						case ENROLL:
+							manager.persist(new Enroll(nextEnroll.getAndIncrement(),
+									manager.find(Student.class, 1 + rand.nextInt(gen.getStudents())),
+									manager.find(Section.class, 1 + rand.nextInt(gen.getSections())), null));
+							break;
+
+						case GRADE:
+							manager.find(Enroll.class, 1 + rand.nextInt(gen.getEnrolls()))
+									.setGrade(DataGenerator.GRADES[rand.nextInt(DataGenerator.GRADES.length)]);
+							break;
+						}
+						return null;
+					});
+				} catch (RuntimeException e) {
+					if (!isSectionFull(e)) {
+						throw e;
+					}
+				} finally {
+					// keep the persistence context from growing without bound
+					em.clear();
+				}
+			}
+
+			public void close() {
+				em.close();
+			}
+		};
+	}
+
+	public void close() {
+		emf.close();
+	}
+
+	/**
+	 * @param e
+	 * @return whether e was caused by the SECTION_SEATS check
+	 */
+	private static boolean isSectionFull(Throwable e) {
+		for (; e != null; e = e.getCause()) {
+			if (e instanceof SQLException && SectionDAO.CHECK_VIOLATION.equals(((SQLException) e).getSQLState())) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,261 @@
+package edu.depauw.csc480.bench;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Histogram;
+
+import edu.depauw.csc480.bench.LoadTarget.Operation;
+import edu.depauw.csc480.derby.ConnectionFactory;
+
+/**
+ * Simulates registration-day load: a mix of browsing the student list, viewing
+ * transcripts, adding enrollments, and changing grades, sent by a number of
+ * worker threads to the DAO layer, to JPA, or to a running projectv5.Server.
+ *
+ * In open-loop mode, operations are scheduled at a fixed total rate whether or
+ * not earlier ones have finished, and each latency is measured from the time
+ * the operation was scheduled to start, so time spent waiting behind a slow
+ * operation is counted. In closed-loop mode, each worker starts its next
+ * operation when the previous one finishes; if a rate is given, the workers
+ * are paced to share it, and operations that start late are corrected for
+ * coordinated omission by HdrHistogram's recordValueWithExpectedInterval.
+ * Operations started during the warmup are not recorded.
+ *
+ * Usage: LoadGenerator [--target dao|jpa|http] [--mode closed|open]
+ * [--threads n] [--rate ops/s] [--warmup s] [--duration s]
+ * [--mix browse=5,transcript=60,enroll=20,grade=15] [--students n]
+ * [--url http://localhost:8080]
+ */
+public class LoadGenerator {
+	private static final PrintStream out = System.out;
+
+	private static final String PATH = "db/bench-load";
+
+	private LoadTarget target;
+	private boolean open;
+	private int threads;
+	private double rate;
+	private int[] weights;
+	private int totalWeight;
+
+	private Histogram[] histograms;
+	private long[] errors;
+
+	public LoadGenerator(LoadTarget target, boolean open, int threads, double rate, int[] weights) {
+		this.target = target;
+		this.open = open;
+		this.threads = threads;
+		this.rate = rate;
+		this.weights = weights;
+		for (int w : weights) {
+			totalWeight += w;
+		}
+	}
+
+	/**
+	 * Run the workload, then print a report of the measured part.
+	 *
+	 * @param warmup   seconds
+	 * @param duration seconds
+	 * @throws Exception
+	 */
+	public void run(int warmup, int duration) throws Exception {
+		int ops = Operation.values().length;
+		histograms = new Histogram[ops];
+		errors = new long[ops];
+		for (int op = 0; op < ops; op++) {
+			histograms[op] = new Histogram(3);
+		}
+
+		long begin = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+		long measure = begin + TimeUnit.SECONDS.toNanos(warmup);
+		long end = measure + TimeUnit.SECONDS.toNanos(duration);
+		long interval = (rate > 0) ? (long) (1e9 / rate) : 0;
+		AtomicLong next = new AtomicLong();
+
+		List<Worker> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			Worker worker = new Worker(target.open(), t, begin, measure, end, interval, next);
+			worker.start();
+			workers.add(worker);
+		}
+
+		for (Worker worker : workers) {
+			worker.join();
+			for (int op = 0; op < ops; op++) {
+				histograms[op].add(worker.histograms[op]);
+				errors[op] += worker.errors[op];
+			}
+		}
+
+		report(duration);
+	}
+
+	private class Worker extends Thread {
+		private LoadTarget.Session session;
+		private Random rand;
+		private long begin, measure, end, interval;
+		private AtomicLong next;
+
+		Histogram[] histograms;
+		long[] errors;
+
+		Worker(LoadTarget.Session session, int id, long begin, long measure, long end, long interval,
+				AtomicLong next) {
+			super("load-" + id);
+			this.session = session;
+			this.rand = new Random(id);
+			this.begin = begin;
+			this.measure = measure;
+			this.end = end;
+			this.next = next;
+
+			int ops = Operation.values().length;
+			this.histograms = new Histogram[ops];
+			this.errors = new long[ops];
+			for (int op = 0; op < ops; op++) {
+				histograms[op] = new Histogram(3);
+			}
+
+			// in closed-loop mode, each worker gets an equal share of the rate
+			this.interval = open ? interval : interval * threads;
+		}
+
+		public void run() {
+			long intended = begin;
+			while (true) {
+				if (open) {
+					intended = begin + next.getAndIncrement() * interval;
+				}
+				if (intended >= end) {
+					break;
+				}
+
+				// wait for the scheduled start, unless already behind
+				long now;
+				while ((now = System.nanoTime()) < intended) {
+					LockSupport.parkNanos(intended - now);
+				}
+
+				Operation op = choose();
+				boolean failed = false;
+				try {
+					session.run(op, rand);
+				} catch (Exception e) {
+					failed = true;
+				}
+				long done = System.nanoTime();
+
+				if (intended >= measure) {
+					if (failed) {
+						errors[op.ordinal()]++;
+					} else if (open) {
+						histograms[op.ordinal()].recordValue((done - intended) / 1000);
+					} else if (interval == 0) {
+						histograms[op.ordinal()].recordValue((done - now) / 1000);
+					} else {
+						histograms[op.ordinal()].recordValueWithExpectedInterval((done - now) / 1000,
+								interval / 1000);
+					}
+				}
+
+				if (!open) {
+					// a paced worker that falls behind does not try to catch up
+					intended = (interval == 0) ? done : Math.max(intended + interval, done);
+				}
+			}
+			session.close();
+		}
+
+		private Operation choose() {
+			int r = rand.nextInt(totalWeight);
+			for (Operation op : Operation.values()) {
+				r -= weights[op.ordinal()];
+				if (r < 0) {
+					return op;
+				}
+			}
+			throw new IllegalStateException();
+		}
+	}
+
+	private void report(int duration) {
+		out.printf("%s loop, %d threads, %s\n", open ? "Open" : "Closed", threads,
+				(rate > 0) ? String.format("target %.0f ops/s", rate) : "unpaced");
+		out.printf("%-10s %8s %7s %8s %9s %9s %9s %9s %9s %9s\n", "Operation", "Count", "Errors", "Ops/s",
+				"Mean ms", "p50", "p90", "p99", "p99.9", "Max");
+		out.println("---------------------------------------------------------------------------------------------");
+
+		Histogram all = new Histogram(3);
+		long allErrors = 0;
+		for (Operation op : Operation.values()) {
+			Histogram h = histograms[op.ordinal()];
+			if (h.getTotalCount() > 0 || errors[op.ordinal()] > 0) {
+				line(op.name().toLowerCase(), h, errors[op.ordinal()], duration);
+				all.add(h);
+				allErrors += errors[op.ordinal()];
+			}
+		}
+		line("total", all, allErrors, duration);
+	}
+
+	private static void line(String name, Histogram h, long errors, int duration) {
+		out.printf("%-10s %8d %7d %8.1f %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f\n", name, h.getTotalCount(), errors,
+				h.getTotalCount() / (double) duration, h.getMean() / 1000, h.getValueAtPercentile(50) / 1000.0,
+				h.getValueAtPercentile(90) / 1000.0, h.getValueAtPercentile(99) / 1000.0,
+				h.getValueAtPercentile(99.9) / 1000.0, h.getMaxValue() / 1000.0);
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> opts = new HashMap<>();
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			opts.put(args[i].replaceFirst("^--", ""), args[i + 1]);
+		}
+
+		String kind = opts.getOrDefault("target", "dao");
+		int students = Integer.parseInt(opts.getOrDefault("students", "2000"));
+		LoadTarget target;
+		if (kind.equals("http")) {
+			target = new HttpTarget(opts.getOrDefault("url", "http://localhost:8080"));
+		} else if (kind.equals("jpa")) {
+			target = new JpaTarget(PATH, new DataGenerator(students, 5));
+		} else {
+			target = new DaoTarget(ConnectionFactory.url(PATH), new DataGenerator(students, 5));
+		}
+
+		int[] weights = new int[Operation.values().length];
+		for (String part : opts.getOrDefault("mix", "browse=5,transcript=60,enroll=20,grade=15").split(",")) {
+			String[] kv = part.split("=");
+			Operation op = Operation.valueOf(kv[0].trim().toUpperCase());
+			if (target.supports(op)) {
+				weights[op.ordinal()] = Integer.parseInt(kv[1].trim());
+			} else {
+				out.println("Skipping " + kv[0] + ": not supported by the " + kind + " target");
+			}
+		}
+
+		LoadGenerator generator = new LoadGenerator(target, opts.getOrDefault("mode", "closed").equals("open"),
+				Integer.parseInt(opts.getOrDefault("threads", "8")),
+				Double.parseDouble(opts.getOrDefault("rate", "0")), weights);
+		if (generator.totalWeight == 0) {
+			out.println("Nothing to run");
+			return;
+		}
+		if (generator.open && generator.rate <= 0) {
+			out.println("Open-loop mode needs --rate");
+			return;
+		}
+
+		generator.run(Integer.parseInt(opts.getOrDefault("warmup", "5")),
+				Integer.parseInt(opts.getOrDefault("duration", "30")));
+		target.close();
+	}
+}
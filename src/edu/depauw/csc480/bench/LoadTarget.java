@@ -0,0 +1,45 @@
+package edu.depauw.csc480.bench;
+
+import java.util.Random;
+
+/**
+ * Something that LoadGenerator can send a registration workload to. Each
+ * worker thread opens its own session, since neither DatabaseManager nor
+ * EntityManager may be shared between threads.
+ */
+public interface LoadTarget {
+	enum Operation {
+		BROWSE, TRANSCRIPT, ENROLL, GRADE
+	}
+
+	/**
+	 * @param op
+	 * @return whether this target can perform the operation
+	 */
+	boolean supports(Operation op);
+
+	/**
+	 * @return a new session for one worker thread
+	 * @throws Exception
+	 */
+	Session open() throws Exception;
+
+	/**
+	 * Release the target once all of its sessions are finished.
+	 */
+	void close();
+
+	interface Session {
+		/**
+		 * Perform one operation, choosing its arguments with the given random
+		 * generator. An exception counts as an error.
+		 *
+		 * @param op
+		 * @param rand
+		 * @throws Exception
+		 */
+		void run(Operation op, Random rand) throws Exception;
+
+		void close();
+	}
+}
@@ -0,0 +1,140 @@
+package edu.depauw.csc480.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.startup.Tomcat;
+
+import edu.depauw.csc480.projectv5.RequestMetrics;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Checks that timing requests with a MetricsFilter costs less than 1% of the
+ * time of a request. The cost of the filter is measured as the two clock reads
+ * and the RequestMetrics.record it adds to each request, with one thread per
+ * processor recording into the same few endpoints. It is compared with the
+ * mean time of the cheapest request there is: a servlet that writes two bytes,
+ * called over loopback on an embedded Tomcat. Real pages also query the
+ * database, so their overhead is smaller still. Exits with status 1 if the
+ * overhead is 1% or more.
+ *
+ * Usage: MetricsOverhead [requests [port]]
+ */
+public class MetricsOverhead {
+	private static final PrintStream out = System.out;
+
+	private static final String[] PATHS = { "/University/StudentData", "/University/api/search",
+			"/University/api/suggest", RequestMetrics.OTHER };
+
+	public static void main(String[] args) throws Exception {
+		int requests = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		int port = (args.length > 1) ? Integer.parseInt(args[1]) : 8089;
+
+		double recordNanos = recordCost(requests * 50);
+		double requestNanos = requestCost(requests, port);
+		double overhead = 100 * recordNanos / requestNanos;
+
+		out.printf("%-32s %10.1f ns\n", "record, per request", recordNanos);
+		out.printf("%-32s %10.1f ns\n", "cheapest request", requestNanos);
+		out.printf("%-32s %10.3f %%\n", "overhead", overhead);
+		out.println(overhead < 1 ? "OK: metrics overhead under 1%" : "FAILED");
+		if (overhead >= 1) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Time what MetricsFilter adds to a request, on every processor at once,
+	 * after a warmup.
+	 *
+	 * @return mean nanoseconds per request on each thread
+	 */
+	private static double recordCost(int iterations) throws InterruptedException {
+		RequestMetrics metrics = new RequestMetrics();
+		int threads = Runtime.getRuntime().availableProcessors();
+		AtomicLong total = new AtomicLong();
+
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; t++) {
+			workers[t] = new Thread(() -> {
+				for (int round = 0; round < 2; round++) {
+					long begin = System.nanoTime();
+					for (int i = 0; i < iterations; i++) {
+						long start = System.nanoTime();
+						metrics.record(PATHS[i & 3], System.nanoTime() - start);
+					}
+					if (round == 1) {
+						total.addAndGet(System.nanoTime() - begin);
+					}
+				}
+			});
+			workers[t].start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return (double) total.get() / threads / iterations;
+	}
+
+	/**
+	 * Time requests for a trivial servlet, after a warmup.
+	 *
+	 * @return mean nanoseconds per request
+	 */
+	@SuppressWarnings("serial")
+	private static double requestCost(int requests, int port) throws LifecycleException, IOException {
+		Tomcat tomcat = new Tomcat();
+		tomcat.setBaseDir("temp");
+		Connector connector = new Connector();
+		connector.setPort(port);
+		tomcat.setConnector(connector);
+
+		Context ctx = tomcat.addContext("", new File("temp").getAbsolutePath());
+		Tomcat.addServlet(ctx, "Ok", new HttpServlet() {
+			public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+				response.setContentType("text/plain");
+				response.getOutputStream().write(new byte[] { 'o', 'k' });
+			}
+		});
+		ctx.addServletMappingDecoded("/ok", "Ok");
+		tomcat.start();
+
+		try {
+			URL url = new URL("http://localhost:" + port + "/ok");
+			for (int i = 0; i < requests / 4; i++) {
+				get(url);
+			}
+			long begin = System.nanoTime();
+			for (int i = 0; i < requests; i++) {
+				get(url);
+			}
+			return (double) (System.nanoTime() - begin) / requests;
+		} finally {
+			tomcat.stop();
+			tomcat.destroy();
+		}
+	}
+
+	/**
+	 * Fetch the page, reading it fully so that the connection can be reused.
+	 */
+	private static void get(URL url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+		try (InputStream in = conn.getInputStream()) {
+			byte[] buf = new byte[64];
+			while (in.read(buf) >= 0) {
+				// discard
+			}
+		}
+	}
+}
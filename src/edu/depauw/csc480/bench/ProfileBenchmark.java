@@ -0,0 +1,99 @@
+package edu.depauw.csc480.bench;
+
+import java.io.PrintStream;
+import java.util.Random;
+
+import edu.depauw.csc480.projectv3.dao.DatabaseManager;
+import edu.depauw.csc480.projectv3.dao.PerformanceProfile;
+import edu.depauw.csc480.projectv3.model.Enroll;
+import edu.depauw.csc480.projectv3.model.Section;
+import edu.depauw.csc480.projectv3.model.Student;
+
+/**
+ * Compares the Derby performance profiles on generated data. Each profile gets
+ * its own database under db/, which is loaded from scratch, then reopened for a
+ * run of small update transactions, then reopened again (with cold caches) for
+ * a full listing and a batch of random transcripts.
+ *
+ * Usage: ProfileBenchmark [students [enrollments per student]]
+ */
+public class ProfileBenchmark {
+	private static final PrintStream out = System.out;
+
+	private static final int UPDATES = 2000;
+	private static final int TRANSCRIPTS = 1000;
+
+	public static void main(String[] args) {
+		int students = (args.length > 0) ? Integer.parseInt(args[0]) : 5000;
+		int enrolls = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+		DataGenerator gen = new DataGenerator(students, enrolls);
+
+		out.printf("%d rows per load, %d updates, %d transcripts\n", gen.getRows(), UPDATES, TRANSCRIPTS);
+		out.printf("%-12s %12s %12s %12s %12s\n", "Profile", "Load rows/s", "Updates/s", "Listing ms",
+				"Transcripts/s");
+		out.println("------------------------------------------------------------------");
+
+		for (PerformanceProfile profile : PerformanceProfile.values()) {
+			String url = "jdbc:derby:db/bench-" + profile.name().toLowerCase();
+
+			DatabaseManager dbm = new DatabaseManager(url, profile);
+			long start = System.nanoTime();
+			gen.populate(dbm, 42);
+			double load = gen.getRows() / seconds(start);
+			dbm.close();
+
+			dbm = new DatabaseManager(url, profile);
+			double updates = runUpdates(dbm, gen);
+			dbm.close();
+
+			dbm = new DatabaseManager(url, profile);
+			start = System.nanoTime();
+			dbm.getStudents();
+			dbm.commit();
+			double listing = seconds(start) * 1000;
+			double transcripts = runTranscripts(dbm, gen);
+			dbm.close();
+
+			out.printf("%-12s %12.0f %12.0f %12.1f %12.0f\n", profile, load, updates, listing, transcripts);
+		}
+	}
+
+	/**
+	 * Change random grades, committing each change separately.
+	 *
+	 * @return updates per second
+	 */
+	private static double runUpdates(DatabaseManager dbm, DataGenerator gen) {
+		Random rand = new Random(17);
+		long start = System.nanoTime();
+		for (int i = 0; i < UPDATES; i++) {
+			Enroll enroll = dbm.findEnroll(1 + rand.nextInt(gen.getEnrolls()));
+			enroll.setGrade(DataGenerator.GRADES[rand.nextInt(DataGenerator.GRADES.length)]);
+			dbm.commit();
+		}
+		return UPDATES / seconds(start);
+	}
+
+	/**
+	 * Load the enrollments, sections, and courses of random students.
+	 *
+	 * @return transcripts per second
+	 */
+	private static double runTranscripts(DatabaseManager dbm, DataGenerator gen) {
+		Random rand = new Random(23);
+		long start = System.nanoTime();
+		for (int i = 0; i < TRANSCRIPTS; i++) {
+			Student student = dbm.findStudent(1 + rand.nextInt(gen.getStudents()));
+			for (Enroll enroll : student.getEnrollments()) {
+				Section section = enroll.getSection();
+				section.getCourse().getDept();
+			}
+			dbm.commit();
+		}
+		return TRANSCRIPTS / seconds(start);
+	}
+
+	private static double seconds(long start) {
+		return (System.nanoTime() - start) / 1e9;
+	}
+}
@@ -0,0 +1,127 @@
+package edu.depauw.csc480.bench;
+
+import java.io.PrintStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.projectv3.dao.DatabaseManager;
+import edu.depauw.csc480.projectv3.model.Course;
+import edu.depauw.csc480.projectv3.model.Dept;
+
+/**
+ * Registration rush: many threads, each with its own DatabaseManager, try to
+ * enroll students in a few small sections at once, each enrollment in its own
+ * inTransaction. Afterwards, checked with SQL rather than through any cache, no
+ * section may hold more ENROLL rows than its capacity, its SeatsTaken must
+ * agree with those rows, and every successful enrollment must be among them.
+ * Exits with status 1 if not.
+ *
+ * Usage: SeatStress [threads [attempts per thread [sections [capacity]]]]
+ */
+public class SeatStress {
+	private static final PrintStream out = System.out;
+
+	private static final String URL = "jdbc:derby:db/bench-seats";
+
+	public static void main(String[] args) throws InterruptedException, SQLException {
+		int threads = (args.length > 0) ? Integer.parseInt(args[0]) : 16;
+		int attempts = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+		int sections = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+		int capacity = (args.length > 3) ? Integer.parseInt(args[3]) : 250;
+
+		DatabaseManager dbm = new DatabaseManager(URL, null);
+		dbm.clearTables();
+		Dept dept = dbm.insertDept(1, "dept1");
+		Course course = dbm.insertCourse(1, "course1", dept);
+		for (int k = 1; k <= sections; k++) {
+			dbm.insertSection(k, course, "prof" + k, 2020, capacity);
+		}
+		for (int s = 1; s <= threads * attempts; s++) {
+			dbm.insertStudent(s, "s" + s, dept, 2024);
+		}
+		dbm.commit();
+
+		// open all of the connections before starting the clock
+		List<DatabaseManager> managers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			managers.add(new DatabaseManager(URL, null));
+		}
+
+		AtomicInteger enrolled = new AtomicInteger();
+		AtomicInteger refused = new AtomicInteger();
+		CountDownLatch start = new CountDownLatch(1);
+		List<Thread> workers = new ArrayList<>();
+		for (int t = 0; t < threads; t++) {
+			DatabaseManager mine = managers.get(t);
+			int first = t * attempts + 1;
+			Thread worker = new Thread(() -> {
+				Random rand = new Random(first);
+				try {
+					start.await();
+				} catch (InterruptedException e) {
+					return;
+				}
+				for (int id = first; id < first + attempts; id++) {
+					int sectId = 1 + rand.nextInt(sections);
+					int sId = id;
+					if (mine.inTransaction(
+							() -> mine.insertEnroll(sId, mine.findStudent(sId), mine.findSection(sectId), null)) != null) {
+						enrolled.incrementAndGet();
+					} else {
+						refused.incrementAndGet();
+					}
+				}
+			});
+			worker.start();
+			workers.add(worker);
+		}
+
+		long begin = System.nanoTime();
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double seconds = (System.nanoTime() - begin) / 1e9;
+
+		out.printf("%d attempts by %d threads in %.2f s (%.0f attempts/s)\n", threads * attempts, threads, seconds,
+				threads * attempts / seconds);
+		out.printf("%d enrolled, %d refused\n", enrolled.get(), refused.get());
+
+		boolean ok = true;
+		int total = 0;
+		StringBuilder sb = new StringBuilder();
+		sb.append("select s.SectId, s.Capacity, s.SeatsTaken,");
+		sb.append("    (select count(*) from ENROLL e where e.SectionId = s.SectId)");
+		sb.append("  from SECTION s");
+		sb.append("  order by s.SectId");
+		try (Connection conn = ConnectionFactory.driver(URL).connect(URL, new Properties());
+				PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+				ResultSet rs = pstmt.executeQuery()) {
+			while (rs.next()) {
+				int taken = rs.getInt(3);
+				int roster = rs.getInt(4);
+				out.printf("section %d: capacity %d, seats taken %d, roster %d\n", rs.getInt(1), rs.getInt(2), taken,
+						roster);
+				ok &= (roster == taken) && (roster <= rs.getInt(2));
+				total += roster;
+			}
+		}
+		ok &= (total == enrolled.get());
+		dbm.commit();
+		dbm.close();
+
+		out.println(ok ? "OK: no section overbooked" : "FAILED");
+		if (!ok) {
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+package edu.depauw.csc480.derby;
+
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.sql.Driver;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.derby.drda.NetworkServerControl;
+import org.apache.derby.jdbc.ClientDriver;
+import org.apache.derby.jdbc.EmbeddedDriver;
+
+/**
+ * Chooses how to reach a Derby database, based on the derby.mode system
+ * property:
+ * <ul>
+ * <li>embedded (the default): open the database directly in this JVM, which
+ * then has exclusive access to it;</li>
+ * <li>server: open the database directly, but also start Derby's network
+ * server in this JVM so that other programs can connect as clients;</li>
+ * <li>client: connect through the network server running at
+ * derby.client.host:derby.client.port (default localhost:1527), which may be
+ * in-process in another program or standalone (see main).</li>
+ * </ul>
+ * Database paths are relative to the working directory of the JVM that opens
+ * the database, that is, the server in client mode.
+ */
+public class ConnectionFactory {
+	public static final String MODE_PROPERTY = "derby.mode";
+	public static final String HOST_PROPERTY = "derby.client.host";
+	public static final String PORT_PROPERTY = "derby.client.port";
+
+	private static NetworkServerControl server;
+
+	/**
+	 * @return whether connections go through the network client driver
+	 */
+	public static boolean isClient() {
+		return "client".equals(System.getProperty(MODE_PROPERTY));
+	}
+
+	/**
+	 * @param path database path, such as db/studentdb
+	 * @return the JDBC URL for the database in the configured mode
+	 */
+	public static String url(String path) {
+		if (isClient()) {
+			return "jdbc:derby://" + host() + ":" + port() + "/" + path;
+		}
+
+		if ("server".equals(System.getProperty(MODE_PROPERTY))) {
+			startServer(port());
+		}
+		return "jdbc:derby:" + path;
+	}
+
+	/**
+	 * @param url
+	 * @return a driver able to connect to the given URL
+	 */
+	public static Driver driver(String url) {
+		return url.startsWith("jdbc:derby://") ? new ClientDriver() : new EmbeddedDriver();
+	}
+
+	/**
+	 * @param path
+	 * @return JPA properties overriding the connection settings of
+	 *         persistence.xml for the configured mode
+	 */
+	public static Map<String, String> jpaProperties(String path) {
+		Map<String, String> props = new HashMap<>();
+		String url = url(path);
+		props.put("javax.persistence.jdbc.url", url + ";create=true");
+		props.put("javax.persistence.jdbc.driver", driver(url).getClass().getName());
+		return props;
+	}
+
+	/**
+	 * Start the network server in this JVM, listening on the configured host
+	 * (localhost by default), unless it is already running.
+	 *
+	 * @param port
+	 */
+	public static synchronized void startServer(int port) {
+		if (server != null) {
+			return;
+		}
+
+		try {
+			NetworkServerControl control = new NetworkServerControl(InetAddress.getByName(host()), port);
+			control.start(new PrintWriter(System.out, true));
+
+			// start returns before the server is listening
+			for (int tries = 0;; tries++) {
+				try {
+					control.ping();
+					break;
+				} catch (Exception e) {
+					if (tries == 50) {
+						throw e;
+					}
+					Thread.sleep(100);
+				}
+			}
+			server = control;
+		} catch (Exception e) {
+			throw new RuntimeException("cannot start Derby network server", e);
+		}
+	}
+
+	/**
+	 * Stop the in-process network server, if it is running.
+	 */
+	public static synchronized void stopServer() {
+		if (server != null) {
+			try {
+				server.shutdown();
+			} catch (Exception e) {
+				// nothing more to do
+			}
+			server = null;
+		}
+	}
+
+	private static String host() {
+		return System.getProperty(HOST_PROPERTY, "localhost");
+	}
+
+	private static int port() {
+		return Integer.getInteger(PORT_PROPERTY, NetworkServerControl.DEFAULT_PORTNUMBER);
+	}
+
+	/**
+	 * Run a standalone network server on the configured port until the JVM is
+	 * stopped.
+	 *
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		startServer(port());
+		System.out.println("Derby network server listening on port " + port());
+		Thread.currentThread().join();
+	}
+}
@@ -0,0 +1,202 @@
+package edu.depauw.csc480.derby;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.apache.derby.jdbc.EmbeddedDriver;
+
+/**
+ * Manages a bulk load into an embedded Derby database, timing it and reporting
+ * its throughput. In relaxed mode, intended only for databases that can be
+ * recreated (test, staging, analytics copies), the database is rebooted with
+ * derby.system.durability=test so that commits do not wait for the log to be
+ * forced to disk, and the whole load runs as a single transaction. When the
+ * load finishes, a checkpoint writes everything to disk and the database is
+ * shut down, so that its next boot is fully durable again.
+ *
+ * A relaxed load refuses to run against a database whose csc480.environment
+ * database property is "production"; set it with
+ * CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY('csc480.environment', 'production')
+ * or with markEnvironment.
+ *
+ * Open a load in a try-with-resources statement: if it is closed without
+ * finishing, close rolls it back and undoes the relaxed mode in the same way.
+ */
+public class FastLoad implements AutoCloseable {
+	public static final String ENVIRONMENT_PROPERTY = "csc480.environment";
+	public static final String PRODUCTION = "production";
+
+	private static final String DURABILITY_PROPERTY = "derby.system.durability";
+
+	private Driver driver;
+	private String url;
+	private boolean relaxed;
+	private Connection conn;
+	private long start;
+	private long rows;
+	private boolean closed;
+
+	private FastLoad(Driver driver, String url, boolean relaxed, Connection conn) {
+		this.driver = driver;
+		this.url = url;
+		this.relaxed = relaxed;
+		this.conn = conn;
+		this.start = System.nanoTime();
+	}
+
+	/**
+	 * Connect to the database at the given URL (creating it if necessary) to begin
+	 * a load.
+	 *
+	 * @param url     database URL, without attributes
+	 * @param relaxed whether to relax durability and batch commits
+	 * @return the load in progress
+	 * @throws SQLException if the database cannot be opened, or if a relaxed load
+	 *                      is requested for a production database
+	 */
+	public static FastLoad open(String url, boolean relaxed) throws SQLException {
+		Driver driver = new EmbeddedDriver();
+		Properties prop = new Properties();
+		prop.put("create", "true");
+		Connection conn = driver.connect(url, prop);
+
+		if (relaxed) {
+			if (PRODUCTION.equals(getEnvironment(conn))) {
+				conn.close();
+				throw new SQLException("refusing fast load: " + url + " is marked " + PRODUCTION);
+			}
+
+			// Durability can only be changed when the database boots
+			conn.close();
+			shutdown(driver, url);
+			System.setProperty(DURABILITY_PROPERTY, "test");
+			try {
+				conn = driver.connect(url, new Properties());
+				conn.setAutoCommit(false);
+			} catch (SQLException e) {
+				shutdown(driver, url);
+				System.clearProperty(DURABILITY_PROPERTY);
+				throw e;
+			}
+		}
+
+		return new FastLoad(driver, url, relaxed, conn);
+	}
+
+	public Connection getConnection() {
+		return conn;
+	}
+
+	/**
+	 * Count rows toward the throughput report.
+	 *
+	 * @param n
+	 */
+	public void addRows(long n) {
+		rows += n;
+	}
+
+	/**
+	 * Finish the load: commit, and in relaxed mode checkpoint the database and
+	 * shut it down so that it reboots with full durability. The connection is
+	 * closed either way.
+	 *
+	 * @return a one-line report of the elapsed time and throughput
+	 * @throws SQLException
+	 */
+	public String finish() throws SQLException {
+		if (relaxed) {
+			conn.commit();
+			try (CallableStatement cstmt = conn.prepareCall("call SYSCS_UTIL.SYSCS_CHECKPOINT_DATABASE()")) {
+				cstmt.execute();
+			}
+			conn.close();
+			shutdown(driver, url);
+			System.clearProperty(DURABILITY_PROPERTY);
+		} else {
+			if (!conn.getAutoCommit()) {
+				conn.commit();
+			}
+			conn.close();
+		}
+		closed = true;
+
+		double seconds = (System.nanoTime() - start) / 1e9;
+		return String.format("%s load: %d rows in %.3f s (%.0f rows/s)", relaxed ? "Fast" : "Durable", rows,
+				seconds, rows / seconds);
+	}
+
+	/**
+	 * Abandon the load if it has not finished: roll back and close the
+	 * connection, and in relaxed mode shut the database down and restore the
+	 * default durability, as finish does.
+	 */
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			if (!conn.isClosed()) {
+				if (!conn.getAutoCommit()) {
+					conn.rollback();
+				}
+				conn.close();
+			}
+		} catch (SQLException e) {
+			System.out.println("error: cannot rollback fast load");
+		}
+		if (relaxed) {
+			shutdown(driver, url);
+			System.clearProperty(DURABILITY_PROPERTY);
+		}
+	}
+
+	/**
+	 * @param conn
+	 * @return the value of the csc480.environment database property, or null
+	 * @throws SQLException
+	 */
+	public static String getEnvironment(Connection conn) throws SQLException {
+		try (CallableStatement cstmt = conn.prepareCall("values SYSCS_UTIL.SYSCS_GET_DATABASE_PROPERTY(?)")) {
+			cstmt.setString(1, ENVIRONMENT_PROPERTY);
+			try (ResultSet rs = cstmt.executeQuery()) {
+				return rs.next() ? rs.getString(1) : null;
+			}
+		}
+	}
+
+	/**
+	 * Record what kind of environment the database belongs to, such as
+	 * "production" or "test".
+	 *
+	 * @param conn
+	 * @param environment
+	 * @throws SQLException
+	 */
+	public static void markEnvironment(Connection conn, String environment) throws SQLException {
+		try (CallableStatement cstmt = conn.prepareCall("call SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY(?, ?)")) {
+			cstmt.setString(1, ENVIRONMENT_PROPERTY);
+			cstmt.setString(2, environment);
+			cstmt.execute();
+		}
+		if (!conn.getAutoCommit()) {
+			conn.commit();
+		}
+	}
+
+	private static void shutdown(Driver driver, String url) {
+		Properties prop = new Properties();
+		prop.put("shutdown", "true");
+		try {
+			driver.connect(url, prop);
+		} catch (SQLException e) {
+			// This is supposed to throw an exception...
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package edu.depauw.csc480.derby;
+
+import java.io.File;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A copy of a Derby database for reporting queries, so that long reads do not
+ * hold locks that block writers on the primary. Each refresh takes an online
+ * backup of the primary (SYSCS_BACKUP_DATABASE), then shuts down the replica
+ * and recreates it from the backup with the restoreFrom attribute. Both
+ * databases are reached through ConnectionFactory, so in client mode the
+ * backup and the replica are kept by the network server, and their paths are
+ * relative to its working directory.
+ *
+ * Readers must hold the read lock while they use the replica; a refresh holds
+ * the write lock only while the replica is being restored, not during the
+ * backup. Since the restore invalidates all open connections to the replica,
+ * clients should reconnect when the generation number changes.
+ */
+public class ReplicaSnapshot {
+	public static final String REFRESH_PROPERTY = "replica.refreshSeconds";
+
+	private String primaryUrl;
+	private String replicaPath;
+	private String replicaUrl;
+	private String backupDir;
+	private String backupPath;
+	private Driver driver;
+	private ReadWriteLock lock;
+	private volatile long generation;
+	private volatile SQLException lastFailure;
+	private ScheduledExecutorService scheduler;
+
+	/**
+	 * @param primaryPath path of the primary database, such as db/studentdb
+	 * @param replicaPath path where the replica should be kept
+	 */
+	public ReplicaSnapshot(String primaryPath, String replicaPath) {
+		this.primaryUrl = ConnectionFactory.url(primaryPath);
+		this.replicaPath = replicaPath;
+		this.replicaUrl = ConnectionFactory.url(replicaPath);
+		this.backupDir = replicaPath + "-backup";
+		this.backupPath = backupDir + File.separator + new File(primaryPath).getName();
+		this.driver = ConnectionFactory.driver(primaryUrl);
+		this.lock = new ReentrantReadWriteLock();
+	}
+
+	/**
+	 * If the replica.refreshSeconds system property is set, create a replica of
+	 * the given database next to it and start refreshing it on that schedule.
+	 *
+	 * @param primaryPath
+	 * @return the running snapshot, or null if none was requested
+	 */
+	public static ReplicaSnapshot fromSystemProperties(String primaryPath) {
+		String seconds = System.getProperty(REFRESH_PROPERTY);
+		if (seconds == null) {
+			return null;
+		}
+
+		ReplicaSnapshot snapshot = new ReplicaSnapshot(primaryPath, primaryPath + "-replica");
+		snapshot.start(Long.parseLong(seconds), TimeUnit.SECONDS);
+		return snapshot;
+	}
+
+	/**
+	 * @return the path of the replica, for ConnectionFactory
+	 */
+	public String getPath() {
+		return replicaPath;
+	}
+
+	/**
+	 * @return the JDBC URL of the replica
+	 */
+	public String getUrl() {
+		return replicaUrl;
+	}
+
+	/**
+	 * @return the error from the most recent background refresh, or null if it
+	 *         succeeded
+	 */
+	public SQLException getLastFailure() {
+		return lastFailure;
+	}
+
+	/**
+	 * @return the number of completed refreshes; 0 means the replica is not yet
+	 *         available
+	 */
+	public long getGeneration() {
+		return generation;
+	}
+
+	/**
+	 * @return the lock that readers must hold while using the replica
+	 */
+	public Lock readLock() {
+		return lock.readLock();
+	}
+
+	/**
+	 * Bring the replica up to date with the primary.
+	 *
+	 * @throws SQLException
+	 */
+	public synchronized void refresh() throws SQLException {
+		try (Connection conn = driver.connect(primaryUrl, new Properties());
+				CallableStatement cstmt = conn.prepareCall("call SYSCS_UTIL.SYSCS_BACKUP_DATABASE(?)")) {
+			cstmt.setString(1, backupDir);
+			cstmt.execute();
+		}
+
+		lock.writeLock().lock();
+		try {
+			Properties prop = new Properties();
+			prop.put("shutdown", "true");
+			try {
+				driver.connect(getUrl(), prop);
+			} catch (SQLException e) {
+				// Expected, either because it shut down or because it wasn't running
+			}
+
+			prop = new Properties();
+			prop.put("restoreFrom", backupPath);
+			driver.connect(getUrl(), prop).close();
+			generation++;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Refresh the replica now, and then periodically in the background.
+	 *
+	 * @param period
+	 * @param unit
+	 */
+	public void start(long period, TimeUnit unit) {
+		try {
+			refresh();
+		} catch (SQLException e) {
+			throw new RuntimeException("cannot create replica", e);
+		}
+
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "replica-refresh");
+			t.setDaemon(true);
+			return t;
+		});
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+				lastFailure = null;
+			} catch (SQLException e) {
+				// keep serving the previous copy, and try again next time
+				lastFailure = e;
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * Stop refreshing the replica.
+	 */
+	public void stop() {
+		if (scheduler != null) {
+			scheduler.shutdown();
+			scheduler = null;
+		}
+	}
+}
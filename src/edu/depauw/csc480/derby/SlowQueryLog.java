@@ -0,0 +1,164 @@
+package edu.depauw.csc480.derby;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.FileHandler;
+import java.util.logging.Formatter;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+/**
+ * A log of the statements that take longer than a configurable threshold, with
+ * the text of the statement, its parameters, its elapsed time, and (optionally)
+ * the query plan that Derby chose for it. The log is written through a
+ * java.util.logging FileHandler, which rolls over to a new file when the
+ * current one reaches its size limit. Every log with the same file pattern
+ * shares one handler, which stays open for the life of the JVM, so a log per
+ * DatabaseManager does not leave a file open for each manager.
+ *
+ * Capturing plans requires Derby's runtime statistics to be switched on for the
+ * connection (see enableRuntimeStatistics), which costs a little on every
+ * statement; without plans, a fast statement costs only a comparison.
+ */
+public class SlowQueryLog {
+	public static final String THRESHOLD_PROPERTY = "slowquery.thresholdMillis";
+	public static final String EXPLAIN_PROPERTY = "slowquery.explain";
+	public static final String FILE_PROPERTY = "slowquery.file";
+
+	private static final int FILE_LIMIT = 1 << 20;
+	private static final int FILE_COUNT = 5;
+
+	private static final Map<String, Logger> loggers = new HashMap<>();
+
+	private long thresholdNanos;
+	private boolean explain;
+	private Logger logger;
+
+	/**
+	 * Open a slow-query log.
+	 *
+	 * @param pattern         FileHandler file pattern, such as "slowquery%g.log"
+	 * @param thresholdMillis statements taking at least this long are logged
+	 * @param explain         whether to capture Derby's plan for slow statements
+	 * @throws IOException
+	 */
+	public SlowQueryLog(String pattern, long thresholdMillis, boolean explain) throws IOException {
+		this.thresholdNanos = thresholdMillis * 1000000L;
+		this.explain = explain;
+		this.logger = loggerFor(pattern);
+	}
+
+	/**
+	 * @param pattern
+	 * @return the logger writing to the files with the given pattern, opening
+	 *         them the first time
+	 * @throws IOException
+	 */
+	private static synchronized Logger loggerFor(String pattern) throws IOException {
+		Logger logger = loggers.get(pattern);
+		if (logger != null) {
+			return logger;
+		}
+
+		FileHandler handler = new FileHandler(pattern, FILE_LIMIT, FILE_COUNT, true);
+		handler.setFormatter(new Formatter() {
+			@Override
+			public String format(LogRecord record) {
+				return String.format("%tF %<tT.%<tL %s%n", new Date(record.getMillis()), record.getMessage());
+			}
+		});
+
+		logger = Logger.getAnonymousLogger();
+		logger.setUseParentHandlers(false);
+		logger.addHandler(handler);
+		loggers.put(pattern, logger);
+		return logger;
+	}
+
+	/**
+	 * Create a slow-query log from the slowquery.* system properties, or return
+	 * null if slowquery.thresholdMillis is not set.
+	 *
+	 * @return the log, or null
+	 */
+	public static SlowQueryLog fromSystemProperties() {
+		String threshold = System.getProperty(THRESHOLD_PROPERTY);
+		if (threshold == null) {
+			return null;
+		}
+
+		try {
+			return new SlowQueryLog(System.getProperty(FILE_PROPERTY, "slowquery%g.log"), Long.parseLong(threshold),
+					Boolean.getBoolean(EXPLAIN_PROPERTY));
+		} catch (IOException e) {
+			throw new RuntimeException("cannot open slow query log", e);
+		}
+	}
+
+	public boolean isSlow(long nanos) {
+		return nanos >= thresholdNanos;
+	}
+
+	public boolean explains() {
+		return explain;
+	}
+
+	/**
+	 * Write one entry to the log.
+	 *
+	 * @param sql   the statement text
+	 * @param binds description of the parameter values, or null if none
+	 * @param nanos elapsed time
+	 * @param plan  Derby's runtime statistics for the statement, or null
+	 */
+	public void log(String sql, String binds, long nanos, String plan) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%.3f ms: ", nanos / 1e6));
+		sb.append(sql.replaceAll("\\s+", " "));
+		if (binds != null) {
+			sb.append(" ").append(binds);
+		}
+		if (plan != null) {
+			sb.append(System.lineSeparator()).append(plan);
+		}
+		logger.log(Level.INFO, sb.toString());
+	}
+
+	/**
+	 * Ask Derby to keep runtime statistics (including timing) for each statement
+	 * executed on the given connection.
+	 *
+	 * @param conn
+	 * @throws SQLException
+	 */
+	public static void enableRuntimeStatistics(Connection conn) throws SQLException {
+		try (Statement stmt = conn.createStatement()) {
+			stmt.execute("call SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(1)");
+			stmt.execute("call SYSCS_UTIL.SYSCS_SET_STATISTICS_TIMING(1)");
+		}
+	}
+
+	/**
+	 * Retrieve Derby's runtime statistics for the most recent statement executed
+	 * on the given connection. For a query, the statistics are only complete once
+	 * its ResultSet has been closed.
+	 *
+	 * @param conn
+	 * @return the statistics text, or null if they are not available
+	 */
+	public static String fetchPlan(Connection conn) {
+		try (Statement stmt = conn.createStatement();
+				ResultSet rs = stmt.executeQuery("values SYSCS_UTIL.SYSCS_GET_RUNTIMESTATISTICS()")) {
+			return rs.next() ? rs.getString(1) : null;
+		} catch (SQLException e) {
+			return null;
+		}
+	}
+}
@@ -2,14 +2,21 @@ package edu.depauw.csc480.jdbc;
 
 import java.sql.*;
 
-import org.apache.derby.jdbc.EmbeddedDriver;
+import edu.depauw.csc480.derby.FastLoad;
 
+/**
+ * Recreate the student database from scratch. Run with the argument --fast to
+ * load with relaxed durability and a single commit (see FastLoad); this is
+ * refused if the database is marked as production.
+ */
 public class CreateStudentDB {
 	public static void main(String[] args) {
-		String url = "jdbc:derby:db/studentdb;create=true";
-		Driver d = new EmbeddedDriver();
+		String url = "jdbc:derby:db/studentdb";
+		boolean fast = args.length > 0 && args[0].equals("--fast");
+
+		try (FastLoad load = FastLoad.open(url, fast)) {
+			Connection conn = load.getConnection();
 
-		try (Connection conn = d.connect(url, null)) {
 			// First clean up from previous runs, if any
 			dropConstraints(conn);
 			dropTables(conn);
@@ -18,10 +25,12 @@ public class CreateStudentDB {
 			addTables(conn);
 
 			// Insert some bulk data
-			insertData(conn);
+			load.addRows(insertData(conn));
 			
 			// Finally add in the constraints
 			addConstraints(conn);
+
+			System.out.println(load.finish());
 		} catch (SQLException e) {
 			e.printStackTrace();
 		}
@@ -86,6 +95,11 @@ public class CreateStudentDB {
 		doUpdateNoError(conn, "drop table COURSE", "Table COURSE dropped.");
 		doUpdateNoError(conn, "drop table SECTION", "Table SECTION dropped.");
 		doUpdateNoError(conn, "drop table ENROLL", "Table ENROLL dropped.");
+		// derived from ENROLL; DatabaseManager rebuilds it when it is missing
+		doUpdateNoError(conn, "drop table GRADE_SUMMARY", "Table GRADE_SUMMARY dropped.");
+		// its triggers were dropped with STUDENT and ENROLL; DatabaseManager recreates it all
+		doUpdateNoError(conn, "drop table CHANGE_LOG", "Table CHANGE_LOG dropped.");
+		doUpdateNoError(conn, "drop table CHANGE_LOG_CONSUMER", "Table CHANGE_LOG_CONSUMER dropped.");
 	}
 
 	private static void dropConstraints(Connection conn) {
@@ -100,44 +114,57 @@ public class CreateStudentDB {
 				"Dropped foreign key ENROLL->SECTION.");
 	}
 
-	private static void insertData(Connection conn) {
+	/**
+	 * Insert the sample data, sending each table's rows to the database as one
+	 * batch.
+	 * 
+	 * @param conn
+	 * @return the number of rows inserted
+	 * @throws SQLException if any batch fails, so that the load is abandoned
+	 */
+	private static int insertData(Connection conn) throws SQLException {
+		int count = 0;
 		try (Statement stmt = conn.createStatement()) {
 			String[] studvals = { "(1, 'joe', 10, 2021)", "(2, 'amy', 20, 2020)", "(3, 'max', 10, 2022)",
 					"(4, 'sue', 20, 2022)", "(5, 'bob', 30, 2020)", "(6, 'kim', 20, 2020)", "(7, 'art', 30, 2021)",
 					"(8, 'pat', 20, 2019)", "(9, 'lee', 10, 2021)" };
 			for (String val : studvals) {
-				stmt.executeUpdate("insert into STUDENT(SId, SName, MajorId, GradYear) values " + val);
+				stmt.addBatch("insert into STUDENT(SId, SName, MajorId, GradYear) values " + val);
 			}
+			count += stmt.executeBatch().length;
 			System.out.println("STUDENT records inserted.");
 
 			String[] deptvals = { "(10, 'compsci')", "(20, 'math')", "(30, 'drama')" };
 			for (String val : deptvals) {
-				stmt.executeUpdate("insert into DEPT(DId, DName) values " + val);
+				stmt.addBatch("insert into DEPT(DId, DName) values " + val);
 			}
+			count += stmt.executeBatch().length;
 			System.out.println("DEPT records inserted.");
 
 			String[] coursevals = { "(12, 'db systems', 10)", "(22, 'compilers', 10)", "(32, 'calculus', 20)",
 					"(42, 'algebra', 20)", "(52, 'acting', 30)", "(62, 'elocution', 30)" };
 			for (String val : coursevals) {
-				stmt.executeUpdate("insert into COURSE(CId, Title, DeptId) values " + val);
+				stmt.addBatch("insert into COURSE(CId, Title, DeptId) values " + val);
 			}
+			count += stmt.executeBatch().length;
 			System.out.println("COURSE records inserted.");
 
 			String[] sectvals = { "(13, 12, 'turing', 2018)", "(23, 12, 'turing', 2019)", "(33, 32, 'newton', 2019)",
 					"(43, 32, 'einstein', 2017)", "(53, 62, 'brando', 2018)" };
 			for (String val : sectvals) {
-				stmt.executeUpdate("insert into SECTION(SectId, CourseId, Prof, YearOffered) values " + val);
+				stmt.addBatch("insert into SECTION(SectId, CourseId, Prof, YearOffered) values " + val);
 			}
+			count += stmt.executeBatch().length;
 			System.out.println("SECTION records inserted.");
 
 			String[] enrollvals = { "(14, 1, 13, 'A')", "(24, 1, 43, 'C' )", "(34, 2, 43, 'B+')", "(44, 4, 33, 'B' )",
 					"(54, 4, 53, 'A' )", "(64, 6, 53, 'A' )" };
 			for (String val : enrollvals) {
-				stmt.executeUpdate("insert into ENROLL(EId, StudentId, SectionId, Grade) values " + val);
+				stmt.addBatch("insert into ENROLL(EId, StudentId, SectionId, Grade) values " + val);
 			}
+			count += stmt.executeBatch().length;
 			System.out.println("ENROLL records inserted.");
-		} catch (SQLException e) {
-			e.printStackTrace();
 		}
+		return count;
 	}
 }
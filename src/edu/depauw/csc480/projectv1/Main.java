@@ -222,12 +222,15 @@ public class Main {
 	/**
 	 * Delete the contents of the tables, then reinsert the sample data from Sciore.
 	 * Again, note that the order is important, so that foreign key references
-	 * already exist before they are used.
+	 * already exist before they are used. The whole reset runs as one
+	 * transaction, so the log is only forced to disk once instead of after every
+	 * statement.
 	 * 
 	 * @param conn
 	 */
 	private static void resetTables(Connection conn) {
 		try (Statement stmt = conn.createStatement()) {
+			conn.setAutoCommit(false);
 			int count = 0;
 			count += stmt.executeUpdate("delete from ENROLL");
 			count += stmt.executeUpdate("delete from SECTION");
@@ -302,10 +305,22 @@ public class Main {
 				count += stmt.executeUpdate("insert into ENROLL(EId, StudentId, SectionId, Grade) values " + val);
 			}
 			System.out.println(count + " ENROLL records inserted.");
+
+			conn.commit();
 		} catch (SQLException e) {
 			e.printStackTrace();
+			try {
+				conn.rollback();
+			} catch (SQLException e2) {
+				e2.printStackTrace();
+			}
+		} finally {
+			try {
+				conn.setAutoCommit(true);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			}
 		}
-
 	}
 
 	/**
@@ -3,12 +3,15 @@ package edu.depauw.csc480.projectv3;
 import java.io.PrintStream;
 import java.util.Scanner;
 
+import edu.depauw.csc480.derby.ReplicaSnapshot;
 import edu.depauw.csc480.projectv3.dao.DatabaseManager;
 import edu.depauw.csc480.projectv3.model.Course;
 import edu.depauw.csc480.projectv3.model.Dept;
 import edu.depauw.csc480.projectv3.model.Enroll;
 import edu.depauw.csc480.projectv3.model.Section;
+import edu.depauw.csc480.projectv3.model.SectionSummary;
 import edu.depauw.csc480.projectv3.model.Student;
+import edu.depauw.csc480.projectv3.model.StudentSummary;
 
 
 /**
@@ -28,6 +31,9 @@ public class Main {
 	public static void main(String[] args) {
 		DatabaseManager dbm = new DatabaseManager();
 
+		// List students and sections from a replica if -Dreplica.refreshSeconds is set
+		dbm.setReportingSnapshot(ReplicaSnapshot.fromSystemProperties(DatabaseManager.DEFAULT_PATH));
+
 		displayMenu();
 		loop: while (true) {
 			switch (requestString("Selection (0 to quit, 9 for menu)? ")) {
@@ -62,6 +68,10 @@ public class Main {
 				changeGrade(dbm);
 				break;
 
+			case "8": // Query statistics
+				showStatistics(dbm);
+				break;
+
 			default:
 				displayMenu();
 				break;
@@ -79,6 +89,7 @@ public class Main {
 		out.println("5: List sections");
 		out.println("6: Add enrollment");
 		out.println("7: Change grade");
+		out.println("8: Show query statistics");
 	}
 
 	private static String requestString(String prompt) {
@@ -154,10 +165,10 @@ public class Main {
 		out.printf("%-3s %-10s %-4s %-8s\n", "Id", "Name", "Year", "Major");
 		out.println("----------------------------");
 
-		for (Student student : dbm.getStudents()) {
-			Dept major = student.getMajor();
+		for (StudentSummary student : dbm.getStudentSummaries()) {
+			String major = student.getMajorName();
 			out.printf("%3d %-10s %-4d %-8s\n", student.getSId(), student.getSName(), student.getGradYear(),
-					(major != null) ? major.getDName() : "unknown");
+					(major != null) ? major : "unknown");
 		}
 
 		dbm.commit();
@@ -183,6 +194,9 @@ public class Main {
 					section.getYearOffered(), section.getProf(), enroll.getGrade());
 		}
 
+		Double gpa = dbm.getStudentGpa(student.getSId());
+		out.println((gpa != null) ? String.format("GPA: %.2f", gpa) : "GPA: none");
+
 		dbm.commit();
 	}
 
@@ -219,10 +233,8 @@ public class Main {
 		out.printf("%-3s %-8s %-20s %-8s %4s\n", "Id", "Dept", "Title", "Prof", "Year");
 		out.println("-----------------------------------------------");
 
-		for (Section section : dbm.getSections()) {
-			Course course = section.getCourse();
-			Dept dept = course.getDept();
-			out.printf("%-3d %-8s %-20s %-8s %4d\n", section.getSectId(), dept.getDName(), course.getTitle(),
+		for (SectionSummary section : dbm.getSectionSummaries()) {
+			out.printf("%-3d %-8s %-20s %-8s %4d\n", section.getSectId(), section.getDeptName(), section.getTitle(),
 					section.getProf(), section.getYearOffered());
 		}
 
@@ -282,8 +294,18 @@ public class Main {
 		int eid = requestInt("Enrollment id number? ");
 		String grade = requestString("New grade? ");
 
-		Enroll enroll = dbm.findEnroll(eid);
-		enroll.setGrade(grade);
-		dbm.commit();
+		// someone else may be changing the same grade, so start over if they win
+		dbm.inTransaction(() -> dbm.findEnroll(eid).setGrade(grade));
+	}
+
+	/**
+	 * Print the number of executions, rows, and latency percentiles (in
+	 * microseconds) of each SQL statement issued so far, followed by the hit
+	 * ratio of each DAO cache.
+	 * 
+	 * @param dbm
+	 */
+	private static void showStatistics(DatabaseManager dbm) {
+		out.print(dbm.getQueryStats().dump());
 	}
 }
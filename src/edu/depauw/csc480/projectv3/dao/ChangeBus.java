@@ -0,0 +1,134 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Carries notice of committed changes between the managers of one database in
+ * this JVM, so that each can drop the cached objects that another has changed.
+ * A manager publishes the keys it changed when it commits; every other manager
+ * has an inbox that collects them, which it drains on its own thread the next
+ * time it is used, so the caches themselves never need to be thread-safe.
+ *
+ * An inbox that is not drained (because its manager is idle) stops collecting
+ * individual changes after a while and just remembers that everything must be
+ * evicted.
+ */
+class ChangeBus {
+	private static final int MAX_PENDING = 10000;
+
+	private static final Map<String, ChangeBus> buses = new ConcurrentHashMap<>();
+
+	private final List<Inbox> inboxes = new CopyOnWriteArrayList<>();
+
+	enum Table {
+		DEPT, STUDENT, COURSE, SECTION, ENROLL
+	}
+
+	/**
+	 * A change to one object. If row is true, the row itself changed and the
+	 * object must be evicted; otherwise only one of its relationship lists (such
+	 * as a student's enrollments) changed, and invalidating it is enough.
+	 */
+	static final class Change {
+		final Table table;
+		final int key;
+		final boolean row;
+
+		Change(Table table, int key, boolean row) {
+			this.table = table;
+			this.key = key;
+			this.row = row;
+		}
+	}
+
+	/**
+	 * The changes published by other managers since this one last looked.
+	 */
+	static final class Inbox {
+		private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+		private final AtomicInteger size = new AtomicInteger();
+		private volatile boolean overflowed;
+
+		private void offer(List<Change> published) {
+			if (overflowed) {
+				return;
+			}
+			if (published == null || size.addAndGet(published.size()) > MAX_PENDING) {
+				overflowed = true;
+				changes.clear();
+			} else {
+				changes.addAll(published);
+			}
+		}
+
+		boolean isEmpty() {
+			return !overflowed && changes.isEmpty();
+		}
+
+		/**
+		 * Take the waiting changes.
+		 *
+		 * @return the changes, or null if everything must be evicted
+		 */
+		List<Change> drain() {
+			if (overflowed) {
+				// anything published meanwhile is covered by evicting everything afterwards
+				overflowed = false;
+				changes.clear();
+				size.set(0);
+				return null;
+			}
+
+			List<Change> result = new ArrayList<>();
+			Change c;
+			while ((c = changes.poll()) != null) {
+				result.add(c);
+			}
+			size.addAndGet(-result.size());
+			return result;
+		}
+	}
+
+	private ChangeBus() {
+	}
+
+	/**
+	 * @param url
+	 * @return the bus for the database at the given URL
+	 */
+	static ChangeBus forUrl(String url) {
+		return buses.computeIfAbsent(url, u -> new ChangeBus());
+	}
+
+	Inbox subscribe() {
+		Inbox inbox = new Inbox();
+		inboxes.add(inbox);
+		return inbox;
+	}
+
+	void unsubscribe(Inbox inbox) {
+		inboxes.remove(inbox);
+	}
+
+	/**
+	 * Deliver committed changes to every inbox but the publisher's own.
+	 *
+	 * @param from
+	 * @param changes the changes, or null if the other managers should evict
+	 *                everything (after the tables are cleared, for example)
+	 */
+	void publish(Inbox from, List<Change> changes) {
+		for (Inbox inbox : inboxes) {
+			if (inbox != from) {
+				inbox.offer(changes);
+			}
+		}
+	}
+}
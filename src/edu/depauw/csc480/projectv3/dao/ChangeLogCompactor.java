@@ -0,0 +1,111 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+
+/**
+ * Compacts the CHANGE_LOG of a database (see ChangeLogDAO.compact) on its own
+ * connection, either on demand or periodically on a background thread.
+ */
+public class ChangeLogCompactor implements AutoCloseable {
+	public static final String COMPACT_PROPERTY = "changelog.compactSeconds";
+
+	private Connection conn;
+	private ScheduledExecutorService scheduler;
+
+	public ChangeLogCompactor(String url) {
+		try {
+			conn = ConnectionFactory.driver(url).connect(url, new Properties());
+			conn.setAutoCommit(false);
+		} catch (SQLException e) {
+			throw new RuntimeException("cannot connect to database", e);
+		}
+	}
+
+	/**
+	 * If the database has a CHANGE_LOG, compact it every
+	 * changelog.compactSeconds (default 60).
+	 *
+	 * @param path of the database, such as db/studentdb
+	 * @return the running compactor, or null if there is no log
+	 */
+	public static ChangeLogCompactor fromSystemProperties(String path) {
+		ChangeLogCompactor compactor = new ChangeLogCompactor(ConnectionFactory.url(path));
+		try {
+			boolean exists = ChangeLogDAO.exists(compactor.conn);
+			compactor.conn.commit();
+			if (!exists) {
+				compactor.close();
+				return null;
+			}
+		} catch (SQLException e) {
+			compactor.close();
+			throw new RuntimeException("cannot check for change log", e);
+		}
+		compactor.schedule(Long.getLong(COMPACT_PROPERTY, 60), TimeUnit.SECONDS);
+		return compactor;
+	}
+
+	/**
+	 * Compact the log now.
+	 *
+	 * @return the number of entries deleted
+	 */
+	public synchronized int compact() {
+		try {
+			int deleted = ChangeLogDAO.compact(conn);
+			conn.commit();
+			return deleted;
+		} catch (SQLException e) {
+			try {
+				conn.rollback();
+			} catch (SQLException e2) {
+				System.out.println("error: cannot rollback change log compaction");
+			}
+			throw new RuntimeException("error compacting change log", e);
+		}
+	}
+
+	/**
+	 * Compact the log every period, until closed. A compaction that fails (for
+	 * example, by timing out on a lock) is reported and tried again next time.
+	 *
+	 * @param period
+	 * @param unit
+	 */
+	public synchronized void schedule(long period, TimeUnit unit) {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "change-log-compactor");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				compact();
+			} catch (RuntimeException e) {
+				System.out.println("change log compaction failed: " + e.getCause());
+			}
+		}, period, period, unit);
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			throw new RuntimeException("cannot close database connection", e);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Schema and maintenance for the CHANGE_LOG table, which records every insert,
+ * update, and delete on the STUDENT and ENROLL tables, by whatever client (the
+ * DAOs, JPA, or plain JDBC), as a row with an increasing sequence number, the
+ * table name, the operation (I, U, or D), and the key of the changed row. The
+ * rows are written by triggers, in the same transaction as the change.
+ *
+ * Consumers read the log through a ChangeLogReader, whose position is kept in
+ * CHANGE_LOG_CONSUMER so that compaction knows which entries every consumer has
+ * seen.
+ */
+public class ChangeLogDAO {
+	public static final String INSERT = "I";
+	public static final String UPDATE = "U";
+	public static final String DELETE = "D";
+
+	private static final String[][] LOGGED = { { "STUDENT", "SId" }, { "ENROLL", "EId" } };
+
+	/**
+	 * Create the ChangeLog and ChangeLogConsumer tables, and the triggers that
+	 * fill the log.
+	 *
+	 * @param conn
+	 * @throws SQLException
+	 */
+	public static void create(Connection conn) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("create table CHANGE_LOG(");
+		sb.append("  Seq bigint generated always as identity,");
+		sb.append("  TableName varchar(10) not null,");
+		sb.append("  Op char(1) not null,");
+		sb.append("  RowKey int not null,");
+		sb.append("  primary key (Seq)");
+		sb.append(")");
+
+		Statement stmt = conn.createStatement();
+		stmt.executeUpdate(sb.toString());
+		stmt.executeUpdate("create index CHANGE_LOG_KEY on CHANGE_LOG(TableName, RowKey)");
+
+		sb = new StringBuilder();
+		sb.append("create table CHANGE_LOG_CONSUMER(");
+		sb.append("  Consumer varchar(32),");
+		sb.append("  Position bigint not null,");
+		sb.append("  primary key (Consumer)");
+		sb.append(")");
+		stmt.executeUpdate(sb.toString());
+
+		for (String[] logged : LOGGED) {
+			createTrigger(stmt, logged[0], logged[1], "insert", INSERT, "new");
+			createTrigger(stmt, logged[0], logged[1], "update", UPDATE, "new");
+			createTrigger(stmt, logged[0], logged[1], "delete", DELETE, "old");
+		}
+	}
+
+	private static void createTrigger(Statement stmt, String table, String key, String event, String op, String row)
+			throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("create trigger ").append(table).append("_LOG_").append(op);
+		sb.append("  after ").append(event).append(" on ").append(table);
+		sb.append("  referencing ").append(row).append(" as r");
+		sb.append("  for each row");
+		sb.append("  insert into CHANGE_LOG(TableName, Op, RowKey)");
+		sb.append("  values ('").append(table).append("', '").append(op).append("', r.").append(key).append(")");
+		stmt.executeUpdate(sb.toString());
+	}
+
+	/**
+	 * @param conn
+	 * @return whether the ChangeLog table exists, since it was added after the
+	 *         other tables
+	 * @throws SQLException
+	 */
+	public static boolean exists(Connection conn) throws SQLException {
+		try (ResultSet rs = conn.getMetaData().getTables(null, null, "CHANGE_LOG", null)) {
+			return rs.next();
+		}
+	}
+
+	/**
+	 * Shrink the log. First, entries that every registered consumer has
+	 * checkpointed past are deleted (all of them, if there are no consumers).
+	 * Then, of the remaining entries for any one row, only the latest is kept,
+	 * since an entry only says that the row has changed and should be read
+	 * again.
+	 *
+	 * @param conn
+	 * @return the number of entries deleted
+	 * @throws SQLException
+	 */
+	public static int compact(Connection conn) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("delete from CHANGE_LOG");
+		sb.append("  where Seq <= coalesce((select min(c.Position) from CHANGE_LOG_CONSUMER c),");
+		sb.append("    (select max(l.Seq) from CHANGE_LOG l))");
+
+		Statement stmt = conn.createStatement();
+		int deleted = stmt.executeUpdate(sb.toString());
+
+		sb = new StringBuilder();
+		sb.append("delete from CHANGE_LOG");
+		sb.append("  where exists (select l.Seq from CHANGE_LOG l");
+		sb.append("    where l.TableName = CHANGE_LOG.TableName and l.RowKey = CHANGE_LOG.RowKey");
+		sb.append("      and l.Seq > CHANGE_LOG.Seq)");
+		deleted += stmt.executeUpdate(sb.toString());
+
+		return deleted;
+	}
+}
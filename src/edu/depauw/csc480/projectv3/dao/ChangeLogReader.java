@@ -0,0 +1,308 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+
+/**
+ * Reads the CHANGE_LOG of a database in batches, on its own connection, for a
+ * named consumer (such as a search index) that wants to process only the rows
+ * that have changed. The consumer's position is stored in the database when it
+ * calls checkpoint, and a reader opened later with the same name resumes from
+ * there, so each change is delivered at least once.
+ *
+ * A consumer that has never been seen before starts at the current end of the
+ * log; it should copy the tables it is interested in after opening the reader,
+ * and then follow the log from there.
+ *
+ * Reads are READ_COMMITTED, so a batch waits for any transaction that has
+ * logged an entry but not yet committed, rather than skipping past it. But a
+ * Seq is handed out before its entry is written, so an entry can still commit
+ * after one with a higher Seq has been read. The reader remembers the Seqs it
+ * has passed over as gaps, and delivers their entries when they appear. A gap
+ * is given up after GAP_TIMEOUT, since the Seqs of rolled back inserts are
+ * never filled; until then, the position saved by checkpoint stays below it.
+ */
+public class ChangeLogReader implements AutoCloseable {
+	// Derby's default derby.locks.waitTimeout, the longest that an insert can be
+	// held up between taking its Seq and writing its entry
+	public static final long GAP_TIMEOUT = TimeUnit.SECONDS.toNanos(60);
+
+	private Connection conn;
+	private String consumer;
+	private long position;
+	private long checkpointed;
+	// Seqs passed over by next, and when they were first missed (from nanoTime)
+	private TreeMap<Long, Long> gaps = new TreeMap<>();
+
+	/**
+	 * One change to one row.
+	 */
+	public static final class Entry {
+		private final long seq;
+		private final String table;
+		private final String op;
+		private final int key;
+
+		Entry(long seq, String table, String op, int key) {
+			this.seq = seq;
+			this.table = table;
+			this.op = op;
+			this.key = key;
+		}
+
+		public long getSeq() {
+			return seq;
+		}
+
+		public String getTable() {
+			return table;
+		}
+
+		/**
+		 * @return ChangeLogDAO.INSERT, UPDATE, or DELETE
+		 */
+		public String getOp() {
+			return op;
+		}
+
+		public int getKey() {
+			return key;
+		}
+
+		@Override
+		public String toString() {
+			return seq + " " + op + " " + table + " " + key;
+		}
+	}
+
+	/**
+	 * Open the change log of the database at the given URL for the named
+	 * consumer.
+	 *
+	 * @param url
+	 * @param consumer
+	 */
+	public ChangeLogReader(String url, String consumer) {
+		this.consumer = consumer;
+		try {
+			conn = ConnectionFactory.driver(url).connect(url, new Properties());
+			conn.setAutoCommit(false);
+
+			PreparedStatement pstmt = conn
+					.prepareStatement("select c.Position from CHANGE_LOG_CONSUMER c where c.Consumer = ?");
+			pstmt.setString(1, consumer);
+			ResultSet rs = pstmt.executeQuery();
+			if (rs.next()) {
+				position = rs.getLong("Position");
+				rs.close();
+			} else {
+				rs.close();
+				rs = conn.createStatement().executeQuery("select max(l.Seq) from CHANGE_LOG l");
+				rs.next();
+				position = rs.getLong(1);
+				rs.close();
+
+				pstmt = conn.prepareStatement("insert into CHANGE_LOG_CONSUMER(Consumer, Position) values (?, ?)");
+				pstmt.setString(1, consumer);
+				pstmt.setLong(2, position);
+				pstmt.executeUpdate();
+			}
+			conn.commit();
+			checkpointed = position;
+		} catch (SQLException e) {
+			throw new RuntimeException("cannot open change log", e);
+		}
+	}
+
+	/**
+	 * Read the entries that have filled gaps, then the next batch of entries
+	 * after the current position, and move the position past them. The new
+	 * position is not saved until checkpoint is called.
+	 *
+	 * @param max the largest number of entries to return
+	 * @return the entries, in sequence order; empty if there are no new changes
+	 */
+	public List<Entry> next(int max) {
+		try {
+			List<Entry> entries = fillGaps(max);
+
+			if (entries.size() < max) {
+				StringBuilder sb = new StringBuilder();
+				sb.append("select l.Seq, l.TableName, l.Op, l.RowKey");
+				sb.append("  from CHANGE_LOG l");
+				sb.append("  where l.Seq > ?");
+				sb.append("  order by l.Seq");
+
+				PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+				pstmt.setLong(1, position);
+				pstmt.setMaxRows(max - entries.size());
+				ResultSet rs = pstmt.executeQuery();
+
+				long now = System.nanoTime();
+				while (rs.next()) {
+					Entry entry = read(rs);
+					for (long seq = position + 1; seq < entry.getSeq(); seq++) {
+						gaps.put(seq, now);
+					}
+					position = entry.getSeq();
+					entries.add(entry);
+				}
+				rs.close();
+			}
+			conn.commit();
+
+			return entries;
+		} catch (SQLException e) {
+			rollback();
+			throw new RuntimeException("error reading change log", e);
+		}
+	}
+
+	/**
+	 * Give up the gaps older than GAP_TIMEOUT, and read the entries that have
+	 * appeared in the others.
+	 *
+	 * @param max
+	 * @return the entries that filled gaps, in sequence order
+	 * @throws SQLException
+	 */
+	private List<Entry> fillGaps(int max) throws SQLException {
+		List<Entry> entries = new ArrayList<>();
+		long now = System.nanoTime();
+		gaps.values().removeIf(missed -> now - missed > GAP_TIMEOUT);
+		if (gaps.isEmpty()) {
+			return entries;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("select l.Seq, l.TableName, l.Op, l.RowKey");
+		sb.append("  from CHANGE_LOG l");
+		sb.append("  where l.Seq between ? and ?");
+		sb.append("  order by l.Seq");
+
+		PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+		pstmt.setLong(1, gaps.firstKey());
+		pstmt.setLong(2, gaps.lastKey());
+		ResultSet rs = pstmt.executeQuery();
+		while (rs.next() && entries.size() < max) {
+			long seq = rs.getLong("Seq");
+			if (gaps.remove(seq) != null) {
+				entries.add(read(rs));
+			}
+		}
+		rs.close();
+		return entries;
+	}
+
+	private static Entry read(ResultSet rs) throws SQLException {
+		return new Entry(rs.getLong("Seq"), rs.getString("TableName"), rs.getString("Op"), rs.getInt("RowKey"));
+	}
+
+	/**
+	 * Save the current position, or just below the first gap if there is one,
+	 * so that the entries read so far are not delivered again (except those
+	 * after the gap, if the reader is reopened) and may be compacted away.
+	 */
+	public void checkpoint() {
+		long saved = gaps.isEmpty() ? position : gaps.firstKey() - 1;
+		if (saved == checkpointed) {
+			return;
+		}
+		try {
+			PreparedStatement pstmt = conn
+					.prepareStatement("update CHANGE_LOG_CONSUMER set Position = ? where Consumer = ?");
+			pstmt.setLong(1, saved);
+			pstmt.setString(2, consumer);
+			pstmt.executeUpdate();
+			conn.commit();
+			checkpointed = saved;
+		} catch (SQLException e) {
+			rollback();
+			throw new RuntimeException("error saving change log position", e);
+		}
+	}
+
+	/**
+	 * Go back to the last saved position, to read again the entries that have not
+	 * been checkpointed (after failing to process them, for example).
+	 */
+	public void rewind() {
+		position = checkpointed;
+		gaps.clear();
+	}
+
+	/**
+	 * Pass every new entry to the handler, in batches, checkpointing after each
+	 * batch. If the handler throws an exception, the position is rewound to the
+	 * start of the failed batch and the exception is rethrown.
+	 *
+	 * @param batchSize
+	 * @param handler
+	 * @return the number of entries handled
+	 */
+	public int drain(int batchSize, Consumer<List<Entry>> handler) {
+		int count = 0;
+		List<Entry> batch;
+		while (!(batch = next(batchSize)).isEmpty()) {
+			try {
+				handler.accept(batch);
+			} catch (RuntimeException e) {
+				rewind();
+				throw e;
+			}
+			checkpoint();
+			count += batch.size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the sequence number of the last entry read
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * Forget this consumer, so that it no longer holds back compaction.
+	 */
+	public void unregister() {
+		try {
+			PreparedStatement pstmt = conn.prepareStatement("delete from CHANGE_LOG_CONSUMER where Consumer = ?");
+			pstmt.setString(1, consumer);
+			pstmt.executeUpdate();
+			conn.commit();
+		} catch (SQLException e) {
+			rollback();
+			throw new RuntimeException("error unregistering change log consumer", e);
+		}
+	}
+
+	private void rollback() {
+		try {
+			conn.rollback();
+		} catch (SQLException e) {
+			System.out.println("error: cannot rollback change log connection");
+		}
+	}
+
+	@Override
+	public void close() {
+		try {
+			conn.rollback();
+			conn.close();
+		} catch (SQLException e) {
+			throw new RuntimeException("cannot close change log connection", e);
+		}
+	}
+}
@@ -24,11 +24,17 @@ public class CourseDAO {
 	private Connection conn;
 	private DatabaseManager dbm;
 	private Map<Integer, Course> cache;
+	private QueryStats.CacheStats cacheStats;
+	private QueryStats.CacheStats storeStats;
+	private Map<String, Integer> titleIndex;
 
 	public CourseDAO(Connection conn, DatabaseManager dbm) {
 		this.conn = conn;
 		this.dbm = dbm;
 		this.cache = new HashMap<>();
+		this.cacheStats = dbm.getQueryStats().cache("Course");
+		this.storeStats = dbm.getQueryStats().cache("Reference");
+		this.titleIndex = new HashMap<>();
 	}
 
 	/**
@@ -53,15 +59,31 @@ public class CourseDAO {
 
 	/**
 	 * Retrieve a Course object given its key. Checks the cache to see if the
-	 * desired object already exists in memory.
+	 * desired object already exists in memory, and then the reference store (if
+	 * any).
 	 * 
 	 * @param cId
 	 * @return the Course object, or null if not found
 	 */
 	public Course find(int cId) {
 		if (cache.containsKey(cId)) {
+			cacheStats.hit();
 			return cache.get(cId);
 		}
+		cacheStats.miss();
+
+		ReferenceStore store = dbm.getReferenceStore();
+		if (store != null) {
+			int record = store.findCourse(cId);
+			if (record >= 0) {
+				storeStats.hit();
+				Dept dept = dbm.findDept(store.courseDept(record));
+				Course course = new Course(this, cId, store.courseTitle(record), dept);
+				addToCache(course);
+				return course;
+			}
+			storeStats.miss();
+		}
 
 		try {
 			StringBuilder sb = new StringBuilder();
@@ -83,7 +105,7 @@ public class CourseDAO {
 
 			Dept dept = dbm.findDept(deptId);
 			Course course = new Course(this, cId, title, dept);
-			cache.put(cId, course);
+			addToCache(course);
 
 			return course;
 		} catch (SQLException e) {
@@ -94,13 +116,31 @@ public class CourseDAO {
 
 	/**
 	 * Retrieve a Course object given its title. If there is more than one with the
-	 * same title, this will return the first one found. Checks the cache to see if
-	 * the desired object already exists in memory.
+	 * same title, this will return the first one found. Checks the title index to
+	 * see if the desired object already exists in memory, and then the reference
+	 * store (if any), in which case no SQL is issued.
 	 * 
 	 * @param title
 	 * @return the Course object, or null if not found
 	 */
 	public Course findByTitle(String title) {
+		Integer key = titleIndex.get(title);
+		if (key != null) {
+			cacheStats.hit();
+			return cache.get(key);
+		}
+		cacheStats.miss();
+
+		ReferenceStore store = dbm.getReferenceStore();
+		if (store != null) {
+			int record = store.findCourseByTitle(title);
+			if (record >= 0) {
+				storeStats.hit();
+				return find(store.courseId(record));
+			}
+			storeStats.miss();
+		}
+
 		try {
 			StringBuilder sb = new StringBuilder();
 			sb.append("select c.CId, c.DeptId");
@@ -125,7 +165,7 @@ public class CourseDAO {
 
 			Dept dept = dbm.findDept(deptId);
 			Course course = new Course(this, cId, title, dept);
-			cache.put(cId, course);
+			addToCache(course);
 
 			return course;
 		} catch (SQLException e) {
@@ -160,10 +200,11 @@ public class CourseDAO {
 			pstmt.executeUpdate();
 
 			Course course = new Course(this, cId, title, dept);
-			cache.put(cId, course);
+			addToCache(course);
 			
 			// Tell the Dept it will need to recalculate its courses list
 			dept.invalidate();
+			dbm.listChanged(ChangeBus.Table.DEPT, dept.getDId());
 
 			return course;
 		} catch (SQLException e) {
@@ -205,6 +246,66 @@ public class CourseDAO {
 		}
 	}
 
+	/**
+	 * Load every Course into the cache, so that later lookups by key or title
+	 * need no SQL. Departments should be preloaded first.
+	 */
+	void preload() {
+		try {
+			StringBuilder sb = new StringBuilder();
+			sb.append("select c.CId, c.Title, c.DeptId");
+			sb.append("  from COURSE c");
+
+			PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+			ResultSet rs = pstmt.executeQuery();
+
+			while (rs.next()) {
+				int cId = rs.getInt("CId");
+				if (!cache.containsKey(cId)) {
+					Dept dept = dbm.findDept(rs.getInt("DeptId"));
+					addToCache(new Course(this, cId, rs.getString("Title"), dept));
+				}
+			}
+			rs.close();
+		} catch (SQLException e) {
+			dbm.cleanup();
+			throw new RuntimeException("error loading courses", e);
+		}
+	}
+
+	/**
+	 * Record a newly-loaded Course in the cache, and in the title index unless
+	 * another course with the same title is already there.
+	 * 
+	 * @param course
+	 */
+	private void addToCache(Course course) {
+		cache.put(course.getCId(), course);
+		titleIndex.putIfAbsent(course.getTitle(), course.getCId());
+	}
+
+	/**
+	 * Another manager has committed a change to the sections of this course, so
+	 * the cached copy (if any) must recalculate them when next asked.
+	 * 
+	 * @param cId
+	 * @param row
+	 */
+	void changed(int cId, boolean row) {
+		Course course = cache.get(cId);
+		if (course != null) {
+			course.invalidate();
+		}
+	}
+
+	/**
+	 * Forget all cached courses, without changing the database.
+	 */
+	void evictAll() {
+		cache.clear();
+		titleIndex.clear();
+	}
+
 	/**
 	 * Clear all data from the Course table.
 	 * 
@@ -215,5 +316,6 @@ public class CourseDAO {
 		String s = "delete from COURSE";
 		stmt.executeUpdate(s);
 		cache.clear();
+		titleIndex.clear();
 	}
 }
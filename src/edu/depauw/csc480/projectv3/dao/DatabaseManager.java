@@ -1,18 +1,40 @@
 package edu.depauw.csc480.projectv3.dao;
 
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.Driver;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
-import org.apache.derby.jdbc.EmbeddedDriver;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
+import edu.depauw.csc480.analytics.Grades;
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.derby.ReplicaSnapshot;
+import edu.depauw.csc480.derby.SlowQueryLog;
 import edu.depauw.csc480.projectv3.model.Course;
 import edu.depauw.csc480.projectv3.model.Dept;
 import edu.depauw.csc480.projectv3.model.Enroll;
 import edu.depauw.csc480.projectv3.model.Section;
+import edu.depauw.csc480.projectv3.model.SectionSummary;
 import edu.depauw.csc480.projectv3.model.Student;
+import edu.depauw.csc480.projectv3.model.StudentSummary;
 
 /**
  * This class mediates access to the student database, hiding the lower-level
@@ -28,11 +50,59 @@ public class DatabaseManager {
 	private CourseDAO courseDAO;
 	private SectionDAO sectionDAO;
 	private EnrollDAO enrollDAO;
+	private GradeSummaryDAO gradeSummaryDAO;
+	private QueryStats stats;
+	private ObjectName statsName;
+	private ReplicaSnapshot snapshot;
+	private DatabaseManager replica;
+	private long replicaGeneration;
+	private ParallelScan scan;
+	private Isolation listingIsolation = Isolation.READ_UNCOMMITTED;
+	private boolean inTransaction;
+	private ChangeBus bus;
+	private ChangeBus.Inbox inbox;
+	private List<ChangeBus.Change> pending = new ArrayList<>();
+	private boolean pendingAll;
+	// whether this transaction has written anything, and so holds locks that a
+	// parallel listing's connections would wait for
+	private boolean written;
+	private Path referenceFile;
+	private ReferenceStore referenceStore;
 
-	private final String url = "jdbc:derby:db/studentdb";
+	private String url;
+
+	public static final String DEFAULT_PATH = "db/studentdb";
+	public static final String PARALLELISM_PROPERTY = "listing.parallelism";
+	public static final String REFERENCE_STORE_PROPERTY = "reference.store";
+	public static final int DEFAULT_ATTEMPTS = 5;
+
+	private static final long MIN_BACKOFF_MILLIS = 5;
+	private static final long MAX_BACKOFF_MILLIS = 500;
+
+	private static final AtomicInteger instances = new AtomicInteger();
 
 	public DatabaseManager() {
-		driver = new EmbeddedDriver();
+		this(ConnectionFactory.url(DEFAULT_PATH), null);
+	}
+
+	public DatabaseManager(PerformanceProfile profile) {
+		this(ConnectionFactory.url(DEFAULT_PATH), profile);
+	}
+
+	/**
+	 * Open (or create) the database at the given URL, which may be either an
+	 * embedded or a network client URL. If a performance profile is given, its
+	 * settings are applied before the database boots (only the database-wide
+	 * settings have any effect through the network client).
+	 * 
+	 * @param url
+	 * @param profile the profile to apply, or null to leave the settings alone
+	 */
+	public DatabaseManager(String url, PerformanceProfile profile) {
+		this.url = url;
+		Map<String, String> previous = (profile == null) ? null : profile.applySystemProperties();
+
+		driver = ConnectionFactory.driver(url);
 
 		Properties prop = new Properties();
 		prop.put("create", "false");
@@ -51,13 +121,131 @@ public class DatabaseManager {
 			} catch (SQLException e2) {
 				throw new RuntimeException("cannot connect to database", e2);
 			}
+		} finally {
+			// the database has booted (or failed to), so the settings have done
+			// their work and should not leak into databases opened later
+			if (previous != null) {
+				PerformanceProfile.restoreSystemProperties(previous);
+			}
+		}
+
+		if (profile != null) {
+			try {
+				profile.applyDatabaseProperties(conn);
+			} catch (SQLException e) {
+				throw new RuntimeException("cannot apply performance profile", e);
+			}
+		}
+
+		stats = new QueryStats();
+		conn = stats.wrap(conn);
+		registerStats();
+		setSlowQueryLog(SlowQueryLog.fromSystemProperties());
+		setListingParallelism(Integer.getInteger(PARALLELISM_PROPERTY, 1));
+		createDAOs();
+
+		// databases created before these were added need them built
+		try {
+			boolean upgraded = false;
+			if (!GradeSummaryDAO.exists(conn)) {
+				GradeSummaryDAO.create(conn);
+				conn.commit();
+				upgraded = true;
+			}
+			if (!GradeSummaryDAO.hasTriggers(conn)) {
+				GradeSummaryDAO.addTriggers(conn);
+				GradeSummaryDAO.rebuild(conn);
+				conn.commit();
+				upgraded = true;
+			}
+			if (!SectionDAO.hasCapacity(conn)) {
+				SectionDAO.addCapacity(conn);
+				conn.commit();
+				upgraded = true;
+			}
+			if (!SectionDAO.hasSeatTriggers(conn)) {
+				SectionDAO.addSeatTriggers(conn);
+				conn.commit();
+				upgraded = true;
+			}
+			for (String table : new String[] { "STUDENT", "ENROLL" }) {
+				if (!hasVersion(conn, table)) {
+					addVersion(conn, table);
+					conn.commit();
+					upgraded = true;
+				}
+			}
+			if (!ChangeLogDAO.exists(conn)) {
+				ChangeLogDAO.create(conn);
+				conn.commit();
+				upgraded = true;
+			}
+			if (upgraded) {
+				compileTriggers(conn);
+				conn.commit();
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException("cannot upgrade database", e);
+		}
+
+		String reference = System.getProperty(REFERENCE_STORE_PROPERTY);
+		if (reference != null) {
+			useReferenceStore(Paths.get(reference));
 		}
+	}
+
+	/**
+	 * Open a read-only manager for a reporting replica. The replica is a copy of
+	 * a database that is already created and upgraded, so none of that is done
+	 * here, and nothing is configured from the system properties. Statements are
+	 * recorded in the stats (and slow-query log) of the manager using the
+	 * replica.
+	 * 
+	 * @param stats
+	 * @param url
+	 * @throws SQLException
+	 */
+	private DatabaseManager(QueryStats stats, String url) throws SQLException {
+		this.url = url;
+		this.stats = stats;
+		driver = ConnectionFactory.driver(url);
+		conn = driver.connect(url, new Properties());
+		conn.setAutoCommit(false);
+		conn.setReadOnly(true);
+		conn = stats.wrap(conn);
+		createDAOs();
 
+		// seat counts cached for an earlier copy are out of date
+		sectionDAO.clearSeats();
+	}
+
+	private void createDAOs() {
 		deptDAO = new DeptDAO(conn, this);
 		studentDAO = new StudentDAO(conn, this);
 		courseDAO = new CourseDAO(conn, this);
-		sectionDAO = new SectionDAO(conn, this);
+		sectionDAO = new SectionDAO(conn, this, SeatCache.forUrl(url));
 		enrollDAO = new EnrollDAO(conn, this);
+		gradeSummaryDAO = new GradeSummaryDAO(conn, this);
+		bus = ChangeBus.forUrl(url);
+		inbox = bus.subscribe();
+	}
+
+	/**
+	 * @param conn
+	 * @param table
+	 * @return whether the table has the Version column used for optimistic
+	 *         locking, which was added after it was first defined
+	 * @throws SQLException
+	 */
+	private static boolean hasVersion(Connection conn, String table) throws SQLException {
+		try (ResultSet rs = conn.getMetaData().getColumns(null, null, table, "VERSION")) {
+			return rs.next();
+		}
+	}
+
+	private static void addVersion(Connection conn, String table) throws SQLException {
+		Statement stmt = conn.createStatement();
+		stmt.executeUpdate("alter table " + table + " add column Version int not null default 0");
 	}
 
 	/**
@@ -72,81 +260,479 @@ public class DatabaseManager {
 		CourseDAO.create(conn);
 		SectionDAO.create(conn);
 		EnrollDAO.create(conn);
+		SectionDAO.addSeatTriggers(conn);
+		GradeSummaryDAO.create(conn);
+		GradeSummaryDAO.addTriggers(conn);
+		ChangeLogDAO.create(conn);
+		conn.commit();
+		compileTriggers(conn);
 		conn.commit();
 	}
 
+	/**
+	 * Fire every trigger once on a throwaway row, and then roll the rows back.
+	 * Creating a trigger or altering a table leaves the triggers on it needing to
+	 * be recompiled, and Derby recompiles a trigger where it first fires. If
+	 * several transactions do that at once, they can deadlock in the data
+	 * dictionary, which Derby only notices after derby.locks.deadlockTimeout
+	 * (20 seconds by default). Recompiling here, before anyone else uses the new
+	 * schema, avoids that. The schema changes must already be committed: then
+	 * Derby saves the recompiled triggers in a transaction of its own, so they are
+	 * kept even though the rows that fired them are not.
+	 * 
+	 * @param conn
+	 * @throws SQLException
+	 */
+	private static void compileTriggers(Connection conn) throws SQLException {
+		int k = Integer.MIN_VALUE;
+		Savepoint savepoint = conn.setSavepoint();
+		Statement stmt = conn.createStatement();
+		stmt.executeUpdate("insert into DEPT(DId, DName) values (" + k + ", 'x')");
+		stmt.executeUpdate("insert into STUDENT(SId, SName, MajorId, GradYear) values (" + k + ", 'x', null, 0)");
+		stmt.executeUpdate("update STUDENT set SName = 'y' where SId = " + k);
+		stmt.executeUpdate("insert into COURSE(CId, Title, DeptId) values (" + k + ", 'x', " + k + ")");
+		for (int sectId = k; sectId <= k + 1; sectId++) {
+			stmt.executeUpdate(
+					"insert into SECTION(SectId, CourseId, Prof, YearOffered) values (" + sectId + ", " + k + ", 'x', 0)");
+		}
+		stmt.executeUpdate("insert into ENROLL(EId, StudentId, SectionId, Grade) values (" + k + ", " + k + ", " + k
+				+ ", '" + Grades.letter(1) + "')");
+		stmt.executeUpdate(
+				"update ENROLL set SectionId = " + (k + 1) + ", Grade = '" + Grades.letter(2) + "' where EId = " + k);
+		stmt.executeUpdate("delete from ENROLL where EId = " + k);
+		stmt.executeUpdate("delete from STUDENT where SId = " + k);
+		stmt.executeUpdate("delete from SECTION where CourseId = " + k);
+		conn.rollback(savepoint);
+	}
+
 	// ***************************************************************
 	// Data retrieval functions -- find a model object given its key
 
 	public Dept findDept(int dId) {
+		sync();
 		return deptDAO.find(dId);
 	}
 
 	public Student findStudent(int sId) {
+		sync();
 		return studentDAO.find(sId);
 	}
 
 	public Course findCourse(int cId) {
+		sync();
 		return courseDAO.find(cId);
 	}
 
 	public Section findSection(int sectId) {
+		sync();
 		return sectionDAO.find(sectId);
 	}
 
 	public Enroll findEnroll(int eId) {
+		sync();
 		return enrollDAO.find(eId);
 	}
 
 	public Dept findDeptByName(String dName) {
+		sync();
 		return deptDAO.findByName(dName);
 	}
 
 	public Student findStudentByName(String sName) {
+		sync();
 		return studentDAO.findByName(sName);
 	}
 
 	public Course findCourseByTitle(String title) {
+		sync();
 		return courseDAO.findByTitle(title);
 	}
 
 	// ***************************************************************
 	// Data retrieval functions -- get collections of objects
+	// (these are reporting reads, served from the replica if there is one)
 	
 	public Collection<Student> getStudents() {
-		return studentDAO.getAll();
+		sync();
+		return report(dbm -> (dbm.scan == null || dbm.written) ? dbm.studentDAO.getAll()
+				: dbm.studentDAO.getAll(dbm.scan));
 	}
 	
 	public Collection<Section> getSections() {
-		return sectionDAO.getAll();
+		sync();
+		return report(dbm -> (dbm.scan == null || dbm.written) ? dbm.sectionDAO.getAll()
+				: dbm.sectionDAO.getAll(dbm.scan));
+	}
+
+	public Collection<StudentSummary> getStudentSummaries() {
+		return report(dbm -> dbm.studentDAO.getSummaries(listingIsolation));
+	}
+
+	public Collection<SectionSummary> getSectionSummaries() {
+		return report(dbm -> dbm.sectionDAO.getSummaries(listingIsolation));
+	}
+
+	/**
+	 * @param sId
+	 * @return the student's grade point average, or null if they have no grades
+	 */
+	public Double getStudentGpa(int sId) {
+		return gradeSummaryDAO.getGpa(GradeSummaryDAO.STUDENT, sId);
+	}
+
+	/**
+	 * @param sectId
+	 * @return the average grade points given in the section, or null if it has no
+	 *         grades
+	 */
+	public Double getSectionGpa(int sectId) {
+		return gradeSummaryDAO.getGpa(GradeSummaryDAO.SECTION, sectId);
+	}
+
+	/**
+	 * @param sectId
+	 * @return { grade points times ten, number of graded enrollments } in the
+	 *         section
+	 */
+	int[] getSectionGradeTotals(int sectId) {
+		return gradeSummaryDAO.getTotals(GradeSummaryDAO.SECTION, sectId);
 	}
 
 	// ***************************************************************
 	// Data insertion functions -- create new model object from attributes
 
 	public Dept insertDept(int dId, String dName) {
+		sync();
+		written = true;
 		return deptDAO.insert(dId, dName);
 	}
 
 	public Student insertStudent(int sId, String sName, Dept major, int gradYear) {
+		sync();
+		written = true;
 		return studentDAO.insert(sId, sName, major, gradYear);
 	}
 
 	public Course insertCourse(int cId, String title, Dept dept) {
+		sync();
+		written = true;
 		return courseDAO.insert(cId, title, dept);
 	}
 
 	public Section insertSection(int sectId, Course course, String prof, int yearOffered) {
-		return sectionDAO.insert(sectId, course, prof, yearOffered);
+		sync();
+		written = true;
+		return sectionDAO.insert(sectId, course, prof, yearOffered, SectionDAO.DEFAULT_CAPACITY);
+	}
+
+	public Section insertSection(int sectId, Course course, String prof, int yearOffered, int capacity) {
+		sync();
+		written = true;
+		return sectionDAO.insert(sectId, course, prof, yearOffered, capacity);
 	}
 
 	public Enroll insertEnroll(int eId, Student student, Section section, String grade) {
+		sync();
+		written = true;
 		return enrollDAO.insert(eId, student, section, grade);
 	}
 
+	// ***************************************************************
+	// Reporting replica
+
+	/**
+	 * Route reporting reads to a read-only replica of this database, kept up to
+	 * date by the given snapshot, or back to this database if it is null. The
+	 * objects returned by reporting reads belong to the replica, so they should
+	 * not be modified. The caller owns the snapshot and stops it; this manager
+	 * only closes its own connection to the replica, when the snapshot is
+	 * replaced or this manager is closed or cleaned up.
+	 * 
+	 * @param snapshot
+	 */
+	public void setReportingSnapshot(ReplicaSnapshot snapshot) {
+		closeReplica();
+		this.snapshot = snapshot;
+	}
+
+	/**
+	 * Run a read-only query against the replica, if one is available, while
+	 * holding its read lock; otherwise run it here.
+	 * 
+	 * @param query
+	 * @return the result of the query
+	 */
+	private <T> T report(Function<DatabaseManager, T> query) {
+		if (snapshot == null || snapshot.getGeneration() == 0) {
+			return query.apply(this);
+		}
+
+		Lock lock = snapshot.readLock();
+		lock.lock();
+		try {
+			DatabaseManager dbm = getReplica();
+			T result = query.apply(dbm);
+			dbm.commit();
+			return result;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Connect to the current generation of the replica. Connections to an older
+	 * generation were already broken when the replica was restored, so they are
+	 * just discarded.
+	 * 
+	 * @return a manager for the replica
+	 */
+	private DatabaseManager getReplica() {
+		long generation = snapshot.getGeneration();
+		if (replica == null || replicaGeneration != generation) {
+			closeReplica();
+			try {
+				replica = new DatabaseManager(stats, snapshot.getUrl());
+			} catch (SQLException e) {
+				throw new RuntimeException("cannot open replica", e);
+			}
+			replica.setListingParallelism((scan == null) ? 1 : scan.getPartitions());
+			replicaGeneration = generation;
+		}
+		return replica;
+	}
+
+	/**
+	 * Discard the connection to the replica, if any. The replica database itself
+	 * belongs to the snapshot, so it is not shut down.
+	 */
+	private void closeReplica() {
+		if (replica == null) {
+			return;
+		}
+		replica.setListingParallelism(1);
+		replica.bus.unsubscribe(replica.inbox);
+		try {
+			replica.conn.rollback();
+			replica.conn.close();
+		} catch (SQLException e) {
+			// already closed by a restore
+		}
+		replica = null;
+	}
+
 	// ***************************************************************
 	// Utility functions
 
+	/**
+	 * @return the statement and cache statistics for this manager
+	 */
+	public QueryStats getQueryStats() {
+		return stats;
+	}
+
+	/**
+	 * Log statements that exceed the threshold of the given log, or stop logging
+	 * if it is null. By default, the log is configured from the slowquery.*
+	 * system properties.
+	 * 
+	 * @param log
+	 */
+	public void setSlowQueryLog(SlowQueryLog log) {
+		if (log != null && log.explains()) {
+			try {
+				SlowQueryLog.enableRuntimeStatistics(conn);
+			} catch (SQLException e) {
+				throw new RuntimeException("cannot enable runtime statistics", e);
+			}
+		}
+		stats.setSlowQueryLog(log);
+	}
+
+	/**
+	 * Read the tables for getStudents and getSections in the given number of
+	 * parallel partitions, each on its own connection, or on the main connection
+	 * alone if it is 1. The default comes from the listing.parallelism system
+	 * property. The partitions are read in transactions of their own, which would
+	 * wait for any locks this one holds, so once this transaction has written
+	 * anything its listings are read on the main connection until it commits or
+	 * rolls back.
+	 * 
+	 * @param partitions
+	 */
+	public void setListingParallelism(int partitions) {
+		if (scan != null) {
+			scan.close();
+			scan = null;
+		}
+		if (partitions > 1) {
+			scan = new ParallelScan(this, partitions);
+		}
+	}
+
+	/**
+	 * Look up departments and courses in a memory-mapped reference store kept in
+	 * the given file (building or rebuilding it from the database if necessary),
+	 * before falling back to SQL; or stop using one, if file is null. The default
+	 * comes from the reference.store system property. Several processes may share
+	 * the same file.
+	 * 
+	 * @param file
+	 */
+	public void useReferenceStore(Path file) {
+		referenceFile = file;
+		referenceStore = null;
+		if (file != null) {
+			try {
+				referenceStore = ReferenceStore.open(conn, file);
+			} catch (SQLException | IOException e) {
+				throw new RuntimeException("cannot open reference store", e);
+			}
+		}
+	}
+
+	ReferenceStore getReferenceStore() {
+		return referenceStore;
+	}
+
+	/**
+	 * Set the isolation used for the student and section summaries. The default
+	 * is READ_UNCOMMITTED, so that a listing neither waits for nor holds up the
+	 * transactions that are changing the tables it reads.
+	 * 
+	 * @param isolation
+	 */
+	public void setListingIsolation(Isolation isolation) {
+		this.listingIsolation = isolation;
+	}
+
+	/**
+	 * Set the number of row locks that one transaction may hold on a table before
+	 * Derby tries to replace them with a single table lock (the
+	 * derby.locks.escalationThreshold property, default 5000, minimum 100). Raising
+	 * it keeps long scans from locking writers out of the whole table, at the cost
+	 * of a larger lock table. The setting is stored in the database and takes
+	 * effect immediately for every connection.
+	 * 
+	 * @param threshold
+	 */
+	public void setLockEscalationThreshold(int threshold) {
+		if (threshold < 100) {
+			throw new IllegalArgumentException("escalation threshold must be at least 100");
+		}
+		try {
+			PerformanceProfile.setDatabaseProperty(conn, "derby.locks.escalationThreshold", threshold);
+			conn.commit();
+		} catch (SQLException e) {
+			cleanup();
+			throw new RuntimeException("cannot set lock escalation threshold", e);
+		}
+	}
+
+	/**
+	 * Lock a section for a new enrollment, if it has a seat left.
+	 * 
+	 * @param sectId
+	 * @return whether there was a seat left
+	 * @throws SQLException
+	 */
+	boolean lockSeat(int sectId) throws SQLException {
+		written = true;
+		return sectionDAO.lockSeat(sectId);
+	}
+
+	/**
+	 * Count the seat taken by a new enrollment.
+	 * 
+	 * @param sectId
+	 */
+	void seatTaken(int sectId) {
+		sectionDAO.seatTaken(sectId);
+	}
+
+	/**
+	 * Take a seat in a section for an enrollment kept in another database.
+	 * 
+	 * @param sectId
+	 * @return whether there was a seat left
+	 * @throws SQLException
+	 */
+	boolean reserveSeat(int sectId) throws SQLException {
+		written = true;
+		return sectionDAO.reserveSeat(sectId);
+	}
+
+	/**
+	 * Give back a seat taken by reserveSeat.
+	 * 
+	 * @param sectId
+	 * @throws SQLException
+	 */
+	void releaseSeat(int sectId) throws SQLException {
+		written = true;
+		sectionDAO.releaseSeat(sectId);
+	}
+
+	/**
+	 * Recompute the grade summaries from the enrollments. The triggers keep them
+	 * up to date, so this is only needed to repair them.
+	 */
+	public void rebuildGradeSummaries() {
+		try {
+			GradeSummaryDAO.rebuild(conn);
+			conn.commit();
+		} catch (SQLException e) {
+			cleanup();
+			throw new RuntimeException("cannot rebuild grade summaries", e);
+		}
+	}
+
+	/**
+	 * Make sure that every Dept and Course is in the cache, so that listings can
+	 * resolve their references without further queries.
+	 */
+	void preloadReferenceData() {
+		deptDAO.preload();
+		courseDAO.preload();
+	}
+
+	/**
+	 * Open an additional read-only connection to this database, outside of the
+	 * main transaction, with its statements counted in this manager's statistics.
+	 * 
+	 * @return the connection
+	 * @throws SQLException
+	 */
+	Connection openConnection() throws SQLException {
+		Connection extra = stats.wrap(driver.connect(url, new Properties()));
+		extra.setReadOnly(true);
+		return extra;
+	}
+
+	/**
+	 * Make the statistics visible through JMX. Failure to register is not fatal,
+	 * since the statistics are still available from getQueryStats.
+	 */
+	private void registerStats() {
+		try {
+			statsName = new ObjectName("edu.depauw.csc480:type=QueryStats,name=" + ObjectName.quote(url) + ",id="
+					+ instances.incrementAndGet());
+			ManagementFactory.getPlatformMBeanServer().registerMBean(stats, statsName);
+		} catch (JMException e) {
+			statsName = null;
+		}
+	}
+
+	private void unregisterStats() {
+		if (statsName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(statsName);
+			} catch (JMException e) {
+				// already gone
+			}
+			statsName = null;
+		}
+	}
+
 	/**
 	 * Commit changes since last call to commit
 	 */
@@ -156,12 +742,231 @@ public class DatabaseManager {
 		} catch (SQLException e) {
 			throw new RuntimeException("cannot commit database", e);
 		}
+		sectionDAO.seatsCommitted();
+
+		if (pendingAll) {
+			bus.publish(inbox, null);
+			useReferenceStore(referenceFile);
+		} else if (!pending.isEmpty()) {
+			bus.publish(inbox, pending);
+		}
+		pending = new ArrayList<>();
+		pendingAll = false;
+		written = false;
+		sync();
+	}
+
+	/**
+	 * Note that a row has been changed in this transaction, so that when it
+	 * commits, the other managers of this database will evict their copies.
+	 * 
+	 * @param table
+	 * @param key
+	 */
+	void rowChanged(ChangeBus.Table table, int key) {
+		written = true;
+		pending.add(new ChangeBus.Change(table, key, true));
 	}
 
 	/**
-	 * Abort changes since last call to commit, then close connection
+	 * Note that an object's relationship lists have been changed in this
+	 * transaction, so that when it commits, the other managers of this database
+	 * will invalidate their copies.
+	 * 
+	 * @param table
+	 * @param key
+	 */
+	void listChanged(ChangeBus.Table table, int key) {
+		written = true;
+		pending.add(new ChangeBus.Change(table, key, false));
+	}
+
+	/**
+	 * Apply the changes that other managers of this database have committed since
+	 * the last call, so that nothing they changed is served from the caches.
+	 */
+	private void sync() {
+		if (inbox.isEmpty()) {
+			return;
+		}
+
+		List<ChangeBus.Change> changes = inbox.drain();
+		if (changes == null) {
+			evictAll();
+			useReferenceStore(referenceFile);
+			return;
+		}
+
+		for (ChangeBus.Change change : changes) {
+			switch (change.table) {
+			case DEPT:
+				deptDAO.changed(change.key, change.row);
+				break;
+			case STUDENT:
+				studentDAO.changed(change.key, change.row);
+				if (change.row) {
+					enrollDAO.studentChanged(change.key);
+				}
+				break;
+			case COURSE:
+				courseDAO.changed(change.key, change.row);
+				break;
+			case SECTION:
+				sectionDAO.changed(change.key, change.row);
+				break;
+			case ENROLL:
+				enrollDAO.changed(change.key, change.row);
+				break;
+			}
+		}
+	}
+
+	private void evictAll() {
+		deptDAO.evictAll();
+		studentDAO.evictAll();
+		courseDAO.evictAll();
+		sectionDAO.evictAll();
+		enrollDAO.evictAll();
+	}
+
+	/**
+	 * Abort changes since last call to commit, but keep the connection open.
+	 * Cached objects and seat counts may hold changes that were never committed,
+	 * so they are all forgotten and will be loaded again as needed.
+	 */
+	public void rollback() {
+		boolean cleared = pendingAll;
+		pending.clear();
+		pendingAll = false;
+		written = false;
+		inbox.drain();
+		evictAll();
+		sectionDAO.clearSeats();
+		try {
+			conn.rollback();
+		} catch (SQLException e) {
+			throw new RuntimeException("cannot rollback database", e);
+		}
+
+		if (cleared) {
+			// the tables are back, so the store can be used again
+			useReferenceStore(referenceFile);
+		}
+	}
+
+	/**
+	 * Run some work as one transaction and commit it. If the work loses a race
+	 * with another transaction (a deadlock, a lock timeout, or a
+	 * StaleObjectException), roll back and run it again from the start, after a
+	 * random delay that grows with each attempt, up to DEFAULT_ATTEMPTS times.
+	 * While the work runs, a failing DAO only rolls back instead of closing the
+	 * connection, so the manager stays usable whatever happens. The work should
+	 * find the objects it uses each time it runs, rather than holding on to ones
+	 * found earlier, since the caches are emptied by every rollback. A call made
+	 * while already inside the work simply joins the outer transaction.
+	 * 
+	 * @param work
+	 * @return the result of the successful attempt
+	 */
+	public <T> T inTransaction(Supplier<T> work) {
+		return inTransaction(DEFAULT_ATTEMPTS, work);
+	}
+
+	public void inTransaction(Runnable work) {
+		inTransaction(DEFAULT_ATTEMPTS, work);
+	}
+
+	public void inTransaction(int attempts, Runnable work) {
+		inTransaction(attempts, () -> {
+			work.run();
+			return null;
+		});
+	}
+
+	/**
+	 * As inTransaction(work), but with the given limit on the number of attempts.
+	 * 
+	 * @param attempts
+	 * @param work
+	 * @return the result of the successful attempt
+	 */
+	public <T> T inTransaction(int attempts, Supplier<T> work) {
+		if (inTransaction) {
+			return work.get();
+		}
+
+		inTransaction = true;
+		stats.transactionStarted();
+		try {
+			for (int attempt = 1;; attempt++) {
+				try {
+					T result = work.get();
+					commit();
+					return result;
+				} catch (RuntimeException e) {
+					rollback();
+					if (attempt >= attempts || !isRetryable(e)) {
+						stats.transactionAbandoned();
+						throw e;
+					}
+					stats.transactionRetried();
+					backoff(attempt);
+				}
+			}
+		} finally {
+			inTransaction = false;
+		}
+	}
+
+	/**
+	 * @param e
+	 * @return whether e (or one of its causes) is a conflict with another
+	 *         transaction that may well not happen again
+	 */
+	private static boolean isRetryable(Throwable e) {
+		for (; e != null; e = e.getCause()) {
+			if (e instanceof StaleObjectException) {
+				return true;
+			}
+			if (e instanceof SQLException
+					&& (QueryStats.isDeadlock((SQLException) e) || QueryStats.isLockTimeout((SQLException) e))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Sleep for a random time between 0 and an exponentially growing limit, so
+	 * that transactions which collided do not collide again in lock step.
+	 */
+	private static void backoff(int attempt) {
+		long limit = Math.min(MAX_BACKOFF_MILLIS, MIN_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+		try {
+			Thread.sleep(ThreadLocalRandom.current().nextLong(limit + 1));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while retrying transaction", e);
+		}
+	}
+
+	/**
+	 * Abort changes since last call to commit, then close connection (unless
+	 * running inside inTransaction, which may want to try again)
 	 */
 	public void cleanup() {
+		if (inTransaction) {
+			try {
+				rollback();
+			} catch (RuntimeException e) {
+				System.out.println("error: cannot rollback connection");
+			}
+			return;
+		}
+
+		sectionDAO.clearSeats();
+		bus.unsubscribe(inbox);
+		closeReplica();
 		try {
 			conn.rollback();
 			conn.close();
@@ -171,13 +976,14 @@ public class DatabaseManager {
 	}
 
 	/**
-	 * Close connection and shutdown database
+	 * Close connection and shutdown database (unless it belongs to a network
+	 * server, where other clients may still be using it)
 	 */
 	public void close() {
-		try {
-			conn.close();
-		} catch (SQLException e) {
-			throw new RuntimeException("cannot close database connection", e);
+		release();
+
+		if (url.startsWith("jdbc:derby://")) {
+			return;
 		}
 
 		// Now shutdown the embedded database system -- this is Derby-specific
@@ -191,6 +997,23 @@ public class DatabaseManager {
 		}
 	}
 
+	/**
+	 * Close connection, but leave the database running for the other managers
+	 * that share it
+	 */
+	public void release() {
+		unregisterStats();
+		setListingParallelism(1);
+		bus.unsubscribe(inbox);
+		closeReplica();
+
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			throw new RuntimeException("cannot close database connection", e);
+		}
+	}
+
 	/**
 	 * Clear out all data from database (but leave empty tables). Note that the
 	 * order is the reverse in which the tables were created, because of referential
@@ -198,11 +1021,15 @@ public class DatabaseManager {
 	 */
 	public void clearTables() {
 		try {
+			gradeSummaryDAO.clear();
 			enrollDAO.clear();
 			sectionDAO.clear();
 			courseDAO.clear();
 			studentDAO.clear();
 			deptDAO.clear();
+			pendingAll = true;
+			written = true;
+			referenceStore = null;
 		} catch (SQLException e) {
 			throw new RuntimeException("cannot clear tables", e);
 		}
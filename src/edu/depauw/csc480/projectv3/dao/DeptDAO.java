@@ -24,11 +24,17 @@ public class DeptDAO {
 	private Connection conn;
 	private DatabaseManager dbm;
 	private Map<Integer, Dept> cache;
+	private QueryStats.CacheStats cacheStats;
+	private QueryStats.CacheStats storeStats;
+	private Map<String, Integer> nameIndex;
 
 	public DeptDAO(Connection conn, DatabaseManager dbm) {
 		this.conn = conn;
 		this.dbm = dbm;
 		this.cache = new HashMap<>();
+		this.cacheStats = dbm.getQueryStats().cache("Dept");
+		this.storeStats = dbm.getQueryStats().cache("Reference");
+		this.nameIndex = new HashMap<>();
 	}
 
 	/**
@@ -51,15 +57,29 @@ public class DeptDAO {
 
 	/**
 	 * Retrieve a Dept object given its key. Checks the cache to see if the desired
-	 * object already exists in memory.
+	 * object already exists in memory, and then the reference store (if any).
 	 * 
 	 * @param dId
 	 * @return the Dept object, or null if not found
 	 */
 	public Dept find(int dId) {
 		if (cache.containsKey(dId)) {
+			cacheStats.hit();
 			return cache.get(dId);
 		}
+		cacheStats.miss();
+
+		ReferenceStore store = dbm.getReferenceStore();
+		if (store != null) {
+			int record = store.findDept(dId);
+			if (record >= 0) {
+				storeStats.hit();
+				Dept dept = new Dept(this, dId, store.deptName(record));
+				addToCache(dept);
+				return dept;
+			}
+			storeStats.miss();
+		}
 
 		try {
 			StringBuilder sb = new StringBuilder();
@@ -79,7 +99,7 @@ public class DeptDAO {
 			rs.close();
 
 			Dept dept = new Dept(this, dId, dName);
-			cache.put(dId, dept);
+			addToCache(dept);
 
 			return dept;
 		} catch (SQLException e) {
@@ -90,13 +110,31 @@ public class DeptDAO {
 
 	/**
 	 * Retrieve a Dept object given its name. If there is more than one with the
-	 * same name, this will return the first one found. Checks the cache to see if
-	 * the desired object already exists in memory.
+	 * same name, this will return the first one found. Checks the name index to
+	 * see if the desired object already exists in memory, and then the reference
+	 * store (if any), in which case no SQL is issued.
 	 * 
 	 * @param dName
 	 * @return the Dept object, or null if not found
 	 */
 	public Dept findByName(String dName) {
+		Integer key = nameIndex.get(dName);
+		if (key != null) {
+			cacheStats.hit();
+			return cache.get(key);
+		}
+		cacheStats.miss();
+
+		ReferenceStore store = dbm.getReferenceStore();
+		if (store != null) {
+			int record = store.findDeptByName(dName);
+			if (record >= 0) {
+				storeStats.hit();
+				return find(store.deptId(record));
+			}
+			storeStats.miss();
+		}
+
 		try {
 			StringBuilder sb = new StringBuilder();
 			sb.append("select d.DId");
@@ -119,7 +157,7 @@ public class DeptDAO {
 			}
 			
 			Dept dept = new Dept(this, dId, dName);
-			cache.put(dId, dept);
+			addToCache(dept);
 
 			return dept;
 		} catch (SQLException e) {
@@ -152,7 +190,7 @@ public class DeptDAO {
 			pstmt.executeUpdate();
 
 			Dept dept = new Dept(this, dId, dName);
-			cache.put(dId, dept);
+			addToCache(dept);
 
 			return dept;
 		} catch (SQLException e) {
@@ -227,6 +265,65 @@ public class DeptDAO {
 		}
 	}
 
+	/**
+	 * Load every Dept into the cache, so that later lookups by key or name need
+	 * no SQL. The table is small, so this is a single cheap query.
+	 */
+	void preload() {
+		try {
+			StringBuilder sb = new StringBuilder();
+			sb.append("select d.DId, d.DName");
+			sb.append("  from DEPT d");
+
+			PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+			ResultSet rs = pstmt.executeQuery();
+
+			while (rs.next()) {
+				int dId = rs.getInt("DId");
+				if (!cache.containsKey(dId)) {
+					addToCache(new Dept(this, dId, rs.getString("DName")));
+				}
+			}
+			rs.close();
+		} catch (SQLException e) {
+			dbm.cleanup();
+			throw new RuntimeException("error loading departments", e);
+		}
+	}
+
+	/**
+	 * Record a newly-loaded Dept in the cache, and in the name index unless
+	 * another department with the same name is already there.
+	 * 
+	 * @param dept
+	 */
+	private void addToCache(Dept dept) {
+		cache.put(dept.getDId(), dept);
+		nameIndex.putIfAbsent(dept.getDName(), dept.getDId());
+	}
+
+	/**
+	 * Another manager has committed a change to the majors and courses of this dept, so
+	 * the cached copy (if any) must recalculate them when next asked.
+	 * 
+	 * @param dId
+	 * @param row
+	 */
+	void changed(int dId, boolean row) {
+		Dept dept = cache.get(dId);
+		if (dept != null) {
+			dept.invalidate();
+		}
+	}
+
+	/**
+	 * Forget all cached depts, without changing the database.
+	 */
+	void evictAll() {
+		cache.clear();
+		nameIndex.clear();
+	}
+
 	/**
 	 * Clear all data from the Dept table.
 	 * 
@@ -237,5 +334,6 @@ public class DeptDAO {
 		String s = "delete from DEPT";
 		stmt.executeUpdate(s);
 		cache.clear();
+		nameIndex.clear();
 	}
 }
@@ -7,6 +7,7 @@ import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
 
 import edu.depauw.csc480.projectv3.model.Enroll;
@@ -23,11 +24,13 @@ public class EnrollDAO {
 	private Connection conn;
 	private DatabaseManager dbm;
 	private Map<Integer, Enroll> cache;
+	private QueryStats.CacheStats cacheStats;
 
 	public EnrollDAO(Connection conn, DatabaseManager dbm) {
 		this.conn = conn;
 		this.dbm = dbm;
 		this.cache = new HashMap<>();
+		this.cacheStats = dbm.getQueryStats().cache("Enroll");
 	}
 
 	/**
@@ -43,6 +46,7 @@ public class EnrollDAO {
 		sb.append("  StudentId int not null,");
 		sb.append("  SectionId int not null,");
 		sb.append("  Grade varchar(2),");
+		sb.append("  Version int not null default 0,");
 		sb.append("  primary key (EId),");
 		sb.append("  foreign key (StudentId) references STUDENT on delete cascade,");
 		sb.append("  foreign key (SectionId) references SECTION on delete no action");
@@ -61,12 +65,14 @@ public class EnrollDAO {
 	 */
 	public Enroll find(int eId) {
 		if (cache.containsKey(eId)) {
+			cacheStats.hit();
 			return cache.get(eId);
 		}
+		cacheStats.miss();
 
 		try {
 			StringBuilder sb = new StringBuilder();
-			sb.append("select e.StudentId, e.SectionId, e.Grade");
+			sb.append("select e.StudentId, e.SectionId, e.Grade, e.Version");
 			sb.append("  from ENROLL e");
 			sb.append("  where e.EId = ?");
 
@@ -81,11 +87,12 @@ public class EnrollDAO {
 			int studentId = rs.getInt("StudentId");
 			int sectionId = rs.getInt("SectionId");
 			String grade = rs.getString("Grade");
+			int version = rs.getInt("Version");
 			rs.close();
 
 			Student student = dbm.findStudent(studentId);
 			Section section = dbm.findSection(sectionId);
-			Enroll enroll = new Enroll(this, eId, student, section, grade);
+			Enroll enroll = new Enroll(this, eId, student, section, grade, version);
 			cache.put(eId, enroll);
 
 			return enroll;
@@ -96,18 +103,29 @@ public class EnrollDAO {
 	}
 
 	/**
-	 * Add a new enrollment with the given attributes.
+	 * Add a new enrollment with the given attributes, taking a seat in the
+	 * section. The seat is counted by a trigger on ENROLL, after lockSeat has
+	 * made sure that there is one.
 	 * 
 	 * @param eId
 	 * @param student
 	 * @param section
 	 * @param grade
-	 * @return
+	 * @return the new Enroll object, or null if the key already exists, the
+	 *         student is already enrolled in the section, or the section is full
 	 */
 	public Enroll insert(int eId, Student student, Section section, String grade) {
 		try {
-			// make sure that the cId is currently unused
-			if (find(eId) != null) {
+			// make sure that the eId is currently unused
+			if (cache.containsKey(eId) || exists(eId)) {
+				return null;
+			}
+
+			if (!dbm.lockSeat(section.getSectId())) {
+				return null;
+			}
+
+			if (isEnrolled(student.getSId(), section.getSectId())) {
 				return null;
 			}
 
@@ -125,14 +143,17 @@ public class EnrollDAO {
 				pstmt.setString(4, grade);
 			}
 			pstmt.executeUpdate();
+			dbm.seatTaken(section.getSectId());
 
-			Enroll enroll = new Enroll(this, eId, student, section, grade);
+			Enroll enroll = new Enroll(this, eId, student, section, grade, 0);
 			cache.put(eId, enroll);
 
 			// Tell the Student and Section that they will need to recalculate their
 			// enrollment lists
 			student.invalidate();
 			section.invalidate();
+			dbm.listChanged(ChangeBus.Table.STUDENT, student.getSId());
+			dbm.listChanged(ChangeBus.Table.SECTION, section.getSectId());
 
 			return enroll;
 		} catch (SQLException e) {
@@ -141,19 +162,71 @@ public class EnrollDAO {
 		}
 	}
 
+	/**
+	 * Check for an enrollment with the given key. A concurrent insert of the same
+	 * key is caught by the primary key, so this needs no extra isolation.
+	 */
+	private boolean exists(int eId) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("select e.EId");
+		sb.append("  from ENROLL e");
+		sb.append("  where e.EId = ?");
+
+		PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+		pstmt.setInt(1, eId);
+		ResultSet rs = pstmt.executeQuery();
+		boolean found = rs.next();
+		rs.close();
+
+		return found;
+	}
+
+	/**
+	 * Check whether the student is already enrolled in the section, which nothing
+	 * in the schema prevents. This is made after lockSeat: every write that adds
+	 * an enrollment to the section (an insert, or an update that moves one) needs
+	 * the same exclusive lock on its SECTION row, whether for lockSeat or for the
+	 * seat triggers, so no other transaction can add the pair until this one
+	 * ends. Reading the committed rows at READ_COMMITTED is then exact; the range
+	 * locks of SERIALIZABLE would protect nothing more, and would deadlock
+	 * concurrent registrations in other sections.
+	 */
+	private boolean isEnrolled(int sId, int sectId) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("select e.EId");
+		sb.append("  from ENROLL e");
+		sb.append("  where e.StudentId = ? and e.SectionId = ?");
+		sb.append(Isolation.READ_COMMITTED.clause());
+
+		PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+		pstmt.setInt(1, sId);
+		pstmt.setInt(2, sectId);
+		ResultSet rs = pstmt.executeQuery();
+		boolean found = rs.next();
+		rs.close();
+
+		return found;
+	}
+
 	/**
 	 * Grade was changed in the model object, so propagate the change to the
-	 * database.
+	 * database, provided that the row has not been
+	 * changed since the object was loaded.
 	 * 
 	 * @param eId
+	 * @param version  the version the object was loaded with
+	 * @param student
+	 * @param section
 	 * @param grade
+	 * @return the new version
+	 * @throws StaleObjectException if the row has been changed or deleted
 	 */
-	public void changeGrade(int eId, String grade) {
+	public int changeGrade(int eId, int version, Student student, Section section, String grade) {
 		try {
 			StringBuilder sb = new StringBuilder();
 			sb.append("update ENROLL");
-			sb.append("  set Grade = ?");
-			sb.append("  where EId = ?");
+			sb.append("  set Grade = ?, Version = Version + 1");
+			sb.append("  where EId = ? and Version = ?");
 
 			PreparedStatement pstmt = conn.prepareStatement(sb.toString());
 			if (grade == null) {
@@ -162,13 +235,64 @@ public class EnrollDAO {
 				pstmt.setString(1, grade);
 			}
 			pstmt.setInt(2, eId);
-			pstmt.executeUpdate();
+			pstmt.setInt(3, version);
+			if (pstmt.executeUpdate() == 0) {
+				// another transaction got there first, so the cached object is out of date
+				cache.remove(eId);
+				throw new StaleObjectException("ENROLL", eId);
+			}
+			dbm.rowChanged(ChangeBus.Table.ENROLL, eId);
+			dbm.listChanged(ChangeBus.Table.STUDENT, student.getSId());
+			dbm.listChanged(ChangeBus.Table.SECTION, section.getSectId());
+
+			return version + 1;
 		} catch (SQLException e) {
 			dbm.cleanup();
 			throw new RuntimeException("error changing grade", e);
 		}
 	}
 
+	/**
+	 * Another manager has committed a change to this enrollment, so evict the
+	 * cached copy (if any), and make its student and section recalculate their
+	 * enrollments lists, which hold the old copy.
+	 * 
+	 * @param eId
+	 * @param row
+	 */
+	void changed(int eId, boolean row) {
+		Enroll enroll = cache.remove(eId);
+		if (enroll != null) {
+			enroll.getStudent().invalidate();
+			enroll.getSection().invalidate();
+		}
+	}
+
+	/**
+	 * Another manager has committed a change to a student's row, so evict the
+	 * cached enrollments that refer to the old copy, and make their sections
+	 * recalculate their enrollments lists.
+	 * 
+	 * @param sId
+	 */
+	void studentChanged(int sId) {
+		Iterator<Enroll> it = cache.values().iterator();
+		while (it.hasNext()) {
+			Enroll enroll = it.next();
+			if (enroll.getStudent().getSId() == sId) {
+				it.remove();
+				enroll.getSection().invalidate();
+			}
+		}
+	}
+
+	/**
+	 * Forget all cached enrollments, without changing the database.
+	 */
+	void evictAll() {
+		cache.clear();
+	}
+
 	/**
 	 * Clear all data from the Enroll table.
 	 * 
@@ -0,0 +1,274 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import edu.depauw.csc480.analytics.Grades;
+
+/**
+ * Data Access Object for the GRADE_SUMMARY table, which holds the total grade
+ * points (in tenths) and the number of graded enrollments for each student and
+ * for each section. Triggers on STUDENT, SECTION, and ENROLL keep it up to date
+ * however the rows are written, whether through the DAOs, JPA, or plain SQL, so
+ * a GPA can be read from a single row instead of aggregating all of the
+ * enrollments.
+ */
+public class GradeSummaryDAO {
+	public static final String STUDENT = "S";
+	public static final String SECTION = "K";
+
+	// { Kind, its column in ENROLL, its table, that table's key }
+	private static final String[][] KINDS = { { STUDENT, "StudentId", "STUDENT", "SId" },
+			{ SECTION, "SectionId", "SECTION", "SectId" } };
+
+	private Connection conn;
+	private DatabaseManager dbm;
+
+	public GradeSummaryDAO(Connection conn, DatabaseManager dbm) {
+		this.conn = conn;
+		this.dbm = dbm;
+	}
+
+	/**
+	 * Create the GradeSummary table.
+	 *
+	 * @param conn
+	 * @throws SQLException
+	 */
+	public static void create(Connection conn) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("create table GRADE_SUMMARY(");
+		sb.append("  Kind char(1),");
+		sb.append("  Id int,");
+		sb.append("  Points int not null,");
+		sb.append("  Graded int not null,");
+		sb.append("  primary key (Kind, Id)");
+		sb.append(")");
+
+		Statement stmt = conn.createStatement();
+		stmt.executeUpdate(sb.toString());
+	}
+
+	/**
+	 * @param conn
+	 * @return whether the GradeSummary table exists, since it was added after the
+	 *         other tables
+	 * @throws SQLException
+	 */
+	public static boolean exists(Connection conn) throws SQLException {
+		try (ResultSet rs = conn.getMetaData().getTables(null, null, "GRADE_SUMMARY", null)) {
+			return rs.next();
+		}
+	}
+
+	/**
+	 * @param conn
+	 * @return whether the triggers that maintain the table exist, since they were
+	 *         added after it
+	 * @throws SQLException
+	 */
+	public static boolean hasTriggers(Connection conn) throws SQLException {
+		PreparedStatement pstmt = conn
+				.prepareStatement("select t.TriggerName from SYS.SYSTRIGGERS t where t.TriggerName = ?");
+		pstmt.setString(1, "ENROLL_SUMMARY_SI");
+		ResultSet rs = pstmt.executeQuery();
+		boolean found = rs.next();
+		rs.close();
+		return found;
+	}
+
+	/**
+	 * Create the triggers that maintain the table. Each student and section gets
+	 * its summary row when it is inserted, so the triggers on ENROLL only ever
+	 * update existing rows, each by its primary key. Concurrent enrollments then
+	 * cannot race to create the same row, and lock only the rows they change. The
+	 * triggers on ENROLL only fire for graded rows, so ungraded enrollments do not
+	 * touch the summaries at all. Call rebuild afterwards to fill in the rows for
+	 * existing data.
+	 *
+	 * @param conn
+	 * @throws SQLException
+	 */
+	public static void addTriggers(Connection conn) throws SQLException {
+		Statement stmt = conn.createStatement();
+		for (String[] kind : KINDS) {
+			String letter = kind[0];
+			String column = kind[1];
+
+			StringBuilder sb = new StringBuilder();
+			sb.append("create trigger ").append(kind[2]).append("_SUMMARY_I");
+			sb.append("  after insert on ").append(kind[2]);
+			sb.append("  referencing new as n");
+			sb.append("  for each row");
+			sb.append("  insert into GRADE_SUMMARY(Kind, Id, Points, Graded)");
+			sb.append("    values ('").append(letter).append("', n.").append(kind[3]).append(", 0, 0)");
+			stmt.executeUpdate(sb.toString());
+
+			sb = new StringBuilder();
+			sb.append("create trigger ").append(kind[2]).append("_SUMMARY_D");
+			sb.append("  after delete on ").append(kind[2]);
+			sb.append("  referencing old as o");
+			sb.append("  for each row");
+			sb.append("  delete from GRADE_SUMMARY");
+			sb.append("    where Kind = '").append(letter).append("' and Id = o.").append(kind[3]);
+			stmt.executeUpdate(sb.toString());
+
+			sb = new StringBuilder();
+			sb.append("create trigger ENROLL_SUMMARY_").append(letter).append("I");
+			sb.append("  after insert on ENROLL");
+			sb.append("  referencing new as n");
+			sb.append("  for each row when (").append(isGraded("n")).append(")");
+			sb.append("  update GRADE_SUMMARY");
+			sb.append("    set Points = Points + ").append(points("n"));
+			sb.append("      , Graded = Graded + 1");
+			sb.append("    where Kind = '").append(letter).append("' and Id = n.").append(column);
+			stmt.executeUpdate(sb.toString());
+
+			sb = new StringBuilder();
+			sb.append("create trigger ENROLL_SUMMARY_").append(letter).append("D");
+			sb.append("  after delete on ENROLL");
+			sb.append("  referencing old as o");
+			sb.append("  for each row when (").append(isGraded("o")).append(")");
+			sb.append("  update GRADE_SUMMARY");
+			sb.append("    set Points = Points - ").append(points("o"));
+			sb.append("      , Graded = Graded - 1");
+			sb.append("    where Kind = '").append(letter).append("' and Id = o.").append(column);
+			stmt.executeUpdate(sb.toString());
+
+			// the enrollment may also have moved to another student or section, so
+			// take it from the old row and then add it to the new one
+			sb = new StringBuilder();
+			sb.append("create trigger ENROLL_SUMMARY_").append(letter).append("UO");
+			sb.append("  after update of ").append(column).append(", Grade on ENROLL");
+			sb.append("  referencing old as o");
+			sb.append("  for each row when (").append(isGraded("o")).append(")");
+			sb.append("  update GRADE_SUMMARY");
+			sb.append("    set Points = Points - ").append(points("o"));
+			sb.append("      , Graded = Graded - 1");
+			sb.append("    where Kind = '").append(letter).append("' and Id = o.").append(column);
+			stmt.executeUpdate(sb.toString());
+
+			sb = new StringBuilder();
+			sb.append("create trigger ENROLL_SUMMARY_").append(letter).append("UN");
+			sb.append("  after update of ").append(column).append(", Grade on ENROLL");
+			sb.append("  referencing new as n");
+			sb.append("  for each row when (").append(isGraded("n")).append(")");
+			sb.append("  update GRADE_SUMMARY");
+			sb.append("    set Points = Points + ").append(points("n"));
+			sb.append("      , Graded = Graded + 1");
+			sb.append("    where Kind = '").append(letter).append("' and Id = n.").append(column);
+			stmt.executeUpdate(sb.toString());
+		}
+	}
+
+	/**
+	 * Recompute the whole table from the students, sections, and enrollments.
+	 *
+	 * @param conn
+	 * @throws SQLException
+	 */
+	public static void rebuild(Connection conn) throws SQLException {
+		Statement stmt = conn.createStatement();
+		stmt.executeUpdate("delete from GRADE_SUMMARY");
+		for (String[] kind : KINDS) {
+			StringBuilder sb = new StringBuilder();
+			sb.append("insert into GRADE_SUMMARY(Kind, Id, Points, Graded)");
+			sb.append("  select '").append(kind[0]).append("', x.").append(kind[3]);
+			sb.append("    , coalesce(sum(").append(points("e")).append("), 0)");
+			sb.append("    , coalesce(sum(").append(graded("e")).append("), 0)");
+			sb.append("  from ").append(kind[2]).append(" x");
+			sb.append("    left join ENROLL e on e.").append(kind[1]).append(" = x.").append(kind[3]);
+			sb.append("  group by x.").append(kind[3]);
+			stmt.executeUpdate(sb.toString());
+		}
+	}
+
+	/**
+	 * @param row
+	 * @return an expression for the grade points (in tenths) of row's grade
+	 */
+	private static String points(String row) {
+		StringBuilder sb = new StringBuilder("case ").append(row).append(".Grade");
+		for (int code = 1; code < Grades.count(); code++) {
+			sb.append(" when '").append(Grades.letter(code)).append("' then ").append(Grades.points(code));
+		}
+		return sb.append(" else 0 end").toString();
+	}
+
+	/**
+	 * @param row
+	 * @return a condition that holds if row's grade counts toward a GPA
+	 */
+	private static String isGraded(String row) {
+		StringBuilder sb = new StringBuilder(row).append(".Grade in (");
+		for (int code = 1; code < Grades.count(); code++) {
+			sb.append((code == 1) ? "'" : ", '").append(Grades.letter(code)).append("'");
+		}
+		return sb.append(")").toString();
+	}
+
+	/**
+	 * @param row
+	 * @return an expression that is 1 if row's grade counts toward a GPA, else 0
+	 */
+	private static String graded(String row) {
+		return "case when " + isGraded(row) + " then 1 else 0 end";
+	}
+
+	/**
+	 * Retrieve the grade point average for a student or a section.
+	 *
+	 * @param kind STUDENT or SECTION
+	 * @param id
+	 * @return the GPA, or null if there are no graded enrollments
+	 */
+	public Double getGpa(String kind, int id) {
+		int[] totals = getTotals(kind, id);
+		return (totals[1] > 0) ? totals[0] / 10.0 / totals[1] : null;
+	}
+
+	/**
+	 * @param kind STUDENT or SECTION
+	 * @param id
+	 * @return { grade points times ten, number of graded enrollments }
+	 */
+	int[] getTotals(String kind, int id) {
+		try {
+			StringBuilder sb = new StringBuilder();
+			sb.append("select g.Points, g.Graded");
+			sb.append("  from GRADE_SUMMARY g");
+			sb.append("  where g.Kind = ? and g.Id = ?");
+
+			PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+			pstmt.setString(1, kind);
+			pstmt.setInt(2, id);
+			ResultSet rs = pstmt.executeQuery();
+
+			int[] totals = { 0, 0 };
+			if (rs.next()) {
+				totals[0] = rs.getInt("Points");
+				totals[1] = rs.getInt("Graded");
+			}
+			rs.close();
+
+			return totals;
+		} catch (SQLException e) {
+			dbm.cleanup();
+			throw new RuntimeException("error finding grade point average", e);
+		}
+	}
+
+	/**
+	 * Clear all data from the GradeSummary table.
+	 *
+	 * @throws SQLException
+	 */
+	void clear() throws SQLException {
+		Statement stmt = conn.createStatement();
+		String s = "delete from GRADE_SUMMARY";
+		stmt.executeUpdate(s);
+	}
+}
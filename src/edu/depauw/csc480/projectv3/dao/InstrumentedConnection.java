@@ -0,0 +1,179 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.depauw.csc480.derby.SlowQueryLog;
+
+/**
+ * Dynamic proxies that sit between the DAOs and the real JDBC objects, timing
+ * each statement and counting its rows on behalf of a QueryStats. A query is
+ * considered finished when its ResultSet is exhausted or closed. Its elapsed
+ * time is the time spent inside the driver: executing it, and then each call
+ * on its ResultSet, so it includes fetching the rows. It does not include what
+ * the caller does between rows, such as the nested lookups the DAOs make while
+ * building objects, which are recorded as statements of their own. An update
+ * is finished when it returns.
+ * Finished statements that exceed the threshold of the stats' SlowQueryLog (if
+ * any) are also written there, together with their parameters. Failures are
+ * passed to the stats, which count lock timeouts and deadlocks.
+ */
+class InstrumentedConnection implements InvocationHandler {
+	private Connection conn;
+	private QueryStats stats;
+
+	private InstrumentedConnection(Connection conn, QueryStats stats) {
+		this.conn = conn;
+		this.stats = stats;
+	}
+
+	static Connection wrap(Connection conn, QueryStats stats) {
+		return proxy(Connection.class, new InstrumentedConnection(conn, stats));
+	}
+
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+		Object result = forward(conn, method, args);
+		String name = method.getName();
+		if (name.equals("prepareStatement") && args[0] instanceof String) {
+			return proxy(PreparedStatement.class, new StatementHandler((Statement) result, (String) args[0]));
+		} else if (name.equals("createStatement")) {
+			return proxy(Statement.class, new StatementHandler((Statement) result, null));
+		}
+		return result;
+	}
+
+	/**
+	 * Tracks the executions of a single Statement. For a PreparedStatement the
+	 * template is fixed when it is prepared; otherwise it is the SQL passed to
+	 * each execute call.
+	 */
+	private class StatementHandler implements InvocationHandler {
+		private Statement stmt;
+		private String sql;
+		private Map<Integer, Object> binds;
+
+		StatementHandler(Statement stmt, String sql) {
+			this.stmt = stmt;
+			this.sql = sql;
+			this.binds = new TreeMap<>();
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if (!name.startsWith("execute")) {
+				if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer
+						&& stats.getSlowQueryLog() != null) {
+					binds.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+				} else if (name.equals("clearParameters")) {
+					binds.clear();
+				}
+				return forward(stmt, method, args);
+			}
+
+			String template = (args != null && args.length > 0 && args[0] instanceof String) ? (String) args[0] : sql;
+			String bindText = binds.isEmpty() ? null : binds.values().toString();
+			long start = System.nanoTime();
+			Object result = forward(stmt, method, args);
+
+			if (result instanceof ResultSet) {
+				return proxy(ResultSet.class,
+						new ResultSetHandler((ResultSet) result, template, bindText, System.nanoTime() - start));
+			}
+
+			long rows = (result instanceof Integer) ? (Integer) result : 0;
+			finished(template, bindText, System.nanoTime() - start, rows);
+			return result;
+		}
+	}
+
+	/**
+	 * Counts the rows fetched from a ResultSet and the time spent in its calls,
+	 * and records the query once the rows run out or the ResultSet is closed,
+	 * whichever comes first.
+	 */
+	private class ResultSetHandler implements InvocationHandler {
+		private ResultSet rs;
+		private String template;
+		private String bindText;
+		private long nanos;
+		private long rows;
+		private boolean finished;
+
+		ResultSetHandler(ResultSet rs, String template, String bindText, long executeNanos) {
+			this.rs = rs;
+			this.template = template;
+			this.bindText = bindText;
+			this.nanos = executeNanos;
+		}
+
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			long start = System.nanoTime();
+			Object result;
+			try {
+				result = forward(rs, method, args);
+			} finally {
+				nanos += System.nanoTime() - start;
+			}
+			String name = method.getName();
+			if (name.equals("next")) {
+				if ((Boolean) result) {
+					rows++;
+				} else {
+					finish();
+				}
+			} else if (name.equals("close")) {
+				finish();
+			}
+			return result;
+		}
+
+		private void finish() throws SQLException {
+			if (!finished) {
+				finished = true;
+				SlowQueryLog log = stats.getSlowQueryLog();
+				if (log != null && log.explains() && log.isSlow(nanos)) {
+					// Derby only completes the statistics for a query once it is closed
+					rs.close();
+				}
+				finished(template, bindText, nanos, rows);
+			}
+		}
+	}
+
+	private void finished(String template, String bindText, long nanos, long rows) {
+		stats.record(template, nanos, rows);
+
+		SlowQueryLog log = stats.getSlowQueryLog();
+		if (log != null && log.isSlow(nanos)) {
+			String plan = log.explains() ? SlowQueryLog.fetchPlan(conn) : null;
+			log.log(template, bindText, nanos, plan);
+		}
+	}
+
+	private Object forward(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof SQLException) {
+				stats.failed((SQLException) e.getCause());
+			}
+			throw e.getCause();
+		}
+	}
+
+	private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+	}
+}
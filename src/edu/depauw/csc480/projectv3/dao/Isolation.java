@@ -0,0 +1,45 @@
+package edu.depauw.csc480.projectv3.dao;
+
+/**
+ * Isolation levels that can be requested for a single query with Derby's WITH
+ * clause, overriding the connection's READ_COMMITTED default for just that
+ * statement. The names follow JDBC; the Derby clauses are noted.
+ */
+public enum Isolation {
+	/**
+	 * WITH UR: takes no row locks and may see uncommitted changes. Suitable for
+	 * listings, which are only a snapshot anyway, and never block (or escalate to
+	 * a table lock that blocks) writers.
+	 */
+	READ_UNCOMMITTED("ur"),
+
+	/**
+	 * WITH CS: the default; each row is locked only while the cursor is on it.
+	 */
+	READ_COMMITTED("cs"),
+
+	/**
+	 * WITH RS: the rows read stay share-locked until the transaction ends, so they
+	 * cannot change under a check that later work depends on.
+	 */
+	REPEATABLE_READ("rs"),
+
+	/**
+	 * WITH RR: also locks the ranges scanned, so no matching rows can be inserted
+	 * until the transaction ends.
+	 */
+	SERIALIZABLE("rr");
+
+	private String clause;
+
+	private Isolation(String clause) {
+		this.clause = clause;
+	}
+
+	/**
+	 * @return the clause to append to a select statement
+	 */
+	public String clause() {
+		return "  with " + clause;
+	}
+}
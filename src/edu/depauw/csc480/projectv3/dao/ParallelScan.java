@@ -0,0 +1,155 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Reads a whole table in parallel by splitting its integer key range into
+ * partitions and scanning each one on its own connection, using a ForkJoin
+ * pool. The rows come back as arrays of column values, merged in key order; the
+ * DAO then turns them into model objects on the calling thread, since the
+ * caches are not thread-safe.
+ *
+ * The scan connections run their own READ_COMMITTED transactions. Each
+ * partition sees the rows committed by the time it reads them, so the
+ * partitions together are not a snapshot of one moment, and they do not see
+ * the caller's uncommitted changes. Worse, a row that the caller has locked
+ * makes its partition wait until the lock times out, so a caller that has
+ * written in its current transaction must not use a scan (DatabaseManager
+ * reads on its own connection instead).
+ */
+class ParallelScan {
+	private DatabaseManager dbm;
+	private int partitions;
+	private List<Connection> connections;
+	private ForkJoinPool pool;
+
+	/**
+	 * @param dbm        the manager whose database should be scanned
+	 * @param partitions number of partitions, connections, and threads
+	 */
+	ParallelScan(DatabaseManager dbm, int partitions) {
+		this.dbm = dbm;
+		this.partitions = partitions;
+		this.connections = new ArrayList<>();
+		this.pool = new ForkJoinPool(partitions);
+	}
+
+	int getPartitions() {
+		return partitions;
+	}
+
+	/**
+	 * Read all rows of a table, ordered by its key.
+	 *
+	 * @param table
+	 * @param key     the integer primary key column
+	 * @param columns the columns to select, with the key first
+	 * @return the rows, as arrays of column values
+	 * @throws SQLException
+	 */
+	List<Object[]> scan(String table, String key, String... columns) throws SQLException {
+		openConnections();
+
+		long min, max;
+		try (PreparedStatement pstmt = connections.get(0)
+				.prepareStatement("select min(" + key + "), max(" + key + ") from " + table);
+				ResultSet rs = pstmt.executeQuery()) {
+			rs.next();
+			min = rs.getLong(1);
+			max = rs.getLong(2);
+			if (rs.wasNull()) {
+				return new ArrayList<>();
+			}
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("select ").append(String.join(", ", columns));
+		sb.append("  from ").append(table);
+		sb.append("  where ").append(key).append(" between ? and ?");
+		sb.append("  order by ").append(key);
+		String sql = sb.toString();
+
+		long span = max - min + 1;
+		try {
+			List<List<Object[]>> parts = pool.submit(() -> IntStream.range(0, partitions).parallel()
+					.mapToObj(i -> scanRange(connections.get(i), sql, columns.length, min + span * i / partitions,
+							min + span * (i + 1) / partitions - 1))
+					.collect(Collectors.toList())).get();
+
+			List<Object[]> rows = new ArrayList<>();
+			for (List<Object[]> part : parts) {
+				rows.addAll(part);
+			}
+			return rows;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted during parallel scan", e);
+		} catch (ExecutionException e) {
+			throw new SQLException("error in parallel scan", e.getCause());
+		}
+	}
+
+	private static List<Object[]> scanRange(Connection conn, String sql, int width, long lo, long hi) {
+		List<Object[]> rows = new ArrayList<>();
+		if (lo > hi) {
+			return rows;
+		}
+
+		try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+			pstmt.setLong(1, lo);
+			pstmt.setLong(2, hi);
+			try (ResultSet rs = pstmt.executeQuery()) {
+				while (rs.next()) {
+					Object[] row = new Object[width];
+					for (int c = 0; c < width; c++) {
+						row[c] = rs.getObject(c + 1);
+					}
+					rows.add(row);
+				}
+			}
+			return rows;
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void openConnections() throws SQLException {
+		while (connections.size() < partitions) {
+			connections.add(dbm.openConnection());
+		}
+	}
+
+	/**
+	 * @param row    a row returned by scan
+	 * @param column
+	 * @return the column's value as an int, with SQL NULL as 0, the same as
+	 *         ResultSet.getInt
+	 */
+	static int getInt(Object[] row, int column) {
+		return (row[column] == null) ? 0 : ((Number) row[column]).intValue();
+	}
+
+	/**
+	 * Close the scan connections and stop the pool.
+	 */
+	void close() {
+		pool.shutdown();
+		for (Connection conn : connections) {
+			try {
+				conn.close();
+			} catch (SQLException e) {
+				// nothing more to do
+			}
+		}
+		connections.clear();
+	}
+}
@@ -0,0 +1,104 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Named sets of Derby storage settings for different workloads. The page cache
+ * and log buffer sizes are system properties that Derby reads when it boots a
+ * database, so they only take effect if the profile is applied before the
+ * database is first opened in this JVM. They are set only while the database
+ * boots, and then put back, so that other databases opened in the same JVM
+ * keep their own settings. The page size (used for tables and
+ * indexes created afterwards) and the checkpoint interval are also stored as
+ * database properties, since those take precedence over system properties.
+ */
+public enum PerformanceProfile {
+	/**
+	 * Loading large amounts of data: big pages and log buffer, and rare
+	 * checkpoints, so that the log is written in large sequential chunks.
+	 */
+	BULK_LOAD(4000, 32768, 1048576, 134217728),
+
+	/**
+	 * Many small read/write transactions: small pages, so that each row lock
+	 * touches little data, and the default checkpoint interval to bound recovery
+	 * time.
+	 */
+	OLTP(2000, 4096, 65536, 10485760),
+
+	/**
+	 * Mostly reads with occasional writes: a large page cache to keep the whole
+	 * working set in memory, and medium pages for efficient scans.
+	 */
+	READ_MOSTLY(16000, 16384, 32768, 10485760);
+
+	private int pageCacheSize;
+	private int pageSize;
+	private int logBufferSize;
+	private int checkpointInterval;
+
+	private PerformanceProfile(int pageCacheSize, int pageSize, int logBufferSize, int checkpointInterval) {
+		this.pageCacheSize = pageCacheSize;
+		this.pageSize = pageSize;
+		this.logBufferSize = logBufferSize;
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * Set the boot-time system properties. Must be called before the database is
+	 * opened, and undone with restoreSystemProperties once it has booted.
+	 *
+	 * @return the values the properties had before, null where they were not set
+	 */
+	Map<String, String> applySystemProperties() {
+		Map<String, String> previous = new HashMap<>();
+		setSystemProperty(previous, "derby.storage.pageCacheSize", pageCacheSize);
+		setSystemProperty(previous, "derby.storage.pageSize", pageSize);
+		setSystemProperty(previous, "derby.storage.logBufferSize", logBufferSize);
+		setSystemProperty(previous, "derby.storage.checkpointInterval", checkpointInterval);
+		return previous;
+	}
+
+	private static void setSystemProperty(Map<String, String> previous, String key, int value) {
+		previous.put(key, System.setProperty(key, Integer.toString(value)));
+	}
+
+	/**
+	 * Put back the system properties replaced by applySystemProperties.
+	 *
+	 * @param previous the values it returned
+	 */
+	static void restoreSystemProperties(Map<String, String> previous) {
+		for (Map.Entry<String, String> entry : previous.entrySet()) {
+			if (entry.getValue() == null) {
+				System.clearProperty(entry.getKey());
+			} else {
+				System.setProperty(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Store the database-wide properties in an open database.
+	 *
+	 * @param conn
+	 * @throws SQLException
+	 */
+	void applyDatabaseProperties(Connection conn) throws SQLException {
+		setDatabaseProperty(conn, "derby.storage.pageSize", pageSize);
+		setDatabaseProperty(conn, "derby.storage.checkpointInterval", checkpointInterval);
+		conn.commit();
+	}
+
+	static void setDatabaseProperty(Connection conn, String key, int value) throws SQLException {
+		try (CallableStatement cstmt = conn.prepareCall("call SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY(?, ?)")) {
+			cstmt.setString(1, key);
+			cstmt.setString(2, Integer.toString(value));
+			cstmt.execute();
+		}
+	}
+}
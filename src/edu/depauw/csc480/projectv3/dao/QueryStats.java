@@ -0,0 +1,278 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+
+import edu.depauw.csc480.derby.SlowQueryLog;
+
+/**
+ * Collects statistics about the SQL issued through a DatabaseManager: for each
+ * statement template (the SQL text, with ? for the parameters) it keeps a count
+ * of executions, a latency histogram, and the number of rows returned or
+ * updated. It also keeps hit/miss counts for the identity cache of each DAO.
+ * The statistics may be read from another thread (for example, through JMX)
+ * while the DAOs are running. Statements slower than the threshold of an
+ * attached SlowQueryLog are also written to that log. Statements that fail
+ * because of a deadlock or a lock timeout are counted, to help tune contention,
+ * as are the transactions run by DatabaseManager.inTransaction and their
+ * retries.
+ */
+public class QueryStats implements QueryStatsMBean {
+	private Map<String, StatementStats> statements;
+	private Map<String, CacheStats> caches;
+	private volatile SlowQueryLog slowQueryLog;
+	private LongAdder deadlocks = new LongAdder();
+	private LongAdder lockTimeouts = new LongAdder();
+	private LongAdder transactions = new LongAdder();
+	private LongAdder retries = new LongAdder();
+	private LongAdder abandoned = new LongAdder();
+
+	public QueryStats() {
+		this.statements = new ConcurrentHashMap<>();
+		this.caches = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Wrap a connection so that every statement executed through it is recorded
+	 * here.
+	 *
+	 * @param conn
+	 * @return the instrumented connection
+	 */
+	public Connection wrap(Connection conn) {
+		return InstrumentedConnection.wrap(conn, this);
+	}
+
+	public SlowQueryLog getSlowQueryLog() {
+		return slowQueryLog;
+	}
+
+	void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+		this.slowQueryLog = slowQueryLog;
+	}
+
+	/**
+	 * Retrieve the cache counters for the named DAO, creating them if necessary.
+	 *
+	 * @param daoName
+	 * @return the counters
+	 */
+	public CacheStats cache(String daoName) {
+		return caches.computeIfAbsent(daoName, k -> new CacheStats());
+	}
+
+	/**
+	 * Record one execution of a statement.
+	 *
+	 * @param sql     the statement template
+	 * @param nanos   time spent in the driver, including fetching the rows of a
+	 *                query
+	 * @param rows    rows returned by a query, or updated by a command
+	 */
+	void record(String sql, long nanos, long rows) {
+		statements.computeIfAbsent(sql, k -> new StatementStats()).record(nanos, rows);
+	}
+
+	/**
+	 * Record a failed statement, counting it if it was the victim of a deadlock
+	 * (SQLState 40001) or timed out waiting for a lock (40XL1, or 40XL2 when
+	 * derby.locks.deadlockTrace is on).
+	 *
+	 * @param e
+	 */
+	void failed(SQLException e) {
+		if (isDeadlock(e)) {
+			deadlocks.increment();
+		} else if (isLockTimeout(e)) {
+			lockTimeouts.increment();
+		}
+	}
+
+	static boolean isDeadlock(SQLException e) {
+		return "40001".equals(e.getSQLState());
+	}
+
+	static boolean isLockTimeout(SQLException e) {
+		return "40XL1".equals(e.getSQLState()) || "40XL2".equals(e.getSQLState());
+	}
+
+	void transactionStarted() {
+		transactions.increment();
+	}
+
+	void transactionRetried() {
+		retries.increment();
+	}
+
+	void transactionAbandoned() {
+		abandoned.increment();
+	}
+
+	@Override
+	public long getTransactionCount() {
+		return transactions.sum();
+	}
+
+	@Override
+	public long getRetryCount() {
+		return retries.sum();
+	}
+
+	@Override
+	public long getAbandonedTransactionCount() {
+		return abandoned.sum();
+	}
+
+	@Override
+	public long getDeadlockCount() {
+		return deadlocks.sum();
+	}
+
+	@Override
+	public long getLockTimeoutCount() {
+		return lockTimeouts.sum();
+	}
+
+	@Override
+	public long getStatementCount() {
+		long total = 0;
+		for (StatementStats s : statements.values()) {
+			total += s.getCount();
+		}
+		return total;
+	}
+
+	@Override
+	public long getRowCount() {
+		long total = 0;
+		for (StatementStats s : statements.values()) {
+			total += s.getRows();
+		}
+		return total;
+	}
+
+	@Override
+	public int getTemplateCount() {
+		return statements.size();
+	}
+
+	@Override
+	public double getCacheHitRatio() {
+		long hits = 0, lookups = 0;
+		for (CacheStats c : caches.values()) {
+			hits += c.getHits();
+			lookups += c.getHits() + c.getMisses();
+		}
+		return (lookups == 0) ? 0.0 : (double) hits / lookups;
+	}
+
+	@Override
+	public void reset() {
+		statements.clear();
+		deadlocks.reset();
+		lockTimeouts.reset();
+		transactions.reset();
+		retries.reset();
+		abandoned.reset();
+		for (CacheStats c : caches.values()) {
+			c.reset();
+		}
+	}
+
+	/**
+	 * Produce a human-readable report of all of the statistics, one line per
+	 * statement template followed by one line per DAO cache. Latencies are in
+	 * microseconds.
+	 */
+	@Override
+	public String dump() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%8s %8s %8s %8s %8s %8s  %s\n", "Count", "Rows", "Mean", "p50", "p99", "Max",
+				"Statement"));
+		for (Map.Entry<String, StatementStats> entry : new TreeMap<>(statements).entrySet()) {
+			StatementStats s = entry.getValue();
+			synchronized (s) {
+				Histogram h = s.latency;
+				sb.append(String.format("%8d %8d %8.0f %8d %8d %8d  %s\n", s.count, s.rows, h.getMean(),
+						h.getValueAtPercentile(50), h.getValueAtPercentile(99), h.getMaxValue(),
+						entry.getKey().replaceAll("\\s+", " ")));
+			}
+		}
+
+		sb.append(String.format("\nDeadlocks: %d  Lock timeouts: %d\n", getDeadlockCount(), getLockTimeoutCount()));
+		sb.append(String.format("Transactions: %d  Retries: %d  Abandoned: %d\n", getTransactionCount(),
+				getRetryCount(), getAbandonedTransactionCount()));
+
+		sb.append(String.format("\n%-10s %8s %8s %8s\n", "Cache", "Hits", "Misses", "Ratio"));
+		for (Map.Entry<String, CacheStats> entry : new TreeMap<>(caches).entrySet()) {
+			CacheStats c = entry.getValue();
+			sb.append(String.format("%-10s %8d %8d %8.3f\n", entry.getKey(), c.getHits(), c.getMisses(),
+					c.getHitRatio()));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Counters for a single statement template.
+	 */
+	static class StatementStats {
+		private long count;
+		private long rows;
+		private Histogram latency = new Histogram(3);
+
+		synchronized void record(long nanos, long rows) {
+			this.count++;
+			this.rows += rows;
+			latency.recordValue(Math.max(0, nanos / 1000));
+		}
+
+		synchronized long getCount() {
+			return count;
+		}
+
+		synchronized long getRows() {
+			return rows;
+		}
+	}
+
+	/**
+	 * Hit and miss counters for the identity cache of a DAO.
+	 */
+	public static class CacheStats {
+		private LongAdder hits = new LongAdder();
+		private LongAdder misses = new LongAdder();
+
+		public void hit() {
+			hits.increment();
+		}
+
+		public void miss() {
+			misses.increment();
+		}
+
+		public long getHits() {
+			return hits.sum();
+		}
+
+		public long getMisses() {
+			return misses.sum();
+		}
+
+		public double getHitRatio() {
+			long h = getHits();
+			long total = h + getMisses();
+			return (total == 0) ? 0.0 : (double) h / total;
+		}
+
+		void reset() {
+			hits.reset();
+			misses.reset();
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package edu.depauw.csc480.projectv3.dao;
+
+/**
+ * JMX management interface for QueryStats. Each DatabaseManager registers its
+ * statistics under the domain edu.depauw.csc480, so they can be browsed with
+ * jconsole or VisualVM.
+ */
+public interface QueryStatsMBean {
+	long getStatementCount();
+
+	long getRowCount();
+
+	int getTemplateCount();
+
+	long getDeadlockCount();
+
+	long getLockTimeoutCount();
+
+	long getTransactionCount();
+
+	long getRetryCount();
+
+	long getAbandonedTransactionCount();
+
+	double getCacheHitRatio();
+
+	String dump();
+
+	void reset();
+}
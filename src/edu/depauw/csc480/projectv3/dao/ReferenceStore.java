@@ -0,0 +1,368 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A read-only copy of the DEPT and COURSE tables in a memory-mapped file, which
+ * DeptDAO and CourseDAO consult on a cache miss before issuing any SQL. The
+ * reference data changes about once a semester, so the file can be shared by
+ * every process that uses the database; it lives outside the Java heap, and a
+ * lookup reads it in place.
+ *
+ * The file holds the records of each table as fixed-width entries sorted by key
+ * (searched by binary search), an open-addressing hash table from name (or
+ * title) to record, and a heap of UTF-8 strings (a null name or title is
+ * stored with length -1, and is not in the hash table). Its header records a
+ * TableFingerprint of each table, covering every column the store holds, and
+ * open rebuilds the file whenever that no longer matches the database, so a
+ * renamed department or a retitled or moved course is noticed as well as added
+ * and deleted rows.
+ */
+class ReferenceStore {
+	private static final int MAGIC = 0x52454653; // "REFS"
+	private static final int VERSION = 2;
+
+	private static final int PRINTS = 4; // count and hash of DEPT, then of COURSE
+	private static final int HEADER = 8 + PRINTS * 8 + 4 * 4;
+	private static final int DEPT_WIDTH = 12; // DId, name offset, name length
+	private static final int COURSE_WIDTH = 16; // CId, title offset, title length, DeptId
+
+	private static final Map<Path, ReferenceStore> stores = new ConcurrentHashMap<>();
+
+	private final MappedByteBuffer buf;
+	private final long[] fingerprint;
+	private final int deptCount, courseCount;
+	private final int depts, courses, deptHash, courseHash;
+	private final int deptHashSize, courseHashSize;
+
+	private ReferenceStore(MappedByteBuffer buf) throws IOException {
+		this.buf = buf;
+		if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+			throw new IOException("not a reference store");
+		}
+		fingerprint = new long[PRINTS];
+		for (int i = 0; i < PRINTS; i++) {
+			fingerprint[i] = buf.getLong(8 + 8 * i);
+		}
+		int at = 8 + 8 * PRINTS;
+		deptCount = buf.getInt(at);
+		courseCount = buf.getInt(at + 4);
+		deptHashSize = buf.getInt(at + 8);
+		courseHashSize = buf.getInt(at + 12);
+
+		depts = HEADER;
+		courses = depts + deptCount * DEPT_WIDTH;
+		deptHash = courses + courseCount * COURSE_WIDTH;
+		courseHash = deptHash + deptHashSize * 4;
+	}
+
+	/**
+	 * Map the reference store in the given file, building it first if it is
+	 * missing or out of date. A store that is already mapped in this JVM, and
+	 * still matches the database, is shared.
+	 *
+	 * @param conn
+	 * @param file
+	 * @return the store
+	 * @throws SQLException
+	 * @throws IOException
+	 */
+	static ReferenceStore open(Connection conn, Path file) throws SQLException, IOException {
+		long[] current = fingerprint(conn);
+		Path key = file.toAbsolutePath();
+
+		ReferenceStore store = stores.get(key);
+		if (store != null && Arrays.equals(store.fingerprint, current)) {
+			return store;
+		}
+
+		store = null;
+		if (Files.exists(file)) {
+			try {
+				store = map(file);
+				if (!Arrays.equals(store.fingerprint, current)) {
+					store = null;
+				}
+			} catch (IOException e) {
+				// an older version, or not a store at all, so build it again
+			}
+		}
+		if (store == null) {
+			build(conn, file, current);
+			store = map(file);
+		}
+
+		stores.put(key, store);
+		return store;
+	}
+
+	private static ReferenceStore map(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return new ReferenceStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+		}
+	}
+
+	private static long[] fingerprint(Connection conn) throws SQLException {
+		long[] dept = TableFingerprint.of(conn, "DEPT", "DId", "DName");
+		long[] course = TableFingerprint.of(conn, "COURSE", "CId", "Title", "DeptId");
+		return new long[] { dept[0], dept[1], course[0], course[1] };
+	}
+
+	/**
+	 * Write a new store to a temporary file, then move it into place, so that
+	 * other processes only ever see a complete file.
+	 */
+	private static void build(Connection conn, Path file, long[] fingerprint) throws SQLException, IOException {
+		List<int[]> deptRows = new ArrayList<>();
+		List<int[]> courseRows = new ArrayList<>();
+		List<byte[]> heap = new ArrayList<>();
+		List<String> deptNames = new ArrayList<>();
+		List<String> courseTitles = new ArrayList<>();
+
+		PreparedStatement pstmt = conn.prepareStatement("select d.DId, d.DName from DEPT d order by d.DId");
+		ResultSet rs = pstmt.executeQuery();
+		while (rs.next()) {
+			deptRows.add(new int[] { rs.getInt(1) });
+			deptNames.add(rs.getString(2));
+		}
+		rs.close();
+
+		pstmt = conn.prepareStatement("select c.CId, c.Title, c.DeptId from COURSE c order by c.CId");
+		rs = pstmt.executeQuery();
+		while (rs.next()) {
+			courseRows.add(new int[] { rs.getInt(1), rs.getInt(3) });
+			courseTitles.add(rs.getString(2));
+		}
+		rs.close();
+
+		int deptHashSize = tableSize(deptRows.size());
+		int courseHashSize = tableSize(courseRows.size());
+		int heapStart = HEADER + deptRows.size() * DEPT_WIDTH + courseRows.size() * COURSE_WIDTH
+				+ (deptHashSize + courseHashSize) * 4;
+		int heapSize = 0;
+		for (String s : deptNames) {
+			heap.add((s == null) ? null : s.getBytes(StandardCharsets.UTF_8));
+		}
+		for (String s : courseTitles) {
+			heap.add((s == null) ? null : s.getBytes(StandardCharsets.UTF_8));
+		}
+		for (byte[] bytes : heap) {
+			heapSize += (bytes == null) ? 0 : bytes.length;
+		}
+
+		ByteBuffer out = ByteBuffer.allocate(heapStart + heapSize);
+		out.putInt(MAGIC);
+		out.putInt(VERSION);
+		for (long f : fingerprint) {
+			out.putLong(f);
+		}
+		out.putInt(deptRows.size());
+		out.putInt(courseRows.size());
+		out.putInt(deptHashSize);
+		out.putInt(courseHashSize);
+
+		int offset = heapStart;
+		for (int r = 0; r < deptRows.size(); r++) {
+			byte[] name = heap.get(r);
+			out.putInt(deptRows.get(r)[0]);
+			out.putInt(offset);
+			out.putInt((name == null) ? -1 : name.length);
+			offset += (name == null) ? 0 : name.length;
+		}
+		for (int r = 0; r < courseRows.size(); r++) {
+			byte[] title = heap.get(deptRows.size() + r);
+			out.putInt(courseRows.get(r)[0]);
+			out.putInt(offset);
+			out.putInt((title == null) ? -1 : title.length);
+			out.putInt(courseRows.get(r)[1]);
+			offset += (title == null) ? 0 : title.length;
+		}
+
+		putHashTable(out, deptNames, deptHashSize);
+		putHashTable(out, courseTitles, courseHashSize);
+		for (byte[] bytes : heap) {
+			if (bytes != null) {
+				out.put(bytes);
+			}
+		}
+		out.flip();
+
+		Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+		try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+			while (out.hasRemaining()) {
+				channel.write(out);
+			}
+			channel.force(true);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * @return a power of two at least twice n, so that probe sequences are short
+	 */
+	private static int tableSize(int n) {
+		return Integer.highestOneBit(Math.max(2, 2 * n - 1)) << 1;
+	}
+
+	/**
+	 * Write a hash table whose slots hold the record number plus one (0 for an
+	 * empty slot). When names repeat, the first record keeps the slot, as the
+	 * DAOs' findByName returns the first one found.
+	 */
+	private static void putHashTable(ByteBuffer out, List<String> names, int size) {
+		int[] slots = new int[size];
+		for (int r = 0; r < names.size(); r++) {
+			String name = names.get(r);
+			if (name == null) {
+				continue;
+			}
+			int i = slot(name, size);
+			while (slots[i] != 0 && !names.get(slots[i] - 1).equals(name)) {
+				i = (i + 1) & (size - 1);
+			}
+			if (slots[i] == 0) {
+				slots[i] = r + 1;
+			}
+		}
+		for (int slot : slots) {
+			out.putInt(slot);
+		}
+	}
+
+	private static int slot(String name, int size) {
+		int h = name.hashCode();
+		h ^= h >>> 16;
+		return (h * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(size));
+	}
+
+	// ***************************************************************
+	// Lookups (all absolute reads, so any number of threads may share a store)
+
+	/**
+	 * @param dId
+	 * @return the record number of the department, or -1 if it is not in the
+	 *         store
+	 */
+	int findDept(int dId) {
+		return search(depts, deptCount, DEPT_WIDTH, dId);
+	}
+
+	String deptName(int record) {
+		int at = depts + record * DEPT_WIDTH;
+		return string(buf.getInt(at + 4), buf.getInt(at + 8));
+	}
+
+	int deptId(int record) {
+		return buf.getInt(depts + record * DEPT_WIDTH);
+	}
+
+	/**
+	 * @param dName
+	 * @return the record number of the first department with the name, or -1
+	 */
+	int findDeptByName(String dName) {
+		return lookup(dName, deptHash, deptHashSize, depts, DEPT_WIDTH);
+	}
+
+	/**
+	 * @param cId
+	 * @return the record number of the course, or -1 if it is not in the store
+	 */
+	int findCourse(int cId) {
+		return search(courses, courseCount, COURSE_WIDTH, cId);
+	}
+
+	int courseId(int record) {
+		return buf.getInt(courses + record * COURSE_WIDTH);
+	}
+
+	String courseTitle(int record) {
+		int at = courses + record * COURSE_WIDTH;
+		return string(buf.getInt(at + 4), buf.getInt(at + 8));
+	}
+
+	int courseDept(int record) {
+		return buf.getInt(courses + record * COURSE_WIDTH + 12);
+	}
+
+	/**
+	 * @param title
+	 * @return the record number of the first course with the title, or -1
+	 */
+	int findCourseByTitle(String title) {
+		return lookup(title, courseHash, courseHashSize, courses, COURSE_WIDTH);
+	}
+
+	private int search(int base, int count, int width, int key) {
+		int lo = 0, hi = count - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int k = buf.getInt(base + mid * width);
+			if (k < key) {
+				lo = mid + 1;
+			} else if (k > key) {
+				hi = mid - 1;
+			} else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	private int lookup(String name, int table, int size, int base, int width) {
+		if (name == null) {
+			return -1;
+		}
+		byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+		int i = slot(name, size);
+		int slot;
+		while ((slot = buf.getInt(table + i * 4)) != 0) {
+			int at = base + (slot - 1) * width;
+			if (matches(bytes, buf.getInt(at + 4), buf.getInt(at + 8))) {
+				return slot - 1;
+			}
+			i = (i + 1) & (size - 1);
+		}
+		return -1;
+	}
+
+	private boolean matches(byte[] bytes, int offset, int length) {
+		if (bytes.length != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (buf.get(offset + i) != bytes[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String string(int offset, int length) {
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; i++) {
+			bytes[i] = buf.get(offset + i);
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+}
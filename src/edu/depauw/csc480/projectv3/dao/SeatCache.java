@@ -0,0 +1,134 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The last known seats taken and capacity of each section, shared by all of the
+ * managers of one database in this JVM. The map is split into stripes, each
+ * with its own lock, so that registration threads working on different
+ * sections rarely contend.
+ *
+ * The database remains the authority: a seat is only taken by a conditional
+ * update, so the cache can make a reservation fail fast when a section is known
+ * to be full, but it can never cause overbooking. A seat is only counted here
+ * once the transaction that took it commits, so a rollback cannot leave a
+ * section looking full; the cache is also cleared whenever a transaction rolls
+ * back.
+ */
+class SeatCache {
+	private static final int STRIPES = 16;
+
+	private static final Map<String, SeatCache> caches = new ConcurrentHashMap<>();
+
+	private final Object[] locks;
+	private final Map<Integer, int[]>[] maps;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private SeatCache() {
+		locks = new Object[STRIPES];
+		maps = new Map[STRIPES];
+		for (int i = 0; i < STRIPES; i++) {
+			locks[i] = new Object();
+			maps[i] = new HashMap<>();
+		}
+	}
+
+	/**
+	 * @param url
+	 * @return the cache for the database at the given URL
+	 */
+	static SeatCache forUrl(String url) {
+		return caches.computeIfAbsent(url, u -> new SeatCache());
+	}
+
+	private static int stripe(int sectId) {
+		int h = sectId * 0x9E3779B9;
+		return (h >>> 28) & (STRIPES - 1);
+	}
+
+	/**
+	 * @param sectId
+	 * @return a copy of { seats taken, capacity }, or null if unknown
+	 */
+	int[] get(int sectId) {
+		int s = stripe(sectId);
+		synchronized (locks[s]) {
+			int[] seats = maps[s].get(sectId);
+			return (seats == null) ? null : seats.clone();
+		}
+	}
+
+	void put(int sectId, int taken, int capacity) {
+		int s = stripe(sectId);
+		synchronized (locks[s]) {
+			maps[s].put(sectId, new int[] { taken, capacity });
+		}
+	}
+
+	/**
+	 * @param sectId
+	 * @return whether the section is known to be full
+	 */
+	boolean isFull(int sectId) {
+		int s = stripe(sectId);
+		synchronized (locks[s]) {
+			int[] seats = maps[s].get(sectId);
+			return seats != null && seats[0] >= seats[1];
+		}
+	}
+
+	/**
+	 * Count a seat that has just been taken.
+	 *
+	 * @param sectId
+	 */
+	void reserved(int sectId) {
+		int s = stripe(sectId);
+		synchronized (locks[s]) {
+			int[] seats = maps[s].get(sectId);
+			if (seats != null) {
+				seats[0]++;
+			}
+		}
+	}
+
+	/**
+	 * Count a seat that has just been given back.
+	 *
+	 * @param sectId
+	 */
+	void released(int sectId) {
+		int s = stripe(sectId);
+		synchronized (locks[s]) {
+			int[] seats = maps[s].get(sectId);
+			if (seats != null && seats[0] > 0) {
+				seats[0]--;
+			}
+		}
+	}
+
+	/**
+	 * Record that the database refused a seat because the section is full.
+	 *
+	 * @param sectId
+	 */
+	void full(int sectId) {
+		int s = stripe(sectId);
+		synchronized (locks[s]) {
+			int[] seats = maps[s].get(sectId);
+			if (seats != null) {
+				seats[0] = seats[1];
+			}
+		}
+	}
+
+	void clear() {
+		for (int s = 0; s < STRIPES; s++) {
+			synchronized (locks[s]) {
+				maps[s].clear();
+			}
+		}
+	}
+}
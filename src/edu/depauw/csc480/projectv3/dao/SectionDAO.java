@@ -13,6 +13,7 @@ import java.util.Map;
 import edu.depauw.csc480.projectv3.model.Course;
 import edu.depauw.csc480.projectv3.model.Enroll;
 import edu.depauw.csc480.projectv3.model.Section;
+import edu.depauw.csc480.projectv3.model.SectionSummary;
 
 /**
  * Data Access Object for the Section table. Encapsulates all of the relevant
@@ -22,14 +23,25 @@ import edu.depauw.csc480.projectv3.model.Section;
  * @author bhoward
  */
 public class SectionDAO {
+	public static final int DEFAULT_CAPACITY = 100;
+
+	/** SQLState of a violated check constraint, such as SECTION_SEATS. */
+	public static final String CHECK_VIOLATION = "23513";
+
 	private Connection conn;
 	private DatabaseManager dbm;
 	private Map<Integer, Section> cache;
+	private QueryStats.CacheStats cacheStats;
+	private SeatCache seats;
+	private Map<Integer, Integer> pendingSeats;
 
-	public SectionDAO(Connection conn, DatabaseManager dbm) {
+	public SectionDAO(Connection conn, DatabaseManager dbm, SeatCache seats) {
 		this.conn = conn;
 		this.dbm = dbm;
 		this.cache = new HashMap<>();
+		this.cacheStats = dbm.getQueryStats().cache("Section");
+		this.seats = seats;
+		this.pendingSeats = new HashMap<>();
 	}
 
 	/**
@@ -45,14 +57,117 @@ public class SectionDAO {
 		sb.append("  CourseId int not null,");
 		sb.append("  Prof varchar(8) not null,");
 		sb.append("  YearOffered int not null,");
+		sb.append("  Capacity int not null default " + DEFAULT_CAPACITY + ",");
+		sb.append("  SeatsTaken int not null default 0,");
 		sb.append("  primary key (SectId),");
-		sb.append("  foreign key (CourseId) references COURSE on delete cascade");
+		sb.append("  foreign key (CourseId) references COURSE on delete cascade,");
+		sb.append("  constraint SECTION_SEATS check (SeatsTaken between 0 and Capacity)");
 		sb.append(")");
 
 		Statement stmt = conn.createStatement();
 		stmt.executeUpdate(sb.toString());
 	}
 
+	/**
+	 * @param conn
+	 * @return whether the Section table has the Capacity and SeatsTaken columns,
+	 *         which were added after it was first defined
+	 * @throws SQLException
+	 */
+	public static boolean hasCapacity(Connection conn) throws SQLException {
+		try (ResultSet rs = conn.getMetaData().getColumns(null, null, "SECTION", "CAPACITY")) {
+			return rs.next();
+		}
+	}
+
+	/**
+	 * Add the Capacity and SeatsTaken columns to an existing Section table,
+	 * counting the seats already taken. Sections that already hold more than the
+	 * default capacity are given a capacity equal to their enrollment.
+	 * 
+	 * @param conn
+	 * @throws SQLException
+	 */
+	public static void addCapacity(Connection conn) throws SQLException {
+		Statement stmt = conn.createStatement();
+		stmt.executeUpdate("alter table SECTION add column Capacity int not null default " + DEFAULT_CAPACITY);
+		stmt.executeUpdate("alter table SECTION add column SeatsTaken int not null default 0");
+
+		countSeats(stmt);
+		stmt.executeUpdate(
+				"alter table SECTION add constraint SECTION_SEATS check (SeatsTaken between 0 and Capacity)");
+	}
+
+	/**
+	 * Count the seats already taken in every section. Sections that hold more
+	 * than their capacity are given a capacity equal to their enrollment.
+	 */
+	private static void countSeats(Statement stmt) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("update SECTION");
+		sb.append("  set SeatsTaken = (select count(*) from ENROLL e where e.SectionId = SECTION.SectId)");
+		stmt.executeUpdate(sb.toString());
+
+		stmt.executeUpdate("update SECTION set Capacity = SeatsTaken where SeatsTaken > Capacity");
+	}
+
+	/**
+	 * @param conn
+	 * @return whether ENROLL has the triggers that keep SeatsTaken up to date,
+	 *         which were added after the Capacity and SeatsTaken columns
+	 * @throws SQLException
+	 */
+	public static boolean hasSeatTriggers(Connection conn) throws SQLException {
+		PreparedStatement pstmt = conn
+				.prepareStatement("select t.TriggerName from SYS.SYSTRIGGERS t where t.TriggerName = ?");
+		pstmt.setString(1, "ENROLL_SEAT_I");
+		ResultSet rs = pstmt.executeQuery();
+		boolean found = rs.next();
+		rs.close();
+		return found;
+	}
+
+	/**
+	 * Create the triggers on ENROLL that keep SeatsTaken up to date, and recount
+	 * the seats taken so far. With them, the SECTION_SEATS constraint enforces
+	 * capacity for every program that writes enrollments, not only for this DAO:
+	 * an insert into a full section fails with CHECK_VIOLATION.
+	 * 
+	 * @param conn
+	 * @throws SQLException
+	 */
+	public static void addSeatTriggers(Connection conn) throws SQLException {
+		Statement stmt = conn.createStatement();
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("create trigger ENROLL_SEAT_I");
+		sb.append("  after insert on ENROLL");
+		sb.append("  referencing new as n");
+		sb.append("  for each row");
+		sb.append("  update SECTION set SeatsTaken = SeatsTaken + 1 where SectId = n.SectionId");
+		stmt.executeUpdate(sb.toString());
+
+		sb = new StringBuilder();
+		sb.append("create trigger ENROLL_SEAT_D");
+		sb.append("  after delete on ENROLL");
+		sb.append("  referencing old as o");
+		sb.append("  for each row");
+		sb.append("  update SECTION set SeatsTaken = SeatsTaken - 1 where SectId = o.SectionId");
+		stmt.executeUpdate(sb.toString());
+
+		sb = new StringBuilder();
+		sb.append("create trigger ENROLL_SEAT_U");
+		sb.append("  after update of SectionId on ENROLL");
+		sb.append("  referencing old as o new as n");
+		sb.append("  for each row");
+		sb.append("  update SECTION");
+		sb.append("    set SeatsTaken = SeatsTaken + case when SectId = n.SectionId then 1 else -1 end");
+		sb.append("    where o.SectionId <> n.SectionId and SectId in (o.SectionId, n.SectionId)");
+		stmt.executeUpdate(sb.toString());
+
+		countSeats(stmt);
+	}
+
 	/**
 	 * Retrieve a Section object given its key. Checks the cache to see if the
 	 * desired object already exists in memory.
@@ -62,8 +177,10 @@ public class SectionDAO {
 	 */
 	public Section find(int sectId) {
 		if (cache.containsKey(sectId)) {
+			cacheStats.hit();
 			return cache.get(sectId);
 		}
+		cacheStats.miss();
 
 		try {
 			StringBuilder sb = new StringBuilder();
@@ -102,9 +219,10 @@ public class SectionDAO {
 	 * @param course
 	 * @param prof
 	 * @param yearOffered
-	 * @return
+	 * @param capacity
+	 * @return the new Section object, or null if the key already exists
 	 */
-	public Section insert(int sectId, Course course, String prof, int yearOffered) {
+	public Section insert(int sectId, Course course, String prof, int yearOffered, int capacity) {
 		try {
 			// make sure that the cId is currently unused
 			if (find(sectId) != null) {
@@ -112,14 +230,15 @@ public class SectionDAO {
 			}
 
 			StringBuilder sb = new StringBuilder();
-			sb.append("insert into SECTION(SectId, CourseId, Prof, YearOffered)");
-			sb.append("  values (?, ?, ?, ?)");
+			sb.append("insert into SECTION(SectId, CourseId, Prof, YearOffered, Capacity)");
+			sb.append("  values (?, ?, ?, ?, ?)");
 
 			PreparedStatement pstmt = conn.prepareStatement(sb.toString());
 			pstmt.setInt(1, sectId);
 			pstmt.setInt(2, course.getCId());
 			pstmt.setString(3, prof);
 			pstmt.setInt(4, yearOffered);
+			pstmt.setInt(5, capacity);
 			pstmt.executeUpdate();
 
 			Section section = new Section(this, sectId, course, prof, yearOffered);
@@ -127,6 +246,7 @@ public class SectionDAO {
 
 			// Tell the Course it will need to recalculate its sections list
 			course.invalidate();
+			dbm.listChanged(ChangeBus.Table.COURSE, course.getCId());
 
 			return section;
 		} catch (SQLException e) {
@@ -135,6 +255,177 @@ public class SectionDAO {
 		}
 	}
 
+	/**
+	 * Lock the section's row for a new enrollment, if it has a seat left. The
+	 * ENROLL trigger will need this exclusive lock to count the seat; taking it
+	 * first, rather than upgrading the share lock of the insert's foreign key
+	 * check, keeps concurrent registrations from deadlocking.
+	 * 
+	 * @param sectId
+	 * @return whether the section had a seat left
+	 * @throws SQLException
+	 */
+	boolean lockSeat(int sectId) throws SQLException {
+		if (seats.isFull(sectId)) {
+			return false;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("update SECTION");
+		sb.append("  set SeatsTaken = SeatsTaken");
+		sb.append("  where SectId = ? and SeatsTaken < Capacity");
+
+		PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+		pstmt.setInt(1, sectId);
+		if (pstmt.executeUpdate() == 1) {
+			return true;
+		}
+
+		// full (or missing); remember it so that the next attempt fails fast
+		loadSeats(sectId);
+		return false;
+	}
+
+	/**
+	 * Count a seat taken by an enrollment that was just inserted (the ENROLL
+	 * trigger has already counted it in the database).
+	 * 
+	 * @param sectId
+	 */
+	void seatTaken(int sectId) {
+		pendingSeats.merge(sectId, 1, Integer::sum);
+	}
+
+	/**
+	 * Take one seat in the section without enrolling anyone in this database (a
+	 * ShardedDatabaseManager keeps its seats in shard 0), if there is one left.
+	 * The check and the increment are a single conditional update, so concurrent
+	 * registrations cannot overbook the section. The seat is only counted in the
+	 * shared SeatCache once the transaction commits (see seatsCommitted).
+	 * 
+	 * @param sectId
+	 * @return whether a seat was taken
+	 * @throws SQLException
+	 */
+	boolean reserveSeat(int sectId) throws SQLException {
+		if (seats.isFull(sectId)) {
+			return false;
+		}
+
+		StringBuilder sb = new StringBuilder();
+		sb.append("update SECTION");
+		sb.append("  set SeatsTaken = SeatsTaken + 1");
+		sb.append("  where SectId = ? and SeatsTaken < Capacity");
+
+		PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+		pstmt.setInt(1, sectId);
+		if (pstmt.executeUpdate() == 1) {
+			pendingSeats.merge(sectId, 1, Integer::sum);
+			return true;
+		}
+
+		// full (or missing); remember it so that the next attempt fails fast
+		loadSeats(sectId);
+		return false;
+	}
+
+	/**
+	 * Give back a seat taken by reserveSeat, when the enrollment it was for could
+	 * not be made.
+	 * 
+	 * @param sectId
+	 * @throws SQLException
+	 */
+	void releaseSeat(int sectId) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("update SECTION");
+		sb.append("  set SeatsTaken = SeatsTaken - 1");
+		sb.append("  where SectId = ? and SeatsTaken > 0");
+
+		PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+		pstmt.setInt(1, sectId);
+		if (pstmt.executeUpdate() == 1) {
+			pendingSeats.merge(sectId, -1, Integer::sum);
+		}
+	}
+
+	/**
+	 * @param sectId
+	 * @return the number of students enrolled in the section
+	 */
+	public int getSeatsTaken(int sectId) {
+		return getSeats(sectId)[0];
+	}
+
+	/**
+	 * @param sectId
+	 * @return the maximum number of students in the section
+	 */
+	public int getCapacity(int sectId) {
+		return getSeats(sectId)[1];
+	}
+
+	private int[] getSeats(int sectId) {
+		int[] known = seats.get(sectId);
+		if (known != null) {
+			known[0] += pendingSeats.getOrDefault(sectId, 0);
+			return known;
+		}
+
+		try {
+			return loadSeats(sectId);
+		} catch (SQLException e) {
+			dbm.cleanup();
+			throw new RuntimeException("error finding section seats", e);
+		}
+	}
+
+	private int[] loadSeats(int sectId) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("select s.SeatsTaken, s.Capacity");
+		sb.append("  from SECTION s");
+		sb.append("  where s.SectId = ?");
+
+		PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+		pstmt.setInt(1, sectId);
+		ResultSet rs = pstmt.executeQuery();
+
+		int[] result = { 0, 0 };
+		if (rs.next()) {
+			result[0] = rs.getInt("SeatsTaken");
+			result[1] = rs.getInt("Capacity");
+			// this transaction's own seats are not shared until it commits
+			seats.put(sectId, result[0] - pendingSeats.getOrDefault(sectId, 0), result[1]);
+		}
+		rs.close();
+
+		return result;
+	}
+
+	/**
+	 * Count the seats taken in the transaction that just committed.
+	 */
+	void seatsCommitted() {
+		for (Map.Entry<Integer, Integer> entry : pendingSeats.entrySet()) {
+			for (int i = 0; i < entry.getValue(); i++) {
+				seats.reserved(entry.getKey());
+			}
+			for (int i = 0; i > entry.getValue(); i--) {
+				seats.released(entry.getKey());
+			}
+		}
+		pendingSeats.clear();
+	}
+
+	/**
+	 * Forget the seats taken in a transaction that was rolled back, and the
+	 * cached seat counts, which may have been read while it held them.
+	 */
+	void clearSeats() {
+		pendingSeats.clear();
+		seats.clear();
+	}
+
 	/**
 	 * Retrieve a Collection of all enrollments for the given section. Backwards
 	 * direction of Section foreign key from Enroll.
@@ -212,6 +503,97 @@ public class SectionDAO {
 		}
 	}
 
+	/**
+	 * Retrieve a summary of every section, with its course title and department
+	 * name, in order of key. This is a single join query, and the results are not
+	 * model objects, so nothing is added to the cache, which also makes it safe to
+	 * read them without waiting for locks (at READ_UNCOMMITTED).
+	 * 
+	 * @param isolation
+	 * @return the collection
+	 */
+	public Collection<SectionSummary> getSummaries(Isolation isolation) {
+		try {
+			Collection<SectionSummary> summaries = new ArrayList<>();
+
+			StringBuilder sb = new StringBuilder();
+			sb.append("select k.SectId, d.DName, c.Title, k.Prof, k.YearOffered");
+			sb.append("  from SECTION k join COURSE c on k.CourseId = c.CId");
+			sb.append("    join DEPT d on c.DeptId = d.DId");
+			sb.append("  order by k.SectId");
+			sb.append(isolation.clause());
+
+			PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+			ResultSet rs = pstmt.executeQuery();
+
+			while (rs.next()) {
+				summaries.add(new SectionSummary(rs.getInt("SectId"), rs.getString("DName"), rs.getString("Title"),
+						rs.getString("Prof"), rs.getInt("YearOffered")));
+			}
+			rs.close();
+
+			return summaries;
+		} catch (SQLException e) {
+			dbm.cleanup();
+			throw new RuntimeException("error listing sections", e);
+		}
+	}
+
+	/**
+	 * Retrieve a Collection of all sections, like getAll, but reading the table
+	 * in key-range partitions on several connections at once. Courses are
+	 * preloaded, so resolving each course is a cache hit.
+	 * 
+	 * @param scan
+	 * @return the collection, in order of key
+	 */
+	Collection<Section> getAll(ParallelScan scan) {
+		try {
+			dbm.preloadReferenceData();
+			Collection<Section> sections = new ArrayList<>();
+
+			for (Object[] row : scan.scan("SECTION", "SectId", "SectId", "CourseId", "Prof", "YearOffered")) {
+				int sectId = ParallelScan.getInt(row, 0);
+
+				if (cache.containsKey(sectId)) {
+					sections.add(cache.get(sectId));
+				} else {
+					Course course = dbm.findCourse(ParallelScan.getInt(row, 1));
+					Section section = new Section(this, sectId, course, (String) row[2], ParallelScan.getInt(row, 3));
+					cache.put(sectId, section);
+					sections.add(section);
+				}
+			}
+
+			return sections;
+		} catch (SQLException e) {
+			dbm.cleanup();
+			throw new RuntimeException("error finding sections", e);
+		}
+	}
+
+	/**
+	 * Another manager has committed a change to the enrollments of this section, so
+	 * the cached copy (if any) must recalculate them when next asked.
+	 * 
+	 * @param sectId
+	 * @param row
+	 */
+	void changed(int sectId, boolean row) {
+		Section section = cache.get(sectId);
+		if (section != null) {
+			section.invalidate();
+		}
+	}
+
+	/**
+	 * Forget all cached sections, without changing the database.
+	 */
+	void evictAll() {
+		cache.clear();
+		seats.clear();
+	}
+
 	/**
 	 * Clear all data from the Section table.
 	 * 
@@ -222,5 +604,7 @@ public class SectionDAO {
 		String s = "delete from SECTION";
 		stmt.executeUpdate(s);
 		cache.clear();
+		pendingSeats.clear();
+		seats.clear();
 	}
 }
@@ -0,0 +1,323 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.projectv3.model.Course;
+import edu.depauw.csc480.projectv3.model.Dept;
+import edu.depauw.csc480.projectv3.model.Enroll;
+import edu.depauw.csc480.projectv3.model.Section;
+import edu.depauw.csc480.projectv3.model.Student;
+
+/**
+ * Spreads the student database over several Derby databases (shards), each
+ * managed by its own DatabaseManager. The reference tables (DEPT, COURSE, and
+ * SECTION) are small, so they are replicated in full to every shard; STUDENT
+ * and ENROLL are partitioned by a hash of the student id, so a student's
+ * enrollments live in the same shard as the student and all foreign keys can
+ * still be checked locally.
+ *
+ * Shard 0 is the authority for seats: the copies of a section in the other
+ * shards have unlimited capacity, and an enrollment in another shard first
+ * takes its seat in shard 0, so a section cannot be overbooked however its
+ * students are spread.
+ *
+ * Operations on a single student go to one shard. Operations that cannot be
+ * routed by student id (lookups by name or by enrollment id, and listings) are
+ * sent to every shard in parallel, one thread per shard, and the results are
+ * merged. Reference data is read from shard 0. Commits are issued to each shard
+ * in turn, so a failure part way through is not atomic across shards.
+ *
+ * Like DatabaseManager, this is meant to be used from one thread at a time.
+ */
+public class ShardedDatabaseManager {
+	private DatabaseManager[] shards;
+	private ExecutorService executor;
+
+	/**
+	 * Open (or create) the shards basePath-shard0, basePath-shard1, ...
+	 *
+	 * @param basePath
+	 * @param count    number of shards
+	 */
+	public ShardedDatabaseManager(String basePath, int count) {
+		shards = new DatabaseManager[count];
+		for (int i = 0; i < count; i++) {
+			shards[i] = new DatabaseManager(ConnectionFactory.url(basePath + "-shard" + i), null);
+		}
+
+		executor = Executors.newFixedThreadPool(count, r -> {
+			Thread t = new Thread(r, "shard-query");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * @param sId
+	 * @return the shard holding the given student and their enrollments
+	 */
+	public DatabaseManager shardFor(int sId) {
+		// mix the bits so that ranges of consecutive ids spread evenly
+		int h = sId * 0x9E3779B9;
+		h ^= h >>> 16;
+		return shards[Math.floorMod(h, shards.length)];
+	}
+
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	// ***************************************************************
+	// Reference data -- replicated to every shard, read from shard 0
+
+	public Dept findDept(int dId) {
+		return shards[0].findDept(dId);
+	}
+
+	public Course findCourse(int cId) {
+		return shards[0].findCourse(cId);
+	}
+
+	public Section findSection(int sectId) {
+		return shards[0].findSection(sectId);
+	}
+
+	public Dept findDeptByName(String dName) {
+		return shards[0].findDeptByName(dName);
+	}
+
+	public Course findCourseByTitle(String title) {
+		return shards[0].findCourseByTitle(title);
+	}
+
+	public Collection<Section> getSections() {
+		return shards[0].getSections();
+	}
+
+	public Dept insertDept(int dId, String dName) {
+		for (int i = 1; i < shards.length; i++) {
+			shards[i].insertDept(dId, dName);
+		}
+		return shards[0].insertDept(dId, dName);
+	}
+
+	public Course insertCourse(int cId, String title, Dept dept) {
+		for (int i = 1; i < shards.length; i++) {
+			shards[i].insertCourse(cId, title, shards[i].findDept(dept.getDId()));
+		}
+		return shards[0].insertCourse(cId, title, dept);
+	}
+
+	public Section insertSection(int sectId, Course course, String prof, int yearOffered) {
+		return insertSection(sectId, course, prof, yearOffered, SectionDAO.DEFAULT_CAPACITY);
+	}
+
+	public Section insertSection(int sectId, Course course, String prof, int yearOffered, int capacity) {
+		for (int i = 1; i < shards.length; i++) {
+			shards[i].insertSection(sectId, shards[i].findCourse(course.getCId()), prof, yearOffered,
+					Integer.MAX_VALUE);
+		}
+		return shards[0].insertSection(sectId, course, prof, yearOffered, capacity);
+	}
+
+	// ***************************************************************
+	// Partitioned data -- routed by student id
+
+	public Student findStudent(int sId) {
+		return shardFor(sId).findStudent(sId);
+	}
+
+	public Student insertStudent(int sId, String sName, Dept major, int gradYear) {
+		DatabaseManager shard = shardFor(sId);
+		Dept localMajor = (major == null) ? null : shard.findDept(major.getDId());
+		return shard.insertStudent(sId, sName, localMajor, gradYear);
+	}
+
+	/**
+	 * Enroll a student, taking the seat in shard 0 (see the class comment).
+	 *
+	 * @param eId
+	 * @param student
+	 * @param section
+	 * @param grade
+	 * @return the new Enroll object, or null if the eId is in use or the section
+	 *         is full
+	 */
+	public Enroll insertEnroll(int eId, Student student, Section section, String grade) {
+		DatabaseManager shard = shardFor(student.getSId());
+		int sectId = section.getSectId();
+		if (shard == shards[0]) {
+			return shard.insertEnroll(eId, shard.findStudent(student.getSId()), shard.findSection(sectId), grade);
+		}
+
+		try {
+			if (!shards[0].reserveSeat(sectId)) {
+				return null;
+			}
+			Enroll enroll = shard.insertEnroll(eId, shard.findStudent(student.getSId()), shard.findSection(sectId),
+					grade);
+			if (enroll == null) {
+				shards[0].releaseSeat(sectId);
+			}
+			return enroll;
+		} catch (SQLException e) {
+			shards[0].cleanup();
+			throw new RuntimeException("error reserving seat", e);
+		}
+	}
+
+	/**
+	 * @param sId
+	 * @return the student's grade point average, or null if they have no grades
+	 */
+	public Double getStudentGpa(int sId) {
+		return shardFor(sId).getStudentGpa(sId);
+	}
+
+	/**
+	 * @param sectId
+	 * @return the average grade points given in the section by every shard, or
+	 *         null if it has no grades
+	 */
+	public Double getSectionGpa(int sectId) {
+		int points = 0;
+		int graded = 0;
+		for (int[] totals : scatter(dbm -> dbm.getSectionGradeTotals(sectId))) {
+			points += totals[0];
+			graded += totals[1];
+		}
+		return (graded > 0) ? points / 10.0 / graded : null;
+	}
+
+	/**
+	 * Find a student by name in whichever shard has one, preferring the lowest
+	 * numbered shard if several do.
+	 *
+	 * @param sName
+	 * @return the Student object, or null if not found
+	 */
+	public Student findStudentByName(String sName) {
+		for (Student student : scatter(dbm -> dbm.findStudentByName(sName))) {
+			if (student != null) {
+				return student;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Find an enrollment given its key. Enrollment ids do not say which student
+	 * they belong to, so every shard is asked.
+	 *
+	 * @param eId
+	 * @return the Enroll object, or null if not found
+	 */
+	public Enroll findEnroll(int eId) {
+		for (Enroll enroll : scatter(dbm -> dbm.findEnroll(eId))) {
+			if (enroll != null) {
+				return enroll;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Retrieve all of the enrollments in a section, from every shard. (Calling
+	 * getEnrollments on a Section only sees the enrollments in its own shard.)
+	 *
+	 * @param sectId
+	 * @return the collection
+	 */
+	public Collection<Enroll> getSectionEnrollments(int sectId) {
+		List<Enroll> enrollments = new ArrayList<>();
+		for (Collection<Enroll> part : scatter(dbm -> {
+			Section section = dbm.findSection(sectId);
+			return (section == null) ? new ArrayList<Enroll>() : section.getEnrollments();
+		})) {
+			enrollments.addAll(part);
+		}
+		enrollments.sort(Comparator.comparingInt(Enroll::getEId));
+		return enrollments;
+	}
+
+	/**
+	 * Retrieve all students from every shard, in order of id.
+	 *
+	 * @return the collection
+	 */
+	public Collection<Student> getStudents() {
+		List<Student> students = new ArrayList<>();
+		for (Collection<Student> part : scatter(DatabaseManager::getStudents)) {
+			students.addAll(part);
+		}
+		students.sort(Comparator.comparingInt(Student::getSId));
+		return students;
+	}
+
+	// ***************************************************************
+	// Utility functions
+
+	/**
+	 * Run the same operation on every shard in parallel.
+	 *
+	 * @param op
+	 * @return the results, in shard order
+	 */
+	private <T> List<T> scatter(Function<DatabaseManager, T> op) {
+		List<Future<T>> futures = new ArrayList<>();
+		for (DatabaseManager shard : shards) {
+			futures.add(executor.submit(() -> op.apply(shard)));
+		}
+
+		List<T> results = new ArrayList<>();
+		try {
+			for (Future<T> future : futures) {
+				results.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted during shard query", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("error in shard query", e.getCause());
+		}
+		return results;
+	}
+
+	/**
+	 * Commit changes in every shard
+	 */
+	public void commit() {
+		for (DatabaseManager shard : shards) {
+			shard.commit();
+		}
+	}
+
+	/**
+	 * Clear out all data from every shard
+	 */
+	public void clearTables() {
+		for (DatabaseManager shard : shards) {
+			shard.clearTables();
+		}
+	}
+
+	/**
+	 * Close all of the shards
+	 */
+	public void close() {
+		executor.shutdown();
+		for (DatabaseManager shard : shards) {
+			shard.close();
+		}
+	}
+}
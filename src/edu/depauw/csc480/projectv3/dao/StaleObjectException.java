@@ -0,0 +1,28 @@
+package edu.depauw.csc480.projectv3.dao;
+
+/**
+ * Thrown when a version-checked update finds that its row was changed (or
+ * deleted) by another transaction after the model object was loaded. The
+ * object keeps its old value and has been dropped from the cache, so the
+ * usual response is to roll back, find it again, and redo the change, which
+ * DatabaseManager.inTransaction does automatically.
+ */
+@SuppressWarnings("serial")
+public class StaleObjectException extends RuntimeException {
+	private String table;
+	private int key;
+
+	public StaleObjectException(String table, int key) {
+		super(table + " row " + key + " was changed by another transaction");
+		this.table = table;
+		this.key = key;
+	}
+
+	public String getTable() {
+		return table;
+	}
+
+	public int getKey() {
+		return key;
+	}
+}
@@ -14,6 +14,7 @@ import java.util.Map;
 import edu.depauw.csc480.projectv3.model.Dept;
 import edu.depauw.csc480.projectv3.model.Enroll;
 import edu.depauw.csc480.projectv3.model.Student;
+import edu.depauw.csc480.projectv3.model.StudentSummary;
 
 /**
  * Data Access Object for the Student table. Encapsulates all of the relevant
@@ -26,11 +27,15 @@ public class StudentDAO {
 	private Connection conn;
 	private DatabaseManager dbm;
 	private Map<Integer, Student> cache;
+	private QueryStats.CacheStats cacheStats;
+	private Map<String, Integer> nameIndex;
 
 	public StudentDAO(Connection conn, DatabaseManager dbm) {
 		this.conn = conn;
 		this.dbm = dbm;
 		this.cache = new HashMap<>();
+		this.cacheStats = dbm.getQueryStats().cache("Student");
+		this.nameIndex = new HashMap<>();
 	}
 
 	/**
@@ -46,6 +51,7 @@ public class StudentDAO {
 		sb.append("  SName varchar(10) not null,");
 		sb.append("  MajorId int,");
 		sb.append("  GradYear int not null,");
+		sb.append("  Version int not null default 0,");
 		sb.append("  primary key (SId),");
 		sb.append("  foreign key (MajorId) references DEPT on delete set null");
 		sb.append(")");
@@ -63,12 +69,14 @@ public class StudentDAO {
 	 */
 	public Student find(int sId) {
 		if (cache.containsKey(sId)) {
+			cacheStats.hit();
 			return cache.get(sId);
 		}
+		cacheStats.miss();
 
 		try {
 			StringBuilder sb = new StringBuilder();
-			sb.append("select s.SName, s.MajorId, s.GradYear");
+			sb.append("select s.SName, s.MajorId, s.GradYear, s.Version");
 			sb.append("  from STUDENT s");
 			sb.append("  where s.SId = ?");
 
@@ -83,11 +91,12 @@ public class StudentDAO {
 			String sName = rs.getString("SName");
 			int majorId = rs.getInt("MajorId");
 			int gradYear = rs.getInt("GradYear");
+			int version = rs.getInt("Version");
 			rs.close();
 
 			Dept major = dbm.findDept(majorId);
-			Student student = new Student(this, sId, sName, major, gradYear);
-			cache.put(sId, student);
+			Student student = new Student(this, sId, sName, major, gradYear, version);
+			addToCache(student);
 
 			return student;
 		} catch (SQLException e) {
@@ -98,16 +107,24 @@ public class StudentDAO {
 
 	/**
 	 * Retrieve a Student object given its name. If there is more than one with the
-	 * same name, this will return the first one found. Checks the cache to see if
-	 * the desired object already exists in memory.
+	 * same name, this will return the first one found. Checks the name index to
+	 * see if the desired object already exists in memory, in which case no SQL is
+	 * issued.
 	 * 
 	 * @param sName
 	 * @return the Student object, or null if not found
 	 */
 	public Student findByName(String sName) {
+		Integer key = nameIndex.get(sName);
+		if (key != null) {
+			cacheStats.hit();
+			return cache.get(key);
+		}
+		cacheStats.miss();
+
 		try {
 			StringBuilder sb = new StringBuilder();
-			sb.append("select s.SId, s.MajorId, s.GradYear");
+			sb.append("select s.SId, s.MajorId, s.GradYear, s.Version");
 			sb.append("  from STUDENT s");
 			sb.append("  where s.SName = ?");
 
@@ -122,6 +139,7 @@ public class StudentDAO {
 			int sId = rs.getInt("SId");
 			int majorId = rs.getInt("MajorId"); // returns 0 if NULL
 			int gradYear = rs.getInt("GradYear");
+			int version = rs.getInt("Version");
 			rs.close();
 
 			if (cache.containsKey(sId)) {
@@ -129,8 +147,8 @@ public class StudentDAO {
 			}
 
 			Dept major = dbm.findDept(majorId); // null if majorId doesn't exist
-			Student student = new Student(this, sId, sName, major, gradYear);
-			cache.put(sId, student);
+			Student student = new Student(this, sId, sName, major, gradYear, version);
+			addToCache(student);
 
 			return student;
 		} catch (SQLException e) {
@@ -170,11 +188,12 @@ public class StudentDAO {
 			pstmt.setInt(4, gradYear);
 			pstmt.executeUpdate();
 
-			Student student = new Student(this, sId, sName, major, gradYear);
-			cache.put(sId, student);
+			Student student = new Student(this, sId, sName, major, gradYear, 0);
+			addToCache(student);
 
 			// Tell the Dept that it will have to recalculate its majors list
 			major.invalidate();
+			dbm.listChanged(ChangeBus.Table.DEPT, major.getDId());
 
 			return student;
 		} catch (SQLException e) {
@@ -185,17 +204,22 @@ public class StudentDAO {
 
 	/**
 	 * Major was changed in the model object, so propagate the change to the
-	 * database.
+	 * database, provided that the row has not been changed since the object was
+	 * loaded.
 	 * 
 	 * @param sId
+	 * @param version the version the object was loaded with
+	 * @param oldMajor
 	 * @param major
+	 * @return the new version
+	 * @throws StaleObjectException if the row has been changed or deleted
 	 */
-	public void changeMajor(int sId, Dept oldMajor, Dept major) {
+	public int changeMajor(int sId, int version, Dept oldMajor, Dept major) {
 		try {
 			StringBuilder sb = new StringBuilder();
 			sb.append("update STUDENT");
-			sb.append("  set MajorId = ?");
-			sb.append("  where SId = ?");
+			sb.append("  set MajorId = ?, Version = Version + 1");
+			sb.append("  where SId = ? and Version = ?");
 
 			PreparedStatement pstmt = conn.prepareStatement(sb.toString());
 			if (major == null) {
@@ -204,16 +228,22 @@ public class StudentDAO {
 				pstmt.setInt(1, major.getDId());
 			}
 			pstmt.setInt(2, sId);
-			pstmt.executeUpdate();
+			pstmt.setInt(3, version);
+			checkUpdated(pstmt.executeUpdate(), sId);
 
 			// Tell the relevant Depts that they need to recalculate their majors lists
 			if (oldMajor != null) {
 				oldMajor.invalidate();
+				dbm.listChanged(ChangeBus.Table.DEPT, oldMajor.getDId());
 			}
 
 			if (major != null) {
 				major.invalidate();
+				dbm.listChanged(ChangeBus.Table.DEPT, major.getDId());
 			}
+			dbm.rowChanged(ChangeBus.Table.STUDENT, sId);
+
+			return version + 1;
 		} catch (SQLException e) {
 			dbm.cleanup();
 			throw new RuntimeException("error changing major", e);
@@ -222,22 +252,30 @@ public class StudentDAO {
 
 	/**
 	 * Graduation year was changed in the model object, so propagate the change to
-	 * the database.
+	 * the database, provided that the row has not been changed since the object
+	 * was loaded.
 	 * 
 	 * @param sId
+	 * @param version  the version the object was loaded with
 	 * @param gradYear
+	 * @return the new version
+	 * @throws StaleObjectException if the row has been changed or deleted
 	 */
-	public void changeGradYear(int sId, int gradYear) {
+	public int changeGradYear(int sId, int version, int gradYear) {
 		try {
 			StringBuilder sb = new StringBuilder();
 			sb.append("update STUDENT");
-			sb.append("  set GradYear = ?");
-			sb.append("  where SId = ?");
+			sb.append("  set GradYear = ?, Version = Version + 1");
+			sb.append("  where SId = ? and Version = ?");
 
 			PreparedStatement pstmt = conn.prepareStatement(sb.toString());
 			pstmt.setInt(1, gradYear);
 			pstmt.setInt(2, sId);
-			pstmt.executeUpdate();
+			pstmt.setInt(3, version);
+			checkUpdated(pstmt.executeUpdate(), sId);
+			dbm.rowChanged(ChangeBus.Table.STUDENT, sId);
+
+			return version + 1;
 		} catch (SQLException e) {
 			dbm.cleanup();
 			throw new RuntimeException("error changing graduation year", e);
@@ -291,7 +329,7 @@ public class StudentDAO {
 			Collection<Student> students = new ArrayList<>();
 
 			StringBuilder sb = new StringBuilder();
-			sb.append("select s.SId, s.SName, s.MajorId, s.GradYear");
+			sb.append("select s.SId, s.SName, s.MajorId, s.GradYear, s.Version");
 			sb.append("  from STUDENT s");
 
 			PreparedStatement pstmt = conn.prepareStatement(sb.toString());
@@ -302,13 +340,14 @@ public class StudentDAO {
 				String sName = rs.getString("SName");
 				int majorId = rs.getInt("MajorId");
 				int gradYear = rs.getInt("GradYear");
+				int version = rs.getInt("Version");
 
 				if (cache.containsKey(sId)) {
 					students.add(cache.get(sId));
 				} else {
 					Dept major = dbm.findDept(majorId);
-					Student student = new Student(this, sId, sName, major, gradYear);
-					cache.put(sId, student);
+					Student student = new Student(this, sId, sName, major, gradYear, version);
+					addToCache(student);
 					students.add(student);
 				}
 			}
@@ -321,6 +360,135 @@ public class StudentDAO {
 		}
 	}
 
+	/**
+	 * Retrieve a summary of every student, with the major department's name, in
+	 * order of key. This is a single join query, and the results are not model
+	 * objects, so nothing is added to the cache, which also makes it safe to
+	 * read them without waiting for locks (at READ_UNCOMMITTED).
+	 * 
+	 * @param isolation
+	 * @return the collection
+	 */
+	public Collection<StudentSummary> getSummaries(Isolation isolation) {
+		try {
+			Collection<StudentSummary> summaries = new ArrayList<>();
+
+			StringBuilder sb = new StringBuilder();
+			sb.append("select s.SId, s.SName, s.GradYear, d.DName");
+			sb.append("  from STUDENT s left join DEPT d on s.MajorId = d.DId");
+			sb.append("  order by s.SId");
+			sb.append(isolation.clause());
+
+			PreparedStatement pstmt = conn.prepareStatement(sb.toString());
+			ResultSet rs = pstmt.executeQuery();
+
+			while (rs.next()) {
+				summaries.add(new StudentSummary(rs.getInt("SId"), rs.getString("SName"), rs.getInt("GradYear"),
+						rs.getString("DName")));
+			}
+			rs.close();
+
+			return summaries;
+		} catch (SQLException e) {
+			dbm.cleanup();
+			throw new RuntimeException("error listing students", e);
+		}
+	}
+
+	/**
+	 * Retrieve a Collection of all students, like getAll, but reading the table
+	 * in key-range partitions on several connections at once. Departments are
+	 * preloaded, so resolving each major is a cache hit.
+	 * 
+	 * @param scan
+	 * @return the collection, in order of key
+	 */
+	Collection<Student> getAll(ParallelScan scan) {
+		try {
+			dbm.preloadReferenceData();
+			Collection<Student> students = new ArrayList<>();
+
+			for (Object[] row : scan.scan("STUDENT", "SId", "SId", "SName", "MajorId", "GradYear", "Version")) {
+				int sId = ParallelScan.getInt(row, 0);
+
+				if (cache.containsKey(sId)) {
+					students.add(cache.get(sId));
+				} else {
+					Dept major = (row[2] == null) ? null : dbm.findDept(ParallelScan.getInt(row, 2));
+					Student student = new Student(this, sId, (String) row[1], major, ParallelScan.getInt(row, 3),
+							ParallelScan.getInt(row, 4));
+					addToCache(student);
+					students.add(student);
+				}
+			}
+
+			return students;
+		} catch (SQLException e) {
+			dbm.cleanup();
+			throw new RuntimeException("error finding students", e);
+		}
+	}
+
+	/**
+	 * A version-checked update that changed no rows means that another
+	 * transaction got there first. The cached object is out of date, so drop it;
+	 * the next find will load the current row.
+	 */
+	private void checkUpdated(int rows, int sId) {
+		if (rows == 0) {
+			Student stale = cache.remove(sId);
+			if (stale != null) {
+				nameIndex.remove(stale.getSName(), sId);
+			}
+			throw new StaleObjectException("STUDENT", sId);
+		}
+	}
+
+	/**
+	 * Another manager has committed a change to this student: either to the row
+	 * itself, so the cached copy (if any) must be evicted, along with the major's
+	 * list that holds it, or only to its enrollments, so the copy must recalculate
+	 * them when next asked. (The enrollments that refer to an evicted copy are
+	 * handled by EnrollDAO.studentChanged.)
+	 * 
+	 * @param sId
+	 * @param row
+	 */
+	void changed(int sId, boolean row) {
+		Student student = cache.get(sId);
+		if (student == null) {
+			return;
+		}
+		if (row) {
+			cache.remove(sId);
+			nameIndex.remove(student.getSName(), sId);
+			if (student.getMajor() != null) {
+				student.getMajor().invalidate();
+			}
+		} else {
+			student.invalidate();
+		}
+	}
+
+	/**
+	 * Forget all cached students, without changing the database.
+	 */
+	void evictAll() {
+		cache.clear();
+		nameIndex.clear();
+	}
+
+	/**
+	 * Record a newly-loaded Student in the cache, and in the name index unless
+	 * another student with the same name is already there.
+	 * 
+	 * @param student
+	 */
+	private void addToCache(Student student) {
+		cache.put(student.getSId(), student);
+		nameIndex.putIfAbsent(student.getSName(), student.getSId());
+	}
+
 	/**
 	 * Clear all data from the Student table.
 	 * 
@@ -331,5 +499,6 @@ public class StudentDAO {
 		String s = "delete from STUDENT";
 		stmt.executeUpdate(s);
 		cache.clear();
+		nameIndex.clear();
 	}
 }
@@ -0,0 +1,61 @@
+package edu.depauw.csc480.projectv3.dao;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * A fingerprint of the contents of a table: its row count and a 64-bit FNV-1a
+ * hash of the key and the given columns of every row, in key order. Copies of
+ * small tables kept outside the database (such as ReferenceStore and the search
+ * indexes) compare fingerprints to notice when they are out of date, whether
+ * rows were added, deleted, or updated. Computing one reads the whole table, so
+ * it is meant for tables of at most a few thousand rows.
+ */
+public class TableFingerprint {
+	private static final long OFFSET = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	private TableFingerprint() {
+	}
+
+	/**
+	 * @param conn
+	 * @param table
+	 * @param key
+	 * @param columns
+	 * @return { row count, hash }
+	 * @throws SQLException
+	 */
+	public static long[] of(Connection conn, String table, String key, String... columns) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("select x.").append(key);
+		for (String column : columns) {
+			sb.append(", x.").append(column);
+		}
+		sb.append("  from ").append(table).append(" x");
+		sb.append("  order by x.").append(key);
+
+		long count = 0;
+		long hash = OFFSET;
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sb.toString())) {
+			while (rs.next()) {
+				count++;
+				for (int c = 1; c <= columns.length + 1; c++) {
+					String value = rs.getString(c);
+					if (value == null) {
+						// a noncharacter that text does not contain, so null differs from "null"
+						hash = (hash ^ 0xffff) * PRIME;
+					} else {
+						for (int i = 0; i < value.length(); i++) {
+							hash = (hash ^ value.charAt(i)) * PRIME;
+						}
+					}
+					hash = (hash ^ 0x1f) * PRIME; // unit separator between values
+				}
+			}
+		}
+		return new long[] { count, hash };
+	}
+}
@@ -9,13 +9,15 @@ public class Enroll {
 	private Student student;
 	private Section section;
 	private String grade;
+	private int version;
 	
-	public Enroll(EnrollDAO dao, int eId, Student student, Section section, String grade) {
+	public Enroll(EnrollDAO dao, int eId, Student student, Section section, String grade, int version) {
 		this.dao = dao;
 		this.eId = eId;
 		this.student = student;
 		this.section = section;
 		this.grade = grade;
+		this.version = version;
 	}
 
 	public int getEId() {
@@ -35,7 +37,15 @@ public class Enroll {
 	}
 
 	public void setGrade(String grade) {
+		version = dao.changeGrade(eId, version, student, section, grade);
 		this.grade = grade;
-		dao.changeGrade(eId, grade);
+	}
+
+	/**
+	 * @return the version of the row this object was loaded from, which must
+	 *         still match for a change to succeed
+	 */
+	public int getVersion() {
+		return version;
 	}
 }
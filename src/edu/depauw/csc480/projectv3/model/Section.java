@@ -45,6 +45,17 @@ public class Section {
 		return enrollments;
 	}
 
+	/**
+	 * @return the number of students enrolled, without loading them
+	 */
+	public int getEnrollmentCount() {
+		return dao.getSeatsTaken(sectId);
+	}
+
+	public int getCapacity() {
+		return dao.getCapacity(sectId);
+	}
+
 	public void invalidate() {
 		enrollments = null;
 	}
@@ -0,0 +1,41 @@
+package edu.depauw.csc480.projectv3.model;
+
+/**
+ * Read-only view of one row of a section listing. Unlike Section, it has no
+ * DAO or lazy collections and is not kept in any cache.
+ */
+public final class SectionSummary {
+	private final int sectId;
+	private final String deptName;
+	private final String title;
+	private final String prof;
+	private final int yearOffered;
+
+	public SectionSummary(int sectId, String deptName, String title, String prof, int yearOffered) {
+		this.sectId = sectId;
+		this.deptName = deptName;
+		this.title = title;
+		this.prof = prof;
+		this.yearOffered = yearOffered;
+	}
+
+	public int getSectId() {
+		return sectId;
+	}
+
+	public String getDeptName() {
+		return deptName;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public String getProf() {
+		return prof;
+	}
+
+	public int getYearOffered() {
+		return yearOffered;
+	}
+}
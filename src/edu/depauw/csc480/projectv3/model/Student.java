@@ -11,15 +11,17 @@ public class Student {
 	private String sName;
 	private Dept major;
 	private int gradYear;
+	private int version;
 	
 	private Collection<Enroll> enrollments;
 
-	public Student(StudentDAO dao, int sId, String sName, Dept major, int gradYear) {
+	public Student(StudentDAO dao, int sId, String sName, Dept major, int gradYear, int version) {
 		this.dao = dao;
 		this.sId = sId;
 		this.sName = sName;
 		this.major = major;
 		this.gradYear = gradYear;
+		this.version = version;
 	}
 
 	public int getSId() {
@@ -35,9 +37,8 @@ public class Student {
 	}
 
 	public void setMajor(Dept major) {
-		Dept oldMajor = major;
+		version = dao.changeMajor(sId, version, this.major, major);
 		this.major = major;
-		dao.changeMajor(sId, oldMajor, major);
 	}
 
 	public int getGradYear() {
@@ -45,8 +46,16 @@ public class Student {
 	}
 
 	public void setGradYear(int gradYear) {
+		version = dao.changeGradYear(sId, version, gradYear);
 		this.gradYear = gradYear;
-		dao.changeGradYear(sId, gradYear);
+	}
+
+	/**
+	 * @return the version of the row this object was loaded from, which must
+	 *         still match for a change to succeed
+	 */
+	public int getVersion() {
+		return version;
 	}
 
 	public Collection<Enroll> getEnrollments() {
@@ -0,0 +1,38 @@
+package edu.depauw.csc480.projectv3.model;
+
+/**
+ * Read-only view of one row of a student listing. Unlike Student, it has no
+ * DAO or lazy collections and is not kept in any cache.
+ */
+public final class StudentSummary {
+	private final int sId;
+	private final String sName;
+	private final int gradYear;
+	private final String majorName;
+
+	public StudentSummary(int sId, String sName, int gradYear, String majorName) {
+		this.sId = sId;
+		this.sName = sName;
+		this.gradYear = gradYear;
+		this.majorName = majorName;
+	}
+
+	public int getSId() {
+		return sId;
+	}
+
+	public String getSName() {
+		return sName;
+	}
+
+	public int getGradYear() {
+		return gradYear;
+	}
+
+	/**
+	 * @return the name of the major department, or null if there is none
+	 */
+	public String getMajorName() {
+		return majorName;
+	}
+}
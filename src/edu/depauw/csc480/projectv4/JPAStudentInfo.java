@@ -13,6 +13,7 @@ import javax.swing.JTable;
 import javax.swing.JTextField;
 import javax.swing.table.DefaultTableModel;
 
+import edu.depauw.csc480.derby.ConnectionFactory;
 import edu.depauw.csc480.projectv4.model.Course;
 import edu.depauw.csc480.projectv4.model.Enroll;
 import edu.depauw.csc480.projectv4.model.Section;
@@ -20,7 +21,8 @@ import edu.depauw.csc480.projectv4.model.Student;
 
 public class JPAStudentInfo {
 	public static void main(String[] args) {
-		EntityManagerFactory emf = Persistence.createEntityManagerFactory("studentdb");
+		EntityManagerFactory emf = Persistence.createEntityManagerFactory("studentdb",
+				ConnectionFactory.jpaProperties("db/studentdb"));
 		EntityManager em = emf.createEntityManager();
 		JFrame frame = new TSFrame(em);
 		frame.setVisible(true);
@@ -73,11 +75,14 @@ class TSPanel extends JPanel {
 			String yearstring = JOptionPane.showInputDialog("Enter new grad year");
 			int sid = Integer.parseInt(txt.getText());
 			int newyear = Integer.parseInt(yearstring);
-			em.getTransaction().begin();
-			Student s = em.find(Student.class, sid);
-			s.setGradYear(newyear);
+			Student s = JpaRetry.retryOnConflict(em, 3, m -> {
+				Student found = m.find(Student.class, sid);
+				if (found != null) {
+					found.setGradYear(newyear);
+				}
+				return found;
+			});
 			display(s);
-			em.getTransaction().commit();
 		});
 
 		btn3.addActionListener(e -> {
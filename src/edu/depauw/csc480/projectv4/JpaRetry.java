@@ -0,0 +1,61 @@
+package edu.depauw.csc480.projectv4;
+
+import java.util.function.Function;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityTransaction;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.RollbackException;
+
+/**
+ * Runs a unit of work in a transaction, starting over if another transaction
+ * updated one of the same versioned entities (Student or Enroll) first. The
+ * persistence context is cleared before each attempt, so the work must find the
+ * entities it changes each time it runs.
+ */
+public class JpaRetry {
+	/**
+	 * @param em
+	 * @param attempts
+	 * @param work
+	 * @return the result of the successful attempt
+	 * @throws OptimisticLockException if every attempt found a conflict
+	 */
+	public static <T> T retryOnConflict(EntityManager em, int attempts, Function<EntityManager, T> work) {
+		for (int attempt = 1;; attempt++) {
+			EntityTransaction tx = em.getTransaction();
+			em.clear();
+			tx.begin();
+			try {
+				T result = work.apply(em);
+				tx.commit();
+				return result;
+			} catch (RuntimeException e) {
+				if (tx.isActive()) {
+					tx.rollback();
+				}
+				OptimisticLockException conflict = conflict(e);
+				if (conflict == null) {
+					throw e;
+				}
+				if (attempt >= attempts) {
+					throw conflict;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A conflict may be reported directly (from a flush during the work) or as
+	 * the cause of the RollbackException thrown by commit.
+	 */
+	private static OptimisticLockException conflict(RuntimeException e) {
+		if (e instanceof OptimisticLockException) {
+			return (OptimisticLockException) e;
+		}
+		if (e instanceof RollbackException && e.getCause() instanceof OptimisticLockException) {
+			return (OptimisticLockException) e.getCause();
+		}
+		return null;
+	}
+}
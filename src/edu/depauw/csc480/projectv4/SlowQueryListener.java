@@ -0,0 +1,101 @@
+package edu.depauw.csc480.projectv4;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.openjpa.lib.jdbc.AbstractJDBCListener;
+import org.apache.openjpa.lib.jdbc.JDBCEvent;
+
+import edu.depauw.csc480.derby.SlowQueryLog;
+
+/**
+ * OpenJPA JDBC listener that writes slow statements to a SlowQueryLog configured
+ * from the slowquery.* system properties; if slowquery.thresholdMillis is not
+ * set, it does nothing. Registered through the openjpa.jdbc.JDBCListeners
+ * property in persistence.xml. OpenJPA's events do not expose the parameter
+ * values, so only the statement text is logged.
+ *
+ * Because OpenJPA reports a statement as executed before its results have been
+ * read, the Derby plan for a slow statement is fetched just before the next
+ * statement, commit, or rollback on the same connection.
+ */
+public class SlowQueryListener extends AbstractJDBCListener {
+	private SlowQueryLog log = SlowQueryLog.fromSystemProperties();
+	private Map<Connection, Slow> pending = new WeakHashMap<>();
+	private ThreadLocal<Boolean> busy = ThreadLocal.withInitial(() -> false);
+
+	@Override
+	protected void eventOccurred(JDBCEvent event) {
+		if (log == null || busy.get()) {
+			return;
+		}
+
+		busy.set(true);
+		try {
+			switch (event.getType()) {
+			case JDBCEvent.AFTER_CONNECT:
+				if (log.explains()) {
+					SlowQueryLog.enableRuntimeStatistics(event.getConnection());
+				}
+				break;
+
+			case JDBCEvent.AFTER_EXECUTE_STATEMENT:
+				afterExecute(event);
+				break;
+
+			case JDBCEvent.BEFORE_EXECUTE_STATEMENT:
+			case JDBCEvent.BEFORE_COMMIT:
+			case JDBCEvent.BEFORE_ROLLBACK:
+			case JDBCEvent.BEFORE_CLOSE:
+				flush(event.getConnection());
+				break;
+
+			default:
+				break;
+			}
+		} catch (SQLException e) {
+			// leave the statistics off for this connection
+		} finally {
+			busy.set(false);
+		}
+	}
+
+	private void afterExecute(JDBCEvent event) {
+		JDBCEvent before = event.getAssociatedEvent();
+		long nanos = (before == null) ? 0 : (event.getTime() - before.getTime()) * 1000000L;
+		if (!log.isSlow(nanos)) {
+			return;
+		}
+
+		Slow slow = new Slow(event.getSQL(), nanos);
+		if (log.explains()) {
+			synchronized (pending) {
+				pending.put(event.getConnection(), slow);
+			}
+		} else {
+			log.log(slow.sql, null, slow.nanos, null);
+		}
+	}
+
+	private void flush(Connection conn) {
+		Slow slow;
+		synchronized (pending) {
+			slow = pending.remove(conn);
+		}
+		if (slow != null) {
+			log.log(slow.sql, null, slow.nanos, SlowQueryLog.fetchPlan(conn));
+		}
+	}
+
+	private static class Slow {
+		private String sql;
+		private long nanos;
+
+		Slow(String sql, long nanos) {
+			this.sql = sql;
+			this.nanos = nanos;
+		}
+	}
+}
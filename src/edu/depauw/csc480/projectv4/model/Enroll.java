@@ -7,6 +7,7 @@ import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
 @Entity
 @Table(name = "ENROLL")
@@ -27,6 +28,10 @@ public class Enroll {
 	@Column(name = "Grade", length = 2)
 	private String grade;
 
+	@Version
+	@Column(name = "Version")
+	private int version;
+
 	protected Enroll() {
 		// No-argument constructor for JPA
 	}
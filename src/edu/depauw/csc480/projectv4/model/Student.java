@@ -10,6 +10,7 @@ import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
 import javax.persistence.OneToMany;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
 @Entity
 @Table(name = "STUDENT")
@@ -33,6 +34,10 @@ public class Student {
 	@OneToMany(mappedBy = "student")
 	private Collection<Enroll> enrollments;
 
+	@Version
+	@Column(name = "Version")
+	private int version;
+
 	protected Student() {
 		// No-argument constructor for JPA
 	}
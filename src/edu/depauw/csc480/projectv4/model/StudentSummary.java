@@ -0,0 +1,46 @@
+package edu.depauw.csc480.projectv4.model;
+
+/**
+ * Read-only view of one row of a student listing, built directly by a JPQL
+ * constructor expression such as
+ * 
+ * <pre>
+ * select new edu.depauw.csc480.projectv4.model.StudentSummary(s.sId, s.sName, s.gradYear, m.dName)
+ *   from Student s left join s.major m
+ * </pre>
+ * 
+ * This is not an entity, so it is not managed by the EntityManager and does not
+ * load the related Dept.
+ */
+public final class StudentSummary {
+	private final int sId;
+	private final String sName;
+	private final int gradYear;
+	private final String majorName;
+
+	public StudentSummary(int sId, String sName, int gradYear, String majorName) {
+		this.sId = sId;
+		this.sName = sName;
+		this.gradYear = gradYear;
+		this.majorName = majorName;
+	}
+
+	public int getSId() {
+		return sId;
+	}
+
+	public String getSName() {
+		return sName;
+	}
+
+	public int getGradYear() {
+		return gradYear;
+	}
+
+	/**
+	 * @return the name of the major department, or null if there is none
+	 */
+	public String getMajorName() {
+		return majorName;
+	}
+}
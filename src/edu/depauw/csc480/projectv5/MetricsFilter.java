@@ -0,0 +1,45 @@
+package edu.depauw.csc480.projectv5;
+
+import java.io.IOException;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.MappingMatch;
+
+/**
+ * Times every request passing through a context and records it in a
+ * RequestMetrics, keyed by the path of the servlet that handled it. Requests
+ * that fell through to the default servlet, or that were not found, are
+ * recorded as RequestMetrics.OTHER rather than by their raw path.
+ */
+public class MetricsFilter implements Filter {
+	private RequestMetrics metrics;
+
+	public MetricsFilter(RequestMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	@Override
+	public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+			throws IOException, ServletException {
+		long start = System.nanoTime();
+		try {
+			chain.doFilter(request, response);
+		} finally {
+			long elapsed = System.nanoTime() - start;
+			HttpServletRequest req = (HttpServletRequest) request;
+			HttpServletResponse resp = (HttpServletResponse) response;
+			if (req.getHttpServletMapping().getMappingMatch() == MappingMatch.DEFAULT
+					|| resp.getStatus() == HttpServletResponse.SC_NOT_FOUND) {
+				metrics.record(RequestMetrics.OTHER, elapsed);
+			} else {
+				metrics.record(req.getContextPath() + req.getServletPath(), elapsed);
+			}
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package edu.depauw.csc480.projectv5;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Request counts and latency histograms for each endpoint of the server. All of
+ * the counters are LongAdders, so recording a request never takes a lock and a
+ * scrape only has to sum them up. The histogram buckets follow the Prometheus
+ * convention: each bucket counts the requests that took at most its upper bound
+ * (in seconds), and percentiles are estimated from the buckets at query time.
+ * Requests that match no servlet, or that are answered 404, are all counted
+ * under the endpoint OTHER, so that scanning for URLs cannot add endpoints.
+ */
+public class RequestMetrics {
+	/** The endpoint for unmapped and not-found requests. */
+	public static final String OTHER = "other";
+
+	/** Upper bounds of the latency buckets, in seconds. */
+	static final double[] BOUNDS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+
+	/** Limit on the number of distinct endpoints, so stray URLs can't grow the map. */
+	private static final int MAX_ENDPOINTS = 100;
+
+	private Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+	/**
+	 * Record one completed request.
+	 *
+	 * @param endpoint the request path
+	 * @param nanos    elapsed time
+	 */
+	public void record(String endpoint, long nanos) {
+		Endpoint e = endpoints.get(endpoint);
+		if (e == null) {
+			if (endpoints.size() >= MAX_ENDPOINTS) {
+				endpoint = OTHER;
+			}
+			e = endpoints.computeIfAbsent(endpoint, k -> new Endpoint());
+		}
+		e.record(nanos);
+	}
+
+	/**
+	 * Append the counters in Prometheus text exposition format.
+	 *
+	 * @param sb
+	 */
+	public void writeTo(StringBuilder sb) {
+		sb.append("# HELP http_requests_total Requests completed, by endpoint.\n");
+		sb.append("# TYPE http_requests_total counter\n");
+		for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+			sb.append("http_requests_total{endpoint=\"");
+			escape(sb, entry.getKey());
+			sb.append("\"} ").append(entry.getValue().count.sum()).append('\n');
+		}
+
+		sb.append("# HELP http_request_duration_seconds Request latency, by endpoint.\n");
+		sb.append("# TYPE http_request_duration_seconds histogram\n");
+		for (Map.Entry<String, Endpoint> entry : endpoints.entrySet()) {
+			StringBuilder endpoint = new StringBuilder();
+			escape(endpoint, entry.getKey());
+			String label = "http_request_duration_seconds_bucket{endpoint=\"" + endpoint + "\",le=\"";
+			Endpoint e = entry.getValue();
+			long cumulative = 0;
+			for (int i = 0; i < BOUNDS.length; i++) {
+				cumulative += e.buckets[i].sum();
+				sb.append(label).append(BOUNDS[i]).append("\"} ").append(cumulative).append('\n');
+			}
+			cumulative += e.buckets[BOUNDS.length].sum();
+			sb.append(label).append("+Inf\"} ").append(cumulative).append('\n');
+			sb.append("http_request_duration_seconds_sum{endpoint=\"").append(endpoint).append("\"} ")
+					.append(e.nanos.sum() / 1e9).append('\n');
+			sb.append("http_request_duration_seconds_count{endpoint=\"").append(endpoint).append("\"} ")
+					.append(cumulative).append('\n');
+		}
+	}
+
+	/**
+	 * Append a label value, escaping backslash, double quote, and newline as
+	 * the text exposition format requires.
+	 *
+	 * @param sb
+	 * @param value
+	 */
+	static void escape(StringBuilder sb, String value) {
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '\\') {
+				sb.append("\\\\");
+			} else if (c == '"') {
+				sb.append("\\\"");
+			} else if (c == '\n') {
+				sb.append("\\n");
+			} else {
+				sb.append(c);
+			}
+		}
+	}
+
+	private static class Endpoint {
+		private LongAdder count = new LongAdder();
+		private LongAdder nanos = new LongAdder();
+		private LongAdder[] buckets = new LongAdder[BOUNDS.length + 1];
+
+		Endpoint() {
+			for (int i = 0; i < buckets.length; i++) {
+				buckets[i] = new LongAdder();
+			}
+		}
+
+		void record(long elapsed) {
+			double seconds = elapsed / 1e9;
+			int i = 0;
+			while (i < BOUNDS.length && seconds > BOUNDS[i]) {
+				i++;
+			}
+			buckets[i].increment();
+			nanos.add(elapsed);
+			count.increment();
+		}
+	}
+}
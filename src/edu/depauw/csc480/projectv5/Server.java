@@ -2,10 +2,20 @@ package edu.depauw.csc480.projectv5;
 
 import java.io.File;
 
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.Persistence;
+
 import org.apache.catalina.Context;
 import org.apache.catalina.LifecycleException;
 import org.apache.catalina.connector.Connector;
 import org.apache.catalina.startup.Tomcat;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.derby.ReplicaSnapshot;
+import edu.depauw.csc480.projectv3.dao.ChangeLogCompactor;
+import edu.depauw.csc480.search.UniversitySearch;
 
 /**
  * Demo of starting an embedded Tomcat 10 server. Based in part on
@@ -24,14 +34,65 @@ public class Server {
 		httpConnector.setPort(8080);
 		tomcat.setConnector(httpConnector);
 
+		// With -Dderby.mode=server, other programs can use the database while Tomcat runs
+		EntityManagerFactory emf = Persistence.createEntityManagerFactory("studentdb",
+				ConnectionFactory.jpaProperties("db/studentdb"));
+		RequestMetrics metrics = new RequestMetrics();
+
+		// Serve the pages from a replica if -Dreplica.refreshSeconds is set; creating
+		// an EntityManager first makes sure that the primary database exists
+		emf.createEntityManager().close();
+		ReplicaSnapshot snapshot = ReplicaSnapshot.fromSystemProperties("db/studentdb");
+
+		// Type-ahead search is answered from in-memory indexes that follow the database
+		UniversitySearch search = UniversitySearch.fromSystemProperties("db/studentdb");
+
+		// The search reads the change log, so keep compacting it; on shutdown, the
+		// search unregisters as a consumer so that it no longer holds compaction back
+		ChangeLogCompactor compactor = ChangeLogCompactor.fromSystemProperties("db/studentdb");
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			search.close();
+			if (compactor != null) {
+				compactor.close();
+			}
+		}, "server-shutdown"));
+
 		// Add a servlet for the University database
 		Context ctx = tomcat.addContext("/University", new File("webapps/University").getAbsolutePath());
-		Tomcat.addServlet(ctx, "University", new ServletStudentData());
+		Tomcat.addServlet(ctx, "University", new ServletStudentData(emf, snapshot, search));
 		ctx.addServletMappingDecoded("/StudentData", "University");
+		Tomcat.addServlet(ctx, "Search", new ServletSearch(search));
+		ctx.addServletMappingDecoded("/api/search", "Search");
+		Tomcat.addServlet(ctx, "Suggest", new ServletSuggest(search));
+		ctx.addServletMappingDecoded("/api/suggest", "Suggest");
 		tomcat.initWebappDefaults("/University");
+		addMetricsFilter(ctx, metrics);
+
+		// Serve the collected metrics at /metrics, outside of the measured context
+		Context root = tomcat.addContext("", new File("temp").getAbsolutePath());
+		Tomcat.addServlet(root, "Metrics", new ServletMetrics(metrics, httpConnector, emf));
+		root.addServletMappingDecoded("/metrics", "Metrics");
 
 		tomcat.start();
 		tomcat.getServer().await();
 	}
 
+	/**
+	 * Time every request to the given context.
+	 * 
+	 * @param ctx
+	 * @param metrics
+	 */
+	private static void addMetricsFilter(Context ctx, RequestMetrics metrics) {
+		FilterDef def = new FilterDef();
+		def.setFilterName("Metrics");
+		def.setFilter(new MetricsFilter(metrics));
+		ctx.addFilterDef(def);
+
+		FilterMap map = new FilterMap();
+		map.setFilterName("Metrics");
+		map.addURLPattern("/*");
+		ctx.addFilterMap(map);
+	}
+
 }
@@ -0,0 +1,106 @@
+package edu.depauw.csc480.projectv5;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.PersistenceException;
+
+import org.apache.catalina.connector.Connector;
+import org.apache.openjpa.datacache.CacheStatistics;
+import org.apache.openjpa.persistence.OpenJPAPersistence;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Serves the server's metrics in the Prometheus text exposition format: request
+ * counts and latency histograms from the MetricsFilter, Tomcat thread pool
+ * usage, OpenJPA data cache statistics, and the number of Derby locks held and
+ * waited for. Everything except the lock counts comes from in-memory counters;
+ * the lock counts take one query against SYSCS_DIAG.LOCK_TABLE.
+ */
+@SuppressWarnings("serial")
+public class ServletMetrics extends HttpServlet {
+	private RequestMetrics metrics;
+	private Connector connector;
+	private EntityManagerFactory emf;
+	private EntityManager em;
+
+	public ServletMetrics(RequestMetrics metrics, Connector connector, EntityManagerFactory emf) {
+		this.metrics = metrics;
+		this.connector = connector;
+		this.emf = emf;
+		this.em = emf.createEntityManager();
+	}
+
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+		StringBuilder sb = new StringBuilder(4096);
+		metrics.writeTo(sb);
+		writeThreadPool(sb);
+		writeCacheStatistics(sb);
+		writeLocks(sb);
+
+		response.setContentType("text/plain; version=0.0.4; charset=utf-8");
+		PrintWriter out = response.getWriter();
+		out.print(sb);
+		out.close();
+	}
+
+	private void writeThreadPool(StringBuilder sb) {
+		Executor executor = connector.getProtocolHandler().getExecutor();
+		if (executor instanceof ThreadPoolExecutor) {
+			ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+			gauge(sb, "tomcat_threads_busy", "Request threads currently busy.", pool.getActiveCount());
+			gauge(sb, "tomcat_threads_current", "Request threads currently in the pool.", pool.getPoolSize());
+			gauge(sb, "tomcat_threads_max", "Maximum size of the request thread pool.", pool.getMaximumPoolSize());
+			gauge(sb, "tomcat_threads_queued", "Requests waiting for a thread.", pool.getQueue().size());
+		}
+	}
+
+	private void writeCacheStatistics(StringBuilder sb) {
+		CacheStatistics stats = OpenJPAPersistence.cast(emf).getStoreCache().getStatistics();
+		if (stats != null) {
+			counter(sb, "openjpa_datacache_reads_total", "Data cache lookups.", stats.getTotalReadCount());
+			counter(sb, "openjpa_datacache_hits_total", "Data cache hits.", stats.getTotalHitCount());
+			counter(sb, "openjpa_datacache_writes_total", "Data cache writes.", stats.getTotalWriteCount());
+		}
+	}
+
+	private void writeLocks(StringBuilder sb) {
+		try {
+			List<?> rows;
+			synchronized (em) {
+				rows = em.createNativeQuery("select STATE from SYSCS_DIAG.LOCK_TABLE").getResultList();
+			}
+			long waiting = 0;
+			for (Object state : rows) {
+				if ("WAIT".equals(String.valueOf(state).trim())) {
+					waiting++;
+				}
+			}
+			gauge(sb, "derby_locks_held", "Locks currently granted by Derby.", rows.size() - waiting);
+			gauge(sb, "derby_lock_waits", "Lock requests currently waiting in Derby.", waiting);
+		} catch (PersistenceException ex) {
+			// leave the lock gauges out of this scrape
+		}
+	}
+
+	private static void gauge(StringBuilder sb, String name, String help, long value) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" gauge\n");
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+
+	private static void counter(StringBuilder sb, String name, String help, long value) {
+		sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		sb.append("# TYPE ").append(name).append(" counter\n");
+		sb.append(name).append(' ').append(value).append('\n');
+	}
+}
@@ -0,0 +1,80 @@
+package edu.depauw.csc480.projectv5;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Collections;
+import java.util.List;
+
+import edu.depauw.csc480.search.Json;
+import edu.depauw.csc480.search.UniversitySearch;
+import edu.depauw.csc480.search.UniversitySearch.Hit;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Type-ahead search over student names, course titles, and professors, for
+ * requests such as /University/api/search?q=smi&amp;type=student&amp;limit=10.
+ * The type is optional; without it, each type contributes up to limit hits.
+ * Answers come from the in-memory indexes of a UniversitySearch, so a request
+ * never touches the database. The response is a JSON array of objects with
+ * type, id, and text.
+ */
+@SuppressWarnings("serial")
+public class ServletSearch extends HttpServlet {
+	private static final int DEFAULT_LIMIT = 10;
+	private static final int MAX_LIMIT = 50;
+
+	private UniversitySearch search;
+
+	public ServletSearch(UniversitySearch search) {
+		this.search = search;
+	}
+
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+		String query = request.getParameter("q");
+		String type = request.getParameter("type");
+		int limit = DEFAULT_LIMIT;
+		try {
+			if (request.getParameter("limit") != null) {
+				limit = Math.min(MAX_LIMIT, Integer.parseInt(request.getParameter("limit")));
+			}
+		} catch (NumberFormatException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "limit must be a number");
+			return;
+		}
+
+		List<Hit> hits;
+		if (query == null) {
+			hits = Collections.emptyList();
+		} else if (type == null) {
+			hits = search.search(query, limit);
+		} else {
+			try {
+				hits = search.search(UniversitySearch.Type.valueOf(type.toUpperCase()), query, limit);
+			} catch (IllegalArgumentException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "type must be student, course, or prof");
+				return;
+			}
+		}
+
+		StringBuilder sb = new StringBuilder(64 * hits.size() + 2);
+		sb.append('[');
+		for (Hit hit : hits) {
+			if (sb.length() > 1) {
+				sb.append(',');
+			}
+			sb.append("{\"type\":\"").append(hit.getType().name().toLowerCase()).append("\",\"id\":")
+					.append(hit.getId()).append(",\"text\":");
+			Json.quote(sb, hit.getText());
+			sb.append('}');
+		}
+		sb.append(']');
+
+		response.setContentType("application/json; charset=utf-8");
+		PrintWriter out = response.getWriter();
+		out.print(sb);
+		out.close();
+	}
+}
@@ -2,19 +2,26 @@ package edu.depauw.csc480.projectv5;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.EntityTransaction;
+import javax.persistence.NoResultException;
 import javax.persistence.Persistence;
 import javax.persistence.RollbackException;
 import javax.persistence.TypedQuery;
 
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.derby.ReplicaSnapshot;
 import edu.depauw.csc480.projectv4.model.Course;
 import edu.depauw.csc480.projectv4.model.Dept;
 import edu.depauw.csc480.projectv4.model.Enroll;
 import edu.depauw.csc480.projectv4.model.Section;
 import edu.depauw.csc480.projectv4.model.Student;
+import edu.depauw.csc480.projectv4.model.StudentSummary;
+import edu.depauw.csc480.search.UniversitySearch;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
@@ -22,20 +29,75 @@ import jakarta.servlet.http.HttpServletResponse;
 
 @SuppressWarnings("serial")
 public class ServletStudentData extends HttpServlet {
-	private EntityManagerFactory emf = Persistence.createEntityManagerFactory("studentdb");
-	private EntityManager em = emf.createEntityManager();
+	private EntityManagerFactory emf;
+	private ReplicaSnapshot snapshot;
+	private EntityManagerFactory replicaEmf;
+	private UniversitySearch search;
+
+	public ServletStudentData(EntityManagerFactory emf) {
+		this(emf, null);
+	}
+
+	public ServletStudentData(EntityManagerFactory emf, ReplicaSnapshot snapshot) {
+		this(emf, snapshot, null);
+	}
+
+	/**
+	 * Serve the student listings and transcripts from the replica kept by the
+	 * given snapshot (if it is not null), rather than from the primary database.
+	 * If a search is given, a transcript request for a name that does not match
+	 * exactly lists the students whose names contain it.
+	 * 
+	 * @param emf
+	 * @param snapshot
+	 * @param search
+	 */
+	public ServletStudentData(EntityManagerFactory emf, ReplicaSnapshot snapshot, UniversitySearch search) {
+		this.emf = emf;
+		this.snapshot = snapshot;
+		this.search = search;
+		if (snapshot != null) {
+			this.replicaEmf = Persistence.createEntityManagerFactory("studentdb",
+					ConnectionFactory.jpaProperties(snapshot.getPath()));
+		}
+	}
 
 	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
 		String studentName = request.getParameter("student_name");
 
+		if (snapshot == null) {
+			// EntityManagers are not thread-safe, so each request gets its own
+			EntityManager em = emf.createEntityManager();
+			try {
+				display(response, studentName, em);
+			} finally {
+				em.close();
+			}
+			return;
+		}
+
+		// Reporting reads go to the replica; each request gets its own EntityManager,
+		// since the replica's connections are replaced whenever it is refreshed
+		Lock lock = snapshot.readLock();
+		lock.lock();
+		EntityManager replicaEm = replicaEmf.createEntityManager();
+		try {
+			display(response, studentName, replicaEm);
+		} finally {
+			replicaEm.close();
+			lock.unlock();
+		}
+	}
+
+	private void display(HttpServletResponse response, String studentName, EntityManager em) throws IOException {
 		if (studentName == null) {
-			displayStudents(response);
+			displayStudents(response, em);
 		} else {
-			displayTranscript(response, studentName);
+			displayTranscript(response, studentName, em);
 		}
 	}
 
-	private void displayStudents(HttpServletResponse response) throws IOException {
+	private void displayStudents(HttpServletResponse response, EntityManager em) throws IOException {
 		response.setContentType("text/html");
 		PrintWriter out = response.getWriter();
 		out.println("<html>");
@@ -46,18 +108,20 @@ public class ServletStudentData extends HttpServlet {
 		EntityTransaction tx = em.getTransaction();
 		tx.begin();
 
-		String qry = "select s from Student s";
-		TypedQuery<Student> q = em.createQuery(qry, Student.class);
+		// Only four columns are needed, so build summaries instead of managed entities
+		String qry = "select new edu.depauw.csc480.projectv4.model.StudentSummary(s.sId, s.sName, s.gradYear, m.dName)"
+				+ " from Student s left join s.major m order by s.sId";
+		TypedQuery<StudentSummary> q = em.createQuery(qry, StudentSummary.class);
 
 		out.println("<p><table border=1>");
 		out.println("<tr> <th>Name</th> <th>GradYear</th> <th>Major</th> </tr>");
-		for (Student s : q.getResultList()) {
+		for (StudentSummary s : q.getResultList()) {
 			String name = s.getSName();
 			int year = s.getGradYear();
-			Dept major = s.getMajor();
+			String major = s.getMajorName();
 			out.print("<tr> <td>" + makeLink(name) + "</td> <td>" + year + "</td> <td>");
 			if (major != null) {
-				out.print(major.getDName());
+				out.print(major);
 			} else {
 				out.print("unknown");
 			}
@@ -80,7 +144,8 @@ public class ServletStudentData extends HttpServlet {
 		return "<a href=\"/University/StudentData?student_name=" + name + "\">" + name + "</a>";
 	}
 
-	private void displayTranscript(HttpServletResponse response, String studentName) throws IOException {
+	private void displayTranscript(HttpServletResponse response, String studentName, EntityManager em)
+			throws IOException {
 		response.setContentType("text/html");
 		PrintWriter out = response.getWriter();
 		out.println("<html>");
@@ -94,7 +159,14 @@ public class ServletStudentData extends HttpServlet {
 		String qry = "select s from Student s where s.sName = ?1";
 		TypedQuery<Student> q = em.createQuery(qry, Student.class);
 		q.setParameter(1, studentName);
-		Student student = q.getSingleResult();
+		Student student;
+		try {
+			student = q.getSingleResult();
+		} catch (NoResultException ex) {
+			tx.rollback();
+			displaySuggestions(out, studentName);
+			return;
+		}
 
 		out.println("<p><table border=1>");
 		out.println("<tr> <th>Department</th> <th>Course</th> <th>Year</th> <th>Prof</th> <th>Grade</th> </tr>");
@@ -124,4 +196,21 @@ public class ServletStudentData extends HttpServlet {
 
 		out.close();
 	}
-}
\ No newline at end of file
+
+	private void displaySuggestions(PrintWriter out, String studentName) {
+		out.println("<p>There is no student named " + studentName + "</p>");
+		if (search != null) {
+			List<UniversitySearch.Hit> hits = search.search(UniversitySearch.Type.STUDENT, studentName, 20);
+			if (!hits.isEmpty()) {
+				out.println("<p>Did you mean:</p>");
+				out.println("<ul>");
+				for (UniversitySearch.Hit hit : hits) {
+					out.println("<li>" + makeLink(hit.getText()) + "</li>");
+				}
+				out.println("</ul>");
+			}
+		}
+		out.println("</body> </html>");
+		out.close();
+	}
+}
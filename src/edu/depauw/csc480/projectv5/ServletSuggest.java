@@ -0,0 +1,83 @@
+package edu.depauw.csc480.projectv5;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import edu.depauw.csc480.search.PrefixSuggester;
+import edu.depauw.csc480.search.UniversitySearch;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Autocompletion of student names, for requests such as
+ * /University/api/suggest?prefix=jo&amp;limit=5. The response is a JSON array
+ * of up to limit (at most 10) names, most recently active students first.
+ *
+ * The answer depends only on the URL and the suggester it came from, so the
+ * suggester's version is sent as the ETag. Browsers may reuse an answer for
+ * the shortest time between rebuilds of the suggester; after that they
+ * revalidate, and get 304 Not Modified if it has not been rebuilt. Answers are
+ * written from the suggester's precomputed JSON bytes and a per-thread result
+ * buffer.
+ */
+@SuppressWarnings("serial")
+public class ServletSuggest extends HttpServlet {
+	private static final byte[] OPEN = { '[' }, COMMA = { ',' }, CLOSE = { ']' };
+
+	private UniversitySearch search;
+	private String cacheControl;
+	private ThreadLocal<int[]> buffers = ThreadLocal.withInitial(() -> new int[PrefixSuggester.MAX_K]);
+
+	public ServletSuggest(UniversitySearch search) {
+		this.search = search;
+		this.cacheControl = "public, max-age=" + search.getSuggestInterval();
+	}
+
+	public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException, ServletException {
+		PrefixSuggester suggester = search.getSuggester();
+		String prefix = request.getParameter("prefix");
+		String limit = request.getParameter("limit");
+		int k = PrefixSuggester.MAX_K;
+		if (limit != null) {
+			try {
+				k = Math.max(0, Math.min(k, Integer.parseInt(limit)));
+			} catch (NumberFormatException e) {
+				response.sendError(HttpServletResponse.SC_BAD_REQUEST, "limit must be a number");
+				return;
+			}
+		}
+
+		String etag = '"' + suggester.getVersion() + '"';
+		response.setHeader("ETag", etag);
+		response.setHeader("Cache-Control", cacheControl);
+		if (etag.equals(request.getHeader("If-None-Match"))) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		int[] top = buffers.get();
+		int found = (prefix == null) ? 0 : suggester.suggest(prefix, top, k);
+
+		int length = 2 + Math.max(0, found - 1);
+		for (int i = 0; i < found; i++) {
+			length += suggester.json(top[i]).length;
+		}
+		response.setContentType("application/json");
+		response.setCharacterEncoding(StandardCharsets.UTF_8.name());
+		response.setContentLength(length);
+
+		ServletOutputStream out = response.getOutputStream();
+		out.write(OPEN);
+		for (int i = 0; i < found; i++) {
+			if (i > 0) {
+				out.write(COMMA);
+			}
+			out.write(suggester.json(top[i]));
+		}
+		out.write(CLOSE);
+		out.close();
+	}
+}
@@ -0,0 +1,31 @@
+package edu.depauw.csc480.search;
+
+/**
+ * The little JSON writing that the search servlets need.
+ */
+public class Json {
+	private Json() {
+	}
+
+	/**
+	 * Append s as a JSON string. Besides the escapes JSON requires, '&lt;' is
+	 * escaped too, so that the result is safe inside an HTML script.
+	 *
+	 * @param sb
+	 * @param s
+	 */
+	public static void quote(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20 || c == '<') {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+}
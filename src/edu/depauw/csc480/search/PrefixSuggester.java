@@ -0,0 +1,243 @@
+package edu.depauw.csc480.search;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Autocompletion of student names. The names are held in a sorted array (of
+ * lower-case keys), so the names starting with a prefix are a range found by
+ * two binary searches, and each name has a rank: the most recent year in which
+ * the student took a section, and then the number of enrollments, so that
+ * active students come first. The top ranked names of every range larger than
+ * CACHE_THRESHOLD are computed when the suggester is built; smaller ranges are
+ * scanned. The JSON encoding of each name is also computed in advance.
+ *
+ * Once built, a suggester never changes, and suggest allocates nothing, so any
+ * number of request threads can use it with their own result buffers.
+ */
+public final class PrefixSuggester {
+	public static final int MAX_K = 10;
+
+	private static final int CACHE_THRESHOLD = 64;
+
+	private final String[] names;
+	private final String[] keys;
+	private final long[] ranks;
+	private final byte[][] json;
+	private final String version;
+
+	// top MAX_K of each cached range, by (lo << 32 | hi) in increasing order
+	private final long[] cachedRanges;
+	private final int[][] cachedTop;
+
+	private PrefixSuggester(List<Object[]> rows, String version) {
+		rows.sort(Comparator.comparing((Object[] row) -> (String) row[1]));
+		int n = rows.size();
+		names = new String[n];
+		keys = new String[n];
+		ranks = new long[n];
+		json = new byte[n][];
+		for (int i = 0; i < n; i++) {
+			Object[] row = rows.get(i);
+			names[i] = (String) row[0];
+			keys[i] = (String) row[1];
+			ranks[i] = (Long) row[2];
+			StringBuilder sb = new StringBuilder();
+			Json.quote(sb, names[i]);
+			json[i] = sb.toString().getBytes(StandardCharsets.UTF_8);
+		}
+		this.version = version;
+
+		List<long[]> ranges = new ArrayList<>();
+		cacheRanges(0, n, 0, ranges);
+		ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+		cachedRanges = new long[ranges.size()];
+		cachedTop = new int[ranges.size()][];
+		for (int r = 0; r < cachedRanges.length; r++) {
+			long range = ranges.get(r)[0];
+			int lo = (int) (range >>> 32), hi = (int) range;
+			int[] top = new int[MAX_K];
+			cachedRanges[r] = range;
+			cachedTop[r] = Arrays.copyOf(top, scan(lo, hi, top, MAX_K));
+		}
+	}
+
+	/**
+	 * Collect the ranges of keys sharing a prefix of the given length, and then
+	 * of each longer prefix, as long as they have more than CACHE_THRESHOLD keys.
+	 */
+	private void cacheRanges(int lo, int hi, int depth, List<long[]> ranges) {
+		if (hi - lo <= CACHE_THRESHOLD) {
+			return;
+		}
+		if (depth > 0) {
+			ranges.add(new long[] { ((long) lo << 32) | hi });
+		}
+
+		// keys of exactly this length sort first, and have no longer prefixes
+		int i = lo;
+		while (i < hi && keys[i].length() <= depth) {
+			i++;
+		}
+		while (i < hi) {
+			char c = keys[i].charAt(depth);
+			int j = i;
+			while (j < hi && keys[j].charAt(depth) == c) {
+				j++;
+			}
+			cacheRanges(i, j, depth + 1, ranges);
+			i = j;
+		}
+	}
+
+	/**
+	 * Load the student names, ranked by their latest enrollment. Students
+	 * without a name are left out.
+	 *
+	 * @param conn
+	 * @return the suggester
+	 * @throws SQLException
+	 */
+	public static PrefixSuggester load(Connection conn) throws SQLException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("select s.SName, max(k.YearOffered), count(e.EId)");
+		sb.append("  from STUDENT s");
+		sb.append("    left join ENROLL e on e.StudentId = s.SId");
+		sb.append("    left join SECTION k on e.SectionId = k.SectId");
+		sb.append("  where s.SName is not null");
+		sb.append("  group by s.SId, s.SName");
+
+		List<Object[]> rows = new ArrayList<>();
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(sb.toString())) {
+			while (rs.next()) {
+				String name = rs.getString(1);
+				long rank = ((long) rs.getInt(2) << 32) | rs.getInt(3);
+				rows.add(new Object[] { name, TextIndex.normalize(name), rank });
+			}
+		}
+		return new PrefixSuggester(rows, Long.toString(System.currentTimeMillis(), 36));
+	}
+
+	/**
+	 * Find the best ranked names starting with the prefix, ignoring case.
+	 *
+	 * @param prefix
+	 * @param top    receives the positions of the names, best first
+	 * @param k      the most to find, at most MAX_K and the length of top
+	 * @return the number found
+	 */
+	public int suggest(CharSequence prefix, int[] top, int k) {
+		int start = 0;
+		while (start < prefix.length() && Character.isWhitespace(prefix.charAt(start))) {
+			start++;
+		}
+		if (start == prefix.length()) {
+			return 0;
+		}
+
+		int lo = bound(prefix, start, false);
+		int hi = bound(prefix, start, true);
+		int r = Arrays.binarySearch(cachedRanges, ((long) lo << 32) | hi);
+		if (r >= 0) {
+			int found = Math.min(k, cachedTop[r].length);
+			System.arraycopy(cachedTop[r], 0, top, 0, found);
+			return found;
+		}
+		return scan(lo, hi, top, k);
+	}
+
+	/**
+	 * @return the first position whose key is not before the prefix, or (if
+	 *         after) is after every key starting with it
+	 */
+	private int bound(CharSequence prefix, int start, boolean after) {
+		int lo = 0, hi = keys.length;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = comparePrefix(keys[mid], prefix, start);
+			if (c < 0 || (after && c == 0)) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * @return negative if key sorts before every key starting with the prefix,
+	 *         zero if it starts with it, and positive if after
+	 */
+	private static int comparePrefix(String key, CharSequence prefix, int start) {
+		int length = prefix.length() - start;
+		for (int i = 0; i < length; i++) {
+			if (i == key.length()) {
+				return -1;
+			}
+			char p = Character.toLowerCase(prefix.charAt(start + i));
+			char c = key.charAt(i);
+			if (c != p) {
+				return c - p;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Keep the best k of the range in top, by insertion; ties go to the name that
+	 * sorts first.
+	 */
+	private int scan(int lo, int hi, int[] top, int k) {
+		if (k <= 0) {
+			return 0;
+		}
+		int found = 0;
+		for (int i = lo; i < hi; i++) {
+			if (found == k && ranks[i] <= ranks[top[k - 1]]) {
+				continue;
+			}
+			int j = (found < k) ? found++ : k - 1;
+			while (j > 0 && ranks[top[j - 1]] < ranks[i]) {
+				top[j] = top[j - 1];
+				j--;
+			}
+			top[j] = i;
+		}
+		return found;
+	}
+
+	/**
+	 * @param i a position from suggest
+	 * @return the name
+	 */
+	public String name(int i) {
+		return names[i];
+	}
+
+	/**
+	 * @param i a position from suggest
+	 * @return the name as a UTF-8 JSON string, quotes included
+	 */
+	public byte[] json(int i) {
+		return json[i];
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	/**
+	 * @return a string that differs between suggesters built at different times,
+	 *         for use as an HTTP entity tag
+	 */
+	public String getVersion() {
+		return version;
+	}
+}
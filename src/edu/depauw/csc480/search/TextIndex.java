@@ -0,0 +1,242 @@
+package edu.depauw.csc480.search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An in-memory index of short texts (names, titles) by integer id, for
+ * type-ahead search. Texts are compared in lower case with runs of whitespace
+ * collapsed. Two structures answer a query:
+ * <ul>
+ * <li>a sorted map from each word-start suffix of each text to the ids having
+ * it, so that a query that begins a word anywhere in the text (such as "smi"
+ * for "Bob Smith") is a range of the map; and</li>
+ * <li>a map from each trigram (three consecutive characters) to a sorted array
+ * of the ids whose text contains it, so that a query of at least three
+ * characters that occurs in the middle of a word is found by intersecting the
+ * arrays of its trigrams and checking the few candidates left.</li>
+ * </ul>
+ * Word-start matches are ranked ahead of other matches. Texts can be added,
+ * changed, and removed while other threads search.
+ */
+public class TextIndex {
+	private final Map<Integer, String> texts = new HashMap<>();
+	private final Map<Integer, String> normalized = new HashMap<>();
+	private final TreeMap<String, Postings> words = new TreeMap<>();
+	private final Map<Long, Postings> trigrams = new HashMap<>();
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/**
+	 * A sorted array of ids.
+	 */
+	private static class Postings {
+		int[] ids = new int[4];
+		int size;
+
+		void add(int id) {
+			int i = (size == 0 || ids[size - 1] < id) ? size : Arrays.binarySearch(ids, 0, size, id);
+			if (i < size && i >= 0) {
+				return; // already present
+			}
+			if (i < 0) {
+				i = -i - 1;
+			}
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+			}
+			System.arraycopy(ids, i, ids, i + 1, size - i);
+			ids[i] = id;
+			size++;
+		}
+
+		void remove(int id) {
+			int i = Arrays.binarySearch(ids, 0, size, id);
+			if (i >= 0) {
+				System.arraycopy(ids, i + 1, ids, i, size - i - 1);
+				size--;
+			}
+		}
+	}
+
+	/**
+	 * Add or replace the text with the given id.
+	 *
+	 * @param id
+	 * @param text
+	 */
+	public void put(int id, String text) {
+		lock.writeLock().lock();
+		try {
+			unindex(id);
+			if (text == null) {
+				return;
+			}
+			String norm = normalize(text);
+			texts.put(id, text);
+			normalized.put(id, norm);
+			for (int i = 0; i < norm.length(); i++) {
+				if (i == 0 || norm.charAt(i - 1) == ' ') {
+					words.computeIfAbsent(norm.substring(i), k -> new Postings()).add(id);
+				}
+				if (i + 3 <= norm.length()) {
+					trigrams.computeIfAbsent(trigram(norm, i), k -> new Postings()).add(id);
+				}
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Remove the text with the given id, if any.
+	 *
+	 * @param id
+	 */
+	public void remove(int id) {
+		lock.writeLock().lock();
+		try {
+			unindex(id);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	private void unindex(int id) {
+		String norm = normalized.remove(id);
+		if (norm == null) {
+			return;
+		}
+		texts.remove(id);
+		for (int i = 0; i < norm.length(); i++) {
+			if (i == 0 || norm.charAt(i - 1) == ' ') {
+				removePosting(words, norm.substring(i), id);
+			}
+			if (i + 3 <= norm.length()) {
+				removePosting(trigrams, trigram(norm, i), id);
+			}
+		}
+	}
+
+	private static <K> void removePosting(Map<K, Postings> map, K key, int id) {
+		Postings postings = map.get(key);
+		if (postings != null) {
+			postings.remove(id);
+			if (postings.size == 0) {
+				map.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * @param id
+	 * @return the text with the given id, as it was added, or null
+	 */
+	public String get(int id) {
+		lock.readLock().lock();
+		try {
+			return texts.get(id);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return texts.size();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Find the texts containing the query. Those where it begins a word come
+	 * first, in order of the text from that word on; then, for a query of at least
+	 * three characters, those where it occurs elsewhere, in order of id.
+	 *
+	 * @param query
+	 * @param limit the maximum number of ids to return
+	 * @return the ids of the matching texts
+	 */
+	public List<Integer> search(String query, int limit) {
+		String q = normalize(query);
+		Set<Integer> result = new LinkedHashSet<>();
+		if (q.isEmpty() || limit <= 0) {
+			return new ArrayList<>(result);
+		}
+
+		lock.readLock().lock();
+		try {
+			for (Postings postings : words.subMap(q, true, q + Character.MAX_VALUE, false).values()) {
+				for (int j = 0; j < postings.size && result.size() < limit; j++) {
+					result.add(postings.ids[j]);
+				}
+				if (result.size() >= limit) {
+					return new ArrayList<>(result);
+				}
+			}
+
+			if (q.length() >= 3) {
+				for (int id : candidates(q)) {
+					if (result.size() >= limit) {
+						break;
+					}
+					if (!result.contains(id) && normalized.get(id).contains(q)) {
+						result.add(id);
+					}
+				}
+			}
+			return new ArrayList<>(result);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the ids whose texts contain every trigram of q, in increasing order
+	 */
+	private int[] candidates(String q) {
+		List<Postings> lists = new ArrayList<>();
+		for (int i = 0; i + 3 <= q.length(); i++) {
+			Postings postings = trigrams.get(trigram(q, i));
+			if (postings == null) {
+				return new int[0];
+			}
+			lists.add(postings);
+		}
+		lists.sort((a, b) -> Integer.compare(a.size, b.size));
+
+		// start from the rarest trigram, and keep the ids found in all of the others
+		Postings first = lists.get(0);
+		int[] ids = Arrays.copyOf(first.ids, first.size);
+		int n = ids.length;
+		for (int l = 1; l < lists.size() && n > 0; l++) {
+			Postings other = lists.get(l);
+			int m = 0;
+			for (int j = 0; j < n; j++) {
+				if (Arrays.binarySearch(other.ids, 0, other.size, ids[j]) >= 0) {
+					ids[m++] = ids[j];
+				}
+			}
+			n = m;
+		}
+		return Arrays.copyOf(ids, n);
+	}
+
+	private static long trigram(String s, int i) {
+		return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+	}
+
+	static String normalize(String text) {
+		return text.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+	}
+}
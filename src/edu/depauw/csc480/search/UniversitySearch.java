@@ -0,0 +1,337 @@
+package edu.depauw.csc480.search;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import edu.depauw.csc480.derby.ConnectionFactory;
+import edu.depauw.csc480.projectv3.dao.ChangeLogDAO;
+import edu.depauw.csc480.projectv3.dao.ChangeLogReader;
+import edu.depauw.csc480.projectv3.dao.TableFingerprint;
+
+/**
+ * Search over student names, course titles, and professors, answered from
+ * TextIndexes in memory so that no query ever scans a table with LIKE. The
+ * indexes are loaded when this is created, on its own connection, and then
+ * refreshed periodically:
+ * <ul>
+ * <li>student names follow the CHANGE_LOG, as the consumer "search", so only
+ * the students added, renamed, or deleted since the last refresh are read;
+ * and</li>
+ * <li>courses and sections change rarely and are not logged, so their indexes
+ * are rebuilt whenever the TableFingerprint of their keys and indexed text
+ * changes, so a renamed course or reassigned section is noticed as well as an
+ * added or deleted one.</li>
+ * </ul>
+ * If the database has no CHANGE_LOG, students are treated like courses. Since
+ * the indexes are loaded from scratch when this is created, closing it
+ * unregisters the consumer, so that a stopped search does not hold back
+ * compaction of the log.
+ *
+ * It also keeps a PrefixSuggester for autocompleting student names. Since its
+ * ranking depends on enrollments, it is rebuilt when students or enrollments
+ * have changed, but no more often than every suggest.refreshSeconds (default
+ * 60).
+ */
+public class UniversitySearch implements AutoCloseable {
+	public static final String REFRESH_PROPERTY = "search.refreshSeconds";
+	public static final String SUGGEST_PROPERTY = "suggest.refreshSeconds";
+	public static final String CONSUMER = "search";
+
+	private static final int BATCH = 500;
+
+	public enum Type {
+		STUDENT, COURSE, PROF
+	}
+
+	/**
+	 * One search result. The id of a PROF result is one of the sections the
+	 * professor has taught.
+	 */
+	public static final class Hit {
+		private final Type type;
+		private final int id;
+		private final String text;
+
+		Hit(Type type, int id, String text) {
+			this.type = type;
+			this.id = id;
+			this.text = text;
+		}
+
+		public Type getType() {
+			return type;
+		}
+
+		public int getId() {
+			return id;
+		}
+
+		public String getText() {
+			return text;
+		}
+
+		public String toString() {
+			return type + " " + id + " " + text;
+		}
+	}
+
+	private Connection conn;
+	private ChangeLogReader reader;
+	private ScheduledExecutorService scheduler;
+
+	private volatile TextIndex students, courses, profs;
+	private long[] studentPrint, coursePrint, sectionPrint;
+
+	private volatile PrefixSuggester suggester;
+	private long suggestInterval = TimeUnit.SECONDS.toNanos(Long.getLong(SUGGEST_PROPERTY, 60));
+	private long suggestedAt;
+	private boolean activity;
+
+	/**
+	 * Connect to the database at the given URL and load the indexes.
+	 *
+	 * @param url
+	 */
+	public UniversitySearch(String url) {
+		try {
+			conn = ConnectionFactory.driver(url).connect(url, new Properties());
+			conn.setAutoCommit(false);
+			if (ChangeLogDAO.exists(conn)) {
+				// open the reader first, so that no change is missed while loading
+				reader = new ChangeLogReader(url, CONSUMER);
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			throw new RuntimeException("cannot connect to database", e);
+		}
+		refresh();
+	}
+
+	/**
+	 * If the search.refreshSeconds system property is set, refresh on that
+	 * schedule; otherwise every 5 seconds.
+	 *
+	 * @param path of the database, such as db/studentdb
+	 * @return the running search
+	 */
+	public static UniversitySearch fromSystemProperties(String path) {
+		UniversitySearch search = new UniversitySearch(ConnectionFactory.url(path));
+		search.schedule(Long.getLong(REFRESH_PROPERTY, 5), TimeUnit.SECONDS);
+		return search;
+	}
+
+	/**
+	 * Bring the indexes up to date with the database.
+	 */
+	public synchronized void refresh() {
+		try {
+			if (reader == null || students == null) {
+				long[] print = TableFingerprint.of(conn, "STUDENT", "SId", "SName");
+				if (!Arrays.equals(print, studentPrint)) {
+					students = load("select SId, SName from STUDENT");
+					studentPrint = print;
+					activity = true;
+				}
+			}
+			if (reader != null) {
+				try {
+					activity |= followLog();
+				} catch (SQLException | RuntimeException e) {
+					// read the entries since the last checkpoint again next time;
+					// applying an entry twice does no harm
+					reader.rewind();
+					throw e;
+				}
+			}
+			if (suggester == null || (activity && System.nanoTime() - suggestedAt >= suggestInterval)) {
+				suggester = PrefixSuggester.load(conn);
+				suggestedAt = System.nanoTime();
+				activity = false;
+			}
+
+			long[] print = TableFingerprint.of(conn, "COURSE", "CId", "Title");
+			if (!Arrays.equals(print, coursePrint)) {
+				courses = load("select CId, Title from COURSE");
+				coursePrint = print;
+			}
+			print = TableFingerprint.of(conn, "SECTION", "SectId", "Prof");
+			if (!Arrays.equals(print, sectionPrint)) {
+				profs = load("select min(SectId), Prof from SECTION group by Prof");
+				sectionPrint = print;
+			}
+			conn.commit();
+		} catch (SQLException e) {
+			try {
+				conn.rollback();
+			} catch (SQLException e2) {
+				System.out.println("error: cannot rollback search refresh");
+			}
+			throw new RuntimeException("error refreshing search indexes", e);
+		}
+	}
+
+	/**
+	 * Apply the STUDENT entries in the change log to the student index, and
+	 * checkpoint the reader.
+	 *
+	 * @return whether there were any entries
+	 */
+	private boolean followLog() throws SQLException {
+		boolean any = false;
+		List<ChangeLogReader.Entry> batch;
+		while (!(batch = reader.next(BATCH)).isEmpty()) {
+			any = true;
+			List<Integer> keys = new ArrayList<>();
+			for (ChangeLogReader.Entry entry : batch) {
+				if (entry.getTable().equals("STUDENT")) {
+					keys.add(entry.getKey());
+				}
+			}
+			if (keys.isEmpty()) {
+				continue;
+			}
+
+			StringBuilder sb = new StringBuilder();
+			sb.append("select s.SId, s.SName");
+			sb.append("  from STUDENT s");
+			sb.append("  where s.SId in (");
+			for (int i = 0; i < keys.size(); i++) {
+				sb.append((i == 0) ? "?" : ", ?");
+			}
+			sb.append(")");
+
+			try (PreparedStatement pstmt = conn.prepareStatement(sb.toString())) {
+				for (int i = 0; i < keys.size(); i++) {
+					pstmt.setInt(i + 1, keys.get(i));
+				}
+				List<Integer> deleted = new ArrayList<>(keys);
+				try (ResultSet rs = pstmt.executeQuery()) {
+					while (rs.next()) {
+						students.put(rs.getInt(1), rs.getString(2));
+						deleted.remove((Integer) rs.getInt(1));
+					}
+				}
+				for (int sId : deleted) {
+					students.remove(sId);
+				}
+			}
+		}
+		reader.checkpoint();
+		return any;
+	}
+
+	private TextIndex load(String select) throws SQLException {
+		TextIndex index = new TextIndex();
+		try (Statement stmt = conn.createStatement(); ResultSet rs = stmt.executeQuery(select)) {
+			while (rs.next()) {
+				index.put(rs.getInt(1), rs.getString(2));
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Refresh every period, until closed. A refresh that fails is reported and
+	 * tried again next time.
+	 *
+	 * @param period
+	 * @param unit
+	 */
+	public synchronized void schedule(long period, TimeUnit unit) {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "search-refresh");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				refresh();
+			} catch (RuntimeException e) {
+				System.out.println("search refresh failed: " + e.getCause());
+			}
+		}, period, period, unit);
+	}
+
+	/**
+	 * @return the current suggester for student names
+	 */
+	public PrefixSuggester getSuggester() {
+		return suggester;
+	}
+
+	/**
+	 * @return the most seconds between rebuilds of the suggester
+	 */
+	public long getSuggestInterval() {
+		return TimeUnit.NANOSECONDS.toSeconds(suggestInterval);
+	}
+
+	/**
+	 * Search one kind of text.
+	 *
+	 * @param type
+	 * @param query
+	 * @param limit
+	 * @return up to limit hits, best first
+	 */
+	public List<Hit> search(Type type, String query, int limit) {
+		TextIndex index = (type == Type.STUDENT) ? students : (type == Type.COURSE) ? courses : profs;
+		List<Hit> hits = new ArrayList<>();
+		for (int id : index.search(query, limit)) {
+			String text = index.get(id);
+			if (text != null) {
+				hits.add(new Hit(type, id, text));
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * Search all three kinds of text.
+	 *
+	 * @param query
+	 * @param limit
+	 * @return up to limit hits of each type: students, then courses, then
+	 *         professors
+	 */
+	public List<Hit> search(String query, int limit) {
+		List<Hit> hits = new ArrayList<>();
+		for (Type type : Type.values()) {
+			hits.addAll(search(type, query, limit));
+		}
+		return hits;
+	}
+
+	@Override
+	public synchronized void close() {
+		if (scheduler != null) {
+			scheduler.shutdownNow();
+			scheduler = null;
+		}
+		if (reader != null) {
+			try {
+				reader.unregister();
+			} finally {
+				reader.close();
+			}
+		}
+		try {
+			conn.rollback();
+			conn.close();
+		} catch (SQLException e) {
+			throw new RuntimeException("cannot close database connection", e);
+		}
+	}
+}